@@ -0,0 +1,72 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+/**
+ * A single benchmark of a hot path. Each invocation performs one operation and returns a value derived from its result, which is consumed by the <code>BenchmarkRunner</code> so that the operation cannot be eliminated as dead code.
+ * 
+ * @author Alden
+ *
+ */
+public abstract class BenchmarkCase {
+	public final String name;
+	public final String fixtureName;
+	public final String params;
+
+	protected BenchmarkCase(String name, String fixtureName, String params) {
+		this.name = name;
+		this.fixtureName = fixtureName;
+		this.params = params;
+	}
+
+	/**
+	 * Prepares the inputs of this benchmark. Called once before warm-up and not timed
+	 */
+	public void setup() {
+	}
+
+	/**
+	 * Performs one operation
+	 * 
+	 * @return a value derived from the result of the operation
+	 */
+	public abstract long invoke();
+
+	/**
+	 * Releases the inputs of this benchmark after measurement
+	 */
+	public void teardown() {
+	}
+
+	public String getKey() {
+		return name + "\t" + fixtureName + "\t" + params;
+	}
+}
@@ -0,0 +1,131 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataGenerator;
+import aldenjava.opticalmapping.data.data.ReferenceClusterNode;
+import aldenjava.opticalmapping.data.data.ReferenceReader;
+
+/**
+ * A reference and molecules simulated on it by <code>OptMapDataGenerator</code> with a fixed random seed. The same fixture is produced on every run, so that benchmark results are comparable across commits.
+ * 
+ * @author Alden
+ *
+ */
+public class BenchmarkFixture {
+	public final String name;
+	public final LinkedHashMap<String, DataNode> optrefmap;
+	public final List<DataNode> dataList;
+
+	private BenchmarkFixture(String name, LinkedHashMap<String, DataNode> optrefmap, List<DataNode> dataList) {
+		this.name = name;
+		this.optrefmap = optrefmap;
+		this.dataList = Collections.unmodifiableList(dataList);
+	}
+
+	/**
+	 * Simulates molecules with the default parameters of <code>OptMapDataGenerator</code>
+	 */
+	private static List<DataNode> generateMolecules(LinkedHashMap<String, DataNode> optrefmap, int moleNo, long seed) {
+		LinkedHashMap<String, ReferenceClusterNode> optclusmap = new LinkedHashMap<>();
+		optclusmap.put("ref", new ReferenceClusterNode("ref", optrefmap, 1));
+		OptMapDataGenerator omdg = new OptMapDataGenerator(optclusmap);
+		omdg.setParameters(1200, 500, 200000, 1000000, 100000, 1.00, 0.04, 1.3, 0.7, 0.00001, 0.1, 0, 0, moleNo, 10.0);
+		omdg.setSeed(seed);
+		List<DataNode> dataList = new ArrayList<>();
+		DataNode data;
+		while ((data = omdg.generateNextFragment()) != null)
+			dataList.add(data);
+		return dataList;
+	}
+
+	/**
+	 * Creates a fixture on a reference file
+	 * 
+	 * @param name
+	 * @param refFile
+	 * @param moleNo
+	 *            number of molecules to be simulated
+	 * @param seed
+	 *            random seed of simulation
+	 * @return the fixture
+	 * @throws IOException
+	 */
+	public static BenchmarkFixture fromReference(String name, String refFile, int moleNo, long seed) throws IOException {
+		LinkedHashMap<String, DataNode> optrefmap = ReferenceReader.readAllData(refFile);
+		return new BenchmarkFixture(name, optrefmap, generateMolecules(optrefmap, moleNo, seed));
+	}
+
+	/**
+	 * Creates a fixture on a synthetic reference. Signals are placed with exponentially distributed gaps, i.e. uniformly at random
+	 * 
+	 * @param name
+	 * @param totalSize
+	 *            total size of the reference
+	 * @param chrNo
+	 *            number of reference entries the total size is split into
+	 * @param density
+	 *            number of signals per 100kbp
+	 * @param moleNo
+	 *            number of molecules to be simulated
+	 * @param seed
+	 *            random seed of the reference and simulation
+	 * @return the fixture
+	 */
+	public static BenchmarkFixture synthetic(String name, long totalSize, int chrNo, double density, int moleNo, long seed) {
+		if (totalSize <= 0 || chrNo <= 0 || density <= 0)
+			throw new IllegalArgumentException("Invalid synthetic reference parameters.");
+		Random random = new Random(seed);
+		double meanGap = 100000 / density;
+		LinkedHashMap<String, DataNode> optrefmap = new LinkedHashMap<>();
+		for (int chr = 1; chr <= chrNo; chr++) {
+			long size = totalSize / chrNo;
+			List<Long> refpList = new ArrayList<>();
+			long pos = 0;
+			while ((pos += 1 + (long) (-Math.log(1 - random.nextDouble()) * meanGap)) < size)
+				refpList.add(pos);
+			long[] refp = new long[refpList.size()];
+			for (int i = 0; i < refp.length; i++)
+				refp[i] = refpList.get(i);
+			DataNode ref = new DataNode("chr" + chr, size, refp);
+			optrefmap.put(ref.name, ref);
+		}
+		return new BenchmarkFixture(name, optrefmap, generateMolecules(optrefmap, moleNo, seed));
+	}
+}
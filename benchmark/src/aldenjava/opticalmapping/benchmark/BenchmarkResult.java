@@ -0,0 +1,77 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+/**
+ * Measurement of a <code>BenchmarkCase</code>. Times are in nanoseconds per operation
+ * 
+ * @author Alden
+ *
+ */
+public class BenchmarkResult {
+	public final String key;
+	public final int iterations;
+	public final long ops;
+	public final double mean;
+	public final double sd;
+	public final double min;
+
+	public BenchmarkResult(String key, int iterations, long ops, double mean, double sd, double min) {
+		this.key = key;
+		this.iterations = iterations;
+		this.ops = ops;
+		this.mean = mean;
+		this.sd = sd;
+		this.min = min;
+	}
+
+	public static String getHeader() {
+		return "#Benchmark\tFixture\tParams\tIterations\tOps\tMean(ns/op)\tSD(ns/op)\tMin(ns/op)";
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s\t%d\t%d\t%.1f\t%.1f\t%.1f", key, iterations, ops, mean, sd, min);
+	}
+
+	/**
+	 * Parses a line written by {@link #toString()}
+	 * 
+	 * @param s
+	 * @return the parsed result
+	 */
+	public static BenchmarkResult parse(String s) {
+		String[] l = s.split("\t");
+		if (l.length < 8)
+			throw new IllegalArgumentException("Invalid benchmark result: " + s);
+		return new BenchmarkResult(l[0] + "\t" + l[1] + "\t" + l[2], Integer.parseInt(l[3]), Long.parseLong(l[4]), Double.parseDouble(l[5]), Double.parseDouble(l[6]), Double.parseDouble(l[7]));
+	}
+}
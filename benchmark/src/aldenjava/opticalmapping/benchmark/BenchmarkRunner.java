@@ -0,0 +1,129 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+
+/**
+ * Runs a <code>BenchmarkCase</code> with time-boxed warm-up and measurement iterations. Operations are invoked in batches whose size is calibrated during warm-up, so that the timer is read only a few hundred times per iteration.
+ * 
+ * @author Alden
+ *
+ */
+public class BenchmarkRunner {
+	private final int warmupIterations;
+	private final int measureIterations;
+	private final long iterationTime;
+	private long sink = 0;
+	private volatile long publishedSink;
+
+	/**
+	 * @param warmupIterations
+	 *            number of warm-up iterations
+	 * @param measureIterations
+	 *            number of measurement iterations
+	 * @param iterationTime
+	 *            minimum duration of each iteration in milliseconds
+	 */
+	public BenchmarkRunner(int warmupIterations, int measureIterations, int iterationTime) {
+		if (warmupIterations < 0 || measureIterations < 1 || iterationTime < 1)
+			throw new IllegalArgumentException("Invalid number of iterations or iteration time.");
+		this.warmupIterations = warmupIterations;
+		this.measureIterations = measureIterations;
+		this.iterationTime = iterationTime * 1000000L;
+	}
+
+	/**
+	 * Runs one iteration
+	 * 
+	 * @return number of operations and time used in nanoseconds
+	 */
+	private long[] iterate(BenchmarkCase bc, int batch) {
+		long ops = 0;
+		long startTime = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < batch; i++)
+				sink += bc.invoke();
+			ops += batch;
+			elapsed = System.nanoTime() - startTime;
+		} while (elapsed < iterationTime);
+		publishedSink = sink;
+		return new long[] {ops, elapsed};
+	}
+
+	public BenchmarkResult run(BenchmarkCase bc) {
+		VerbosePrinter.println("Benchmarking " + bc.name + " (" + bc.fixtureName + ", " + bc.params + ")...");
+		bc.setup();
+		// Calibrates the batch size to about 1% of an iteration
+		int batch = 1;
+		while (batch < (1 << 20)) {
+			long startTime = System.nanoTime();
+			for (int i = 0; i < batch; i++)
+				sink += bc.invoke();
+			if (System.nanoTime() - startTime >= iterationTime / 100)
+				break;
+			batch *= 2;
+		}
+		for (int i = 0; i < warmupIterations; i++)
+			iterate(bc, batch);
+		long totalOps = 0;
+		double[] times = new double[measureIterations];
+		for (int i = 0; i < measureIterations; i++) {
+			long[] result = iterate(bc, batch);
+			totalOps += result[0];
+			times[i] = result[1] / (double) result[0];
+		}
+		bc.teardown();
+
+		double mean = 0;
+		double min = Double.MAX_VALUE;
+		for (double time : times) {
+			mean += time;
+			min = Math.min(min, time);
+		}
+		mean /= times.length;
+		double sd = 0;
+		if (times.length > 1) {
+			for (double time : times)
+				sd += (time - mean) * (time - mean);
+			sd = Math.sqrt(sd / (times.length - 1));
+		}
+		return new BenchmarkResult(bc.getKey(), measureIterations, totalOps, mean, sd, min);
+	}
+
+	/**
+	 * Returns the consumed results of all invocations. Useless except for preventing dead code elimination
+	 */
+	public long getSink() {
+		return publishedSink;
+	}
+}
@@ -0,0 +1,359 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import aldenjava.opticalmapping.Cigar;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+import aldenjava.opticalmapping.mapper.ExtensionResult;
+import aldenjava.opticalmapping.mapper.clustermodule.ResultClusterModule;
+import aldenjava.opticalmapping.mapper.omblastmapper.OMBlastCore;
+import aldenjava.opticalmapping.mapper.omblastmapper.SeedExtension;
+import aldenjava.opticalmapping.mapper.seeding.Kmer;
+import aldenjava.opticalmapping.mapper.seeding.Seed;
+import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
+
+/**
+ * Benchmarks of the hot paths of OMBlast: kmer lookup in <code>SeedDatabase</code>, seed extension, <code>Cigar</code> operations and joining of partial alignments. Inputs are derived from the molecules of a <code>BenchmarkFixture</code>; parameters not listed in the benchmark parameters are the defaults of <code>OMBlastMapper</code>.
+ * 
+ * @author Alden
+ *
+ */
+public class HotPathBenchmarks {
+	private static final int MAXNOSIGNAL = 10000000;
+	private static final int MATCHSCORE = 5;
+	private static final int FALSEPPENALTY = 2;
+	private static final int FALSENPENALTY = 2;
+	private static final int FALSELIMIT = 5;
+	private static final int MAXSEEDNUMBER = 10;
+
+	private final BenchmarkFixture fixture;
+	private final int measure;
+	private final double ear;
+	private final int maxInputs;
+
+	/**
+	 * @param fixture
+	 * @param measure
+	 * @param ear
+	 * @param maxInputs
+	 *            maximum number of distinct inputs (kmers, seeds, cigars or queries) cycled through in a benchmark
+	 */
+	public HotPathBenchmarks(BenchmarkFixture fixture, int measure, double ear, int maxInputs) {
+		this.fixture = fixture;
+		this.measure = measure;
+		this.ear = ear;
+		this.maxInputs = maxInputs;
+	}
+
+	private SeedDatabase buildSeedDatabase(int seedingmode, int k) {
+		SeedDatabase seedDatabase = new SeedDatabase(DataNode.getKmerStore(fixture.optrefmap, k, MAXNOSIGNAL));
+		seedDatabase.setMode(seedingmode);
+		seedDatabase.setParameters(k, MAXNOSIGNAL);
+		seedDatabase.setErrorTolerance(ear, measure);
+		seedDatabase.buildDatabase();
+		return seedDatabase;
+	}
+
+	private SeedExtension createSeedExtension() {
+		SeedExtension seedExtension = new SeedExtension(fixture.optrefmap);
+		seedExtension.setParameters(measure, ear, MATCHSCORE, FALSEPPENALTY, FALSENPENALTY, FALSELIMIT, true);
+		return seedExtension;
+	}
+
+	/**
+	 * Collects seeds of the molecules in both orientations, together with the query each seed is found on
+	 */
+	private void collectSeeds(int k, List<DataNode> queryList, List<Seed> seedList) {
+		SeedDatabase seedDatabase = buildSeedDatabase(-1, k);
+		for (DataNode data : fixture.dataList)
+			for (DataNode strandData : new DataNode[] {data, data.getReverse()}) {
+				List<Kmer> kmerList = SeedDatabase.filterLowComplexity(strandData.getKmerWord(k, MAXNOSIGNAL), ear, measure, MAXSEEDNUMBER, 100);
+				for (Seed seed : seedDatabase.getJoinedSeed(kmerList, ear, measure)) {
+					if (seedList.size() >= maxInputs)
+						return;
+					queryList.add(strandData);
+					seedList.add(seed);
+				}
+			}
+	}
+
+	/**
+	 * Lookup of single query kmers in the seed database
+	 */
+	public BenchmarkCase kmerLookup(final int seedingmode, final int k) {
+		return new BenchmarkCase("SeedDatabase.getKmerList", fixture.name, "mode=" + seedingmode + ",k=" + k) {
+			private SeedDatabase seedDatabase;
+			private List<Kmer> kmerList;
+			private int index;
+
+			@Override
+			public void setup() {
+				seedDatabase = buildSeedDatabase(seedingmode, k);
+				kmerList = new ArrayList<>();
+				for (DataNode data : fixture.dataList)
+					for (Kmer kmer : data.getKmerWord(k, MAXNOSIGNAL))
+						if (kmerList.size() < maxInputs)
+							kmerList.add(kmer);
+				if (kmerList.isEmpty())
+					throw new IllegalStateException("No query kmers are found.");
+				index = 0;
+			}
+
+			@Override
+			public long invoke() {
+				Kmer kmer = kmerList.get(index);
+				if (++index == kmerList.size())
+					index = 0;
+				return seedDatabase.getKmerList(kmer, ear, measure).size();
+			}
+
+			@Override
+			public void teardown() {
+				seedDatabase = null;
+				kmerList = null;
+			}
+		};
+	}
+
+	/**
+	 * One-directional extension at a fixed scale, alternately to the left and right of each seed
+	 */
+	public BenchmarkCase extendCore(final int k) {
+		return new BenchmarkCase("SeedExtension.extendCore", fixture.name, "k=" + k) {
+			private SeedExtension seedExtension;
+			private List<DataNode> queryList;
+			private List<Seed> seedList;
+			private int index;
+
+			@Override
+			public void setup() {
+				seedExtension = createSeedExtension();
+				queryList = new ArrayList<>();
+				seedList = new ArrayList<>();
+				collectSeeds(k, queryList, seedList);
+				if (seedList.isEmpty())
+					throw new IllegalStateException("No seeds are found.");
+				index = 0;
+			}
+
+			@Override
+			public long invoke() {
+				DataNode data = queryList.get(index / 2);
+				Seed seed = seedList.get(index / 2);
+				DataNode ref = fixture.optrefmap.get(seed.source);
+				ExtensionResult result;
+				if (index % 2 == 0)
+					result = seedExtension.extendCore(ref, data, seed.pos, seed.kmerpointer.pos, -1, 1);
+				else
+					result = seedExtension.extendCore(ref, data, seed.pos + seed.k() + seed.getErrorNo() - 1, seed.kmerpointer.pos + seed.kmerpointer.k() + seed.kmerpointer.getErrorNo() - 1, 1, 1);
+				if (++index == seedList.size() * 2)
+					index = 0;
+				return result.stopfinalrefpos;
+			}
+
+			@Override
+			public void teardown() {
+				seedExtension = null;
+				queryList = null;
+				seedList = null;
+			}
+		};
+	}
+
+	/**
+	 * Full extension of a seed with scale refinement, as performed for each seed in <code>OMBlastCore</code>
+	 */
+	public BenchmarkCase extensionLoop(final int k) {
+		return new BenchmarkCase("SeedExtension.extensionLoop", fixture.name, "k=" + k) {
+			private SeedExtension seedExtension;
+			private List<DataNode> queryList;
+			private List<Seed> seedList;
+			private int index;
+
+			@Override
+			public void setup() {
+				seedExtension = createSeedExtension();
+				queryList = new ArrayList<>();
+				seedList = new ArrayList<>();
+				collectSeeds(k, queryList, seedList);
+				if (seedList.isEmpty())
+					throw new IllegalStateException("No seeds are found.");
+				index = 0;
+			}
+
+			@Override
+			public long invoke() {
+				ExtensionResult result = seedExtension.extension(queryList.get(index), seedList.get(index));
+				if (++index == seedList.size())
+					index = 0;
+				return result == null ? 0 : result.stopfinalrefpos;
+			}
+
+			@Override
+			public void teardown() {
+				seedExtension = null;
+				queryList = null;
+				seedList = null;
+			}
+		};
+	}
+
+	private List<String> collectPrecigars(int k) {
+		List<DataNode> queryList = new ArrayList<>();
+		List<Seed> seedList = new ArrayList<>();
+		collectSeeds(k, queryList, seedList);
+		SeedExtension seedExtension = createSeedExtension();
+		List<String> precigarList = new ArrayList<>();
+		for (int i = 0; i < seedList.size(); i++) {
+			ExtensionResult result = seedExtension.extension(queryList.get(i), seedList.get(i));
+			if (result != null)
+				precigarList.add(result.precigar);
+		}
+		if (precigarList.isEmpty())
+			throw new IllegalStateException("No extension results are found.");
+		return precigarList;
+	}
+
+	/**
+	 * Conversion of precigars from extensions to cigars and back, with scoring on the way
+	 */
+	public BenchmarkCase cigarConversion(final int k) {
+		return new BenchmarkCase("Cigar.getCigar+importCigar", fixture.name, "k=" + k) {
+			private List<String> precigarList;
+			private int index;
+
+			@Override
+			public void setup() {
+				precigarList = collectPrecigars(k);
+				index = 0;
+			}
+
+			@Override
+			public long invoke() {
+				Cigar cigar = new Cigar(precigarList.get(index));
+				if (++index == precigarList.size())
+					index = 0;
+				Cigar imported = new Cigar();
+				imported.importCigar(cigar.getCigar());
+				return imported.getMatch() + (long) imported.calcScore(MATCHSCORE, FALSEPPENALTY, FALSENPENALTY);
+			}
+
+			@Override
+			public void teardown() {
+				precigarList = null;
+			}
+		};
+	}
+
+	/**
+	 * Concatenation and reversal of cigars, as done when partial alignments are joined
+	 */
+	public BenchmarkCase cigarAppend(final int k) {
+		return new BenchmarkCase("Cigar.append+reverse", fixture.name, "k=" + k) {
+			private List<Cigar> cigarList;
+			private int index;
+
+			@Override
+			public void setup() {
+				cigarList = new ArrayList<>();
+				for (String precigar : collectPrecigars(k))
+					cigarList.add(new Cigar(precigar));
+				index = 0;
+			}
+
+			@Override
+			public long invoke() {
+				Cigar cigar = new Cigar(cigarList.get(index));
+				if (++index == cigarList.size())
+					index = 0;
+				cigar.append(cigarList.get(index));
+				cigar.reverse();
+				return cigar.length();
+			}
+
+			@Override
+			public void teardown() {
+				cigarList = null;
+			}
+		};
+	}
+
+	/**
+	 * Joining of the partial alignments of a query. The partial alignments are copied before each invocation as they are modified on joining; the copying time is included
+	 */
+	public BenchmarkCase standardcluster(final int k, final int alignmentjoinmode) {
+		return new BenchmarkCase("ResultClusterModule.standardcluster", fixture.name, "k=" + k + ",alignmentjoinmode=" + alignmentjoinmode) {
+			private ResultClusterModule rcm;
+			private List<List<OptMapResultNode>> partialList;
+			private int index;
+
+			@Override
+			public void setup() {
+				OMBlastCore blastcore = new OMBlastCore(fixture.optrefmap);
+				blastcore.setParameters(-1, k, MAXNOSIGNAL, true, measure, ear, MATCHSCORE, FALSEPPENALTY, FALSENPENALTY, FALSELIMIT, MAXSEEDNUMBER, true, true);
+				partialList = new ArrayList<>();
+				for (DataNode data : fixture.dataList) {
+					if (partialList.size() >= maxInputs)
+						break;
+					List<OptMapResultNode> resultList = blastcore.getResult(data);
+					if (resultList != null && !resultList.isEmpty())
+						partialList.add(resultList);
+				}
+				if (partialList.isEmpty())
+					throw new IllegalStateException("No partial alignments are found.");
+				rcm = new ResultClusterModule(fixture.optrefmap);
+				rcm.setMode(alignmentjoinmode);
+				rcm.setParameters(250000, 250000, 3, 5, 0.1, MATCHSCORE, FALSEPPENALTY, FALSENPENALTY, 10, 30, 50, false, 30, 0.4, -1, -1, true, 1);
+				index = 0;
+			}
+
+			@Override
+			public long invoke() {
+				List<OptMapResultNode> mapList = new ArrayList<>();
+				for (OptMapResultNode result : partialList.get(index))
+					mapList.add(new OptMapResultNode(result));
+				if (++index == partialList.size())
+					index = 0;
+				return rcm.standardcluster(mapList, true).size();
+			}
+
+			@Override
+			public void teardown() {
+				rcm = null;
+				partialList = null;
+			}
+		};
+	}
+}
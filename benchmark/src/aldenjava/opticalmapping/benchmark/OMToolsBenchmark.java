@@ -0,0 +1,158 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import joptsimple.OptionSet;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+
+/**
+ * Runs the hot path benchmarks on a real reference and a synthetic human-scale reference. Results are printed as a table which can be saved and used as the baseline of a later run to compare performance across commits.
+ * 
+ * @author Alden
+ *
+ */
+public class OMToolsBenchmark {
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Benchmark Fixture Options", level);
+		parser.accepts("refmapin", "Input reference map file of the real reference fixture. Empty string: No real reference fixture").withRequiredArg().ofType(String.class).defaultsTo("example/Ecoli.ref");
+		parser.accepts("synthsize", "Total size of the synthetic reference fixture. 0: No synthetic reference fixture").withRequiredArg().ofType(Long.class).defaultsTo(3100000000L);
+		parser.accepts("synthchr", "Number of entries in the synthetic reference").withRequiredArg().ofType(Integer.class).defaultsTo(24);
+		parser.accepts("synthdensity", "Number of signals per 100kbp in the synthetic reference").withRequiredArg().ofType(Double.class).defaultsTo(10.0);
+		parser.accepts("moleno", "Number of molecules simulated on each fixture").withRequiredArg().ofType(Integer.class).defaultsTo(200);
+		parser.accepts("seed", "Random seed of fixtures").withRequiredArg().ofType(Long.class).defaultsTo(1L);
+		parser.addHeader("Benchmark Options", level);
+		parser.accepts("benchmark", "Regular expression on benchmark names. Only matched benchmarks are run").withRequiredArg().ofType(String.class).defaultsTo(".*");
+		parser.accepts("seedingmodes", "Seeding modes of kmer lookup benchmarks, separated by comma").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(1, 2);
+		parser.accepts("klist", "Kmer lengths of kmer lookup benchmarks, separated by comma").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(3, 5, 7);
+		parser.accepts("k", "Kmer length used in generating seeds for other benchmarks").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		parser.accepts("alignmentjoinmodes", "Alignment joining modes of standardcluster benchmarks, separated by comma").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(1, 3);
+		parser.accepts("meas", "Measurement error").withRequiredArg().ofType(Integer.class).defaultsTo(500);
+		parser.accepts("ear", "Error acceptable range (Scaling error tolerance)").withRequiredArg().ofType(Double.class).defaultsTo(0.1);
+		parser.accepts("maxinput", "Maximum number of distinct inputs cycled through in a benchmark").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+		parser.accepts("warmup", "Number of warm-up iterations").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		parser.accepts("iteration", "Number of measurement iterations").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+		parser.accepts("itertime", "Minimum time of each iteration in milliseconds").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+		parser.accepts("benchout", "Output benchmark result file").withRequiredArg().ofType(String.class);
+		parser.accepts("baseline", "Benchmark result file of a previous run. Changes of mean time against the baseline are reported").withRequiredArg().ofType(String.class);
+		parser.accepts("help", "Display help menu").forHelp();
+	}
+
+	private static List<BenchmarkCase> createCases(BenchmarkFixture fixture, OptionSet options) {
+		HotPathBenchmarks hpb = new HotPathBenchmarks(fixture, (int) options.valueOf("meas"), (double) options.valueOf("ear"), (int) options.valueOf("maxinput"));
+		int k = (int) options.valueOf("k");
+		List<BenchmarkCase> caseList = new ArrayList<>();
+		for (Object seedingmode : options.valuesOf("seedingmodes"))
+			for (Object kmerlen : options.valuesOf("klist"))
+				caseList.add(hpb.kmerLookup((int) seedingmode, (int) kmerlen));
+		caseList.add(hpb.extendCore(k));
+		caseList.add(hpb.extensionLoop(k));
+		caseList.add(hpb.cigarConversion(k));
+		caseList.add(hpb.cigarAppend(k));
+		for (Object alignmentjoinmode : options.valuesOf("alignmentjoinmodes"))
+			caseList.add(hpb.standardcluster(k, (int) alignmentjoinmode));
+		return caseList;
+	}
+
+	private static LinkedHashMap<String, BenchmarkResult> readBaseline(String filename) throws IOException {
+		LinkedHashMap<String, BenchmarkResult> baseline = new LinkedHashMap<>();
+		try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+			String s;
+			while ((s = br.readLine()) != null)
+				if (!s.isEmpty() && !s.startsWith("#")) {
+					BenchmarkResult result = BenchmarkResult.parse(s);
+					baseline.put(result.key, result);
+				}
+		}
+		return baseline;
+	}
+
+	public static void main(String[] args) throws IOException {
+		ExtendOptionParser parser = new ExtendOptionParser(OMToolsBenchmark.class.getSimpleName(), "Benchmarks kmer lookup, seed extension, cigar operations and alignment joining on fixtures simulated with a fixed random seed.");
+		OMToolsBenchmark.assignOptions(parser, 1);
+		OptionSet options = parser.parse(args);
+		if (options.has("help")) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+		int moleNo = (int) options.valueOf("moleno");
+		long seed = (long) options.valueOf("seed");
+		List<BenchmarkFixture> fixtureList = new ArrayList<>();
+		String refFile = (String) options.valueOf("refmapin");
+		if (!refFile.isEmpty())
+			fixtureList.add(BenchmarkFixture.fromReference("ref", refFile, moleNo, seed));
+		long synthSize = (long) options.valueOf("synthsize");
+		if (synthSize > 0)
+			fixtureList.add(BenchmarkFixture.synthetic("synthetic", synthSize, (int) options.valueOf("synthchr"), (double) options.valueOf("synthdensity"), moleNo, seed));
+		LinkedHashMap<String, BenchmarkResult> baseline = options.has("baseline") ? readBaseline((String) options.valueOf("baseline")) : null;
+
+		Pattern pattern = Pattern.compile((String) options.valueOf("benchmark"));
+		BenchmarkRunner runner = new BenchmarkRunner((int) options.valueOf("warmup"), (int) options.valueOf("iteration"), (int) options.valueOf("itertime"));
+		List<BenchmarkResult> resultList = new ArrayList<>();
+		for (BenchmarkFixture fixture : fixtureList) {
+			VerbosePrinter.println("Fixture " + fixture.name + ": " + fixture.optrefmap.size() + " references, " + fixture.dataList.size() + " molecules");
+			for (BenchmarkCase bc : createCases(fixture, options))
+				if (pattern.matcher(bc.name).matches())
+					resultList.add(runner.run(bc));
+		}
+		VerbosePrinter.println("Checksum: " + runner.getSink());
+
+		System.out.println(BenchmarkResult.getHeader() + (baseline == null ? "" : "\tBaseline(ns/op)\tChange"));
+		for (BenchmarkResult result : resultList) {
+			String s = result.toString();
+			if (baseline != null) {
+				BenchmarkResult previous = baseline.get(result.key);
+				if (previous == null)
+					s += "\t-\t-";
+				else
+					s += String.format("\t%.1f\t%+.1f%%", previous.mean, (result.mean / previous.mean - 1) * 100);
+			}
+			System.out.println(s);
+		}
+		if (options.has("benchout"))
+			try (BufferedWriter bw = new BufferedWriter(new FileWriter((String) options.valueOf("benchout")))) {
+				bw.write(BenchmarkResult.getHeader() + "\n");
+				for (BenchmarkResult result : resultList)
+					bw.write(result.toString() + "\n");
+			}
+	}
+}
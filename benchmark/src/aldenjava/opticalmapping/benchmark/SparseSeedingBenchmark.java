@@ -0,0 +1,158 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import joptsimple.OptionSet;
+import aldenjava.opticalmapping.GenomicPosNode;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataGenerator;
+import aldenjava.opticalmapping.data.data.ReferenceClusterNode;
+import aldenjava.opticalmapping.data.data.ReferenceReader;
+import aldenjava.opticalmapping.mapper.seeding.Kmer;
+import aldenjava.opticalmapping.mapper.seeding.Seed;
+import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+
+/**
+ * Benchmarks minimizer sparse seeding on molecules simulated by <code>OptMapDataGenerator</code>. For each minimizer window, the number of reference kmers and query seeds, and the sensitivity (fraction of molecules with at least one seed on the simulated region) are reported.
+ * 
+ * @author Alden
+ *
+ */
+public class SparseSeedingBenchmark {
+
+	private final LinkedHashMap<String, DataNode> optrefmap;
+	private final List<DataNode> dataList;
+
+	public SparseSeedingBenchmark(LinkedHashMap<String, DataNode> optrefmap, List<DataNode> dataList) {
+		this.optrefmap = optrefmap;
+		this.dataList = dataList;
+	}
+
+	private boolean isTrueSeed(Seed seed, GenomicPosNode simuRegion) {
+		if (!seed.source.equals(simuRegion.ref))
+			return false;
+		long pos = optrefmap.get(seed.source).refp[seed.pos - 1];
+		return pos >= simuRegion.start && pos <= simuRegion.stop;
+	}
+
+	/**
+	 * Seeds all molecules with the seeding procedure of <code>OMBlastCore</code>
+	 * 
+	 * @return number of reference kmers, seeds, true seeds, molecules with true seeds and time used in milliseconds
+	 */
+	public long[] run(int seedingmode, int k, int maxnosignalregion, int window, double ear, int measure, int maxSeedNumber) {
+		long startTime = System.currentTimeMillis();
+		SeedDatabase seedDatabase = new SeedDatabase(DataNode.getKmerStore(optrefmap, k, maxnosignalregion));
+		seedDatabase.setMode(seedingmode);
+		seedDatabase.setParameters(k, maxnosignalregion);
+		seedDatabase.setMinimizerWindow(window);
+		seedDatabase.buildDatabase();
+		long seeds = 0;
+		long trueSeeds = 0;
+		long seededMolecules = 0;
+		List<Seed> seedBuffer = new ArrayList<>();
+		for (DataNode data : dataList) {
+			boolean seeded = false;
+			for (DataNode strandData : new DataNode[] {data, data.getReverse()}) {
+				List<Kmer> kmerList = strandData.getKmerWord(k, maxnosignalregion);
+				List<Kmer> minimizerList = seedDatabase.selectMinimizers(kmerList);
+				kmerList = SeedDatabase.filterLowComplexity(kmerList, ear, measure, maxSeedNumber, 100);
+				if (window > 1)
+					kmerList.retainAll(new HashSet<Kmer>(minimizerList));
+				for (Seed seed : seedDatabase.getJoinedSeed(kmerList, ear, measure, seedBuffer)) {
+					seeds++;
+					if (data.hasSimulationInfo() && isTrueSeed(seed, data.simuInfo.simuRegion)) {
+						trueSeeds++;
+						seeded = true;
+					}
+				}
+			}
+			if (seeded)
+				seededMolecules++;
+		}
+		return new long[] {seedDatabase.getKmerCount(), seeds, trueSeeds, seededMolecules, System.currentTimeMillis() - startTime};
+	}
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Sparse Seeding Benchmark Options", level);
+		parser.accepts("windows", "Minimizer windows to be benchmarked, separated by comma").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(1, 2, 3, 4, 6, 8);
+		parser.accepts("ear", "Error acceptable range (Scaling error tolerance)").withRequiredArg().ofType(Double.class).defaultsTo(0.1);
+		parser.accepts("maxseedno", "Maximum similar seed number on query").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+		SeedDatabase.assignOptions(parser, level + 1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		ExtendOptionParser parser = new ExtendOptionParser(SparseSeedingBenchmark.class.getSimpleName(), "Reports the seed count reduction against sensitivity of minimizer sparse seeding on simulated molecules.");
+		SparseSeedingBenchmark.assignOptions(parser, 1);
+		ReferenceReader.assignOptions(parser, 1);
+		OptMapDataGenerator.assignOptions(parser, 1);
+		if (args.length == 0) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+		OptionSet options = parser.parse(args);
+		LinkedHashMap<String, DataNode> optrefmap = ReferenceReader.readAllData(options);
+		LinkedHashMap<String, ReferenceClusterNode> optclusmap = new LinkedHashMap<>();
+		optclusmap.put("ref", new ReferenceClusterNode("ref", optrefmap, 1));
+		OptMapDataGenerator omdg = new OptMapDataGenerator(optclusmap);
+		omdg.setParameters(options);
+		List<DataNode> dataList = new ArrayList<>();
+		DataNode data;
+		while ((data = omdg.generateNextFragment()) != null)
+			dataList.add(data);
+		VerbosePrinter.println("Total molecules generated: " + dataList.size());
+
+		SparseSeedingBenchmark benchmark = new SparseSeedingBenchmark(optrefmap, dataList);
+		int seedingmode = (int) options.valueOf("seedingmode");
+		int k = (int) options.valueOf("k");
+		int maxnosignalregion = (int) options.valueOf("maxnosignal");
+		double ear = (double) options.valueOf("ear");
+		int measure = (int) options.valueOf("meas");
+		int maxSeedNumber = (int) options.valueOf("maxseedno");
+		long denseSeeds = -1;
+		System.out.println("Window\tRefKmers\tSeeds\tSeedReduction\tTrueSeeds\tSensitivity\tTime(ms)");
+		for (Object window : options.valuesOf("windows")) {
+			long[] result = benchmark.run(seedingmode, k, maxnosignalregion, (int) window, ear, measure, maxSeedNumber);
+			if (denseSeeds == -1)
+				denseSeeds = result[1];
+			System.out.println(String.format("%d\t%d\t%d\t%.2f%%\t%d\t%.2f%%\t%d", (int) window, result[0], result[1], denseSeeds == 0 ? 0 : (1 - result[1] / (double) denseSeeds) * 100, result[2],
+					dataList.isEmpty() ? 0 : result[3] * 100.0 / dataList.size(), result[4]));
+		}
+	}
+}
@@ -40,9 +40,11 @@ import aldenjava.opticalmapping.data.data.OptMapDataGenerator;
 import aldenjava.opticalmapping.data.data.RandomReferenceGenerator;
 import aldenjava.opticalmapping.mapper.MapperConstructionException;
 import aldenjava.opticalmapping.mapper.PairwiseAlignment;
+import aldenjava.opticalmapping.mapper.multithread.ShardedMapper;
 import aldenjava.opticalmapping.mapper.omblastmapper.OMBlastMapper;
 import aldenjava.opticalmapping.mapper.omfmmapper.OMFMMapper;
 import aldenjava.opticalmapping.mapper.omhamapper.OMHAMapper;
+import aldenjava.opticalmapping.mapper.seeding.SeedIndexBuilder;
 import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
 import aldenjava.opticalmapping.miscellaneous.RandomSeed;
 import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
@@ -87,6 +89,8 @@ public class OMTools {
 		OMHAMapper.main(arg);
 		OMFMMapper.main(arg);
 		PairwiseAlignment.main(arg);
+		ShardedMapper.main(arg);
+		SeedIndexBuilder.main(arg);
 		System.out.println("\\part{Simulation}");
 		OptMapDataGenerator.main(arg);
 		RandomReferenceGenerator.main(arg);
@@ -142,6 +146,8 @@ public class OMTools {
 			System.out.println("OMHAMapper");
 			System.out.println("OMFMMapper");
 			System.out.println("PairwiseAlignment");
+			System.out.println("ShardedMapper");
+			System.out.println("SeedIndexBuilder");
 			System.out.println("============== Simulation ==============");
 			System.out.println("OptMapDataGenerator");
 			System.out.println("RandomReferenceGenerator");
@@ -229,6 +235,12 @@ public class OMTools {
 				case "pairwisealignment":
 					PairwiseAlignment.main(arg);
 					break;
+				case "shardedmapper":
+					ShardedMapper.main(arg);
+					break;
+				case "seedindexbuilder":
+					SeedIndexBuilder.main(arg);
+					break;
 				// Clustering
 					
 				// SVDetection
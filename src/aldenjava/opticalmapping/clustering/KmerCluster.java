@@ -96,17 +96,25 @@ public class KmerCluster implements Identifiable<Integer> {
 	}
 	private void computeConsensus() {
 		double[] finalSizes = new double[k];
-		for (Kmer kmer : kmerMap.keySet()) {
-			int strand = kmerMap.get(kmer);
-			long[] sizes;
+		for (Map.Entry<Kmer, Integer> entry : kmerMap.entrySet()) {
+			Kmer kmer = entry.getKey();
+			int strand = entry.getValue();
+			// Accumulate directly from the kmer view without copying the sizes
 			switch (strand) {
-				case 1: sizes = kmer.getForwardSizes(); break;
-				case -1: sizes = kmer.getReverseSizes(); break;
-				case 0: sizes = kmer.getAverageSizes(); break;
+				case 1: 
+					for (int i = 0; i < k; i++)
+						finalSizes[i] += kmer.get(i);
+					break;
+				case -1: 
+					for (int i = 0; i < k; i++)
+						finalSizes[i] += kmer.get(k - i - 1);
+					break;
+				case 0: 
+					for (int i = 0; i < k; i++)
+						finalSizes[i] += (kmer.get(i) + kmer.get(k - i - 1)) / 2;
+					break;
 				default: throw new IllegalArgumentException("Invalid strand information for " + kmer.source + ": " + kmer.pos + " - " + strand);
 			}
-			for (int i = 0; i < k; i++)
-				finalSizes[i] += sizes[i];
 		}
 		computedConsensus = finalSizes;
 	}
@@ -58,6 +58,14 @@ public abstract class OMReader<T> implements Closeable {
 
 	protected final BufferedReader br;
 	protected String nextline;
+	/**
+	 * Number of bytes in lines read by {@link #readLine()}, assuming single-byte line terminators
+	 */
+	private long position = 0;
+	/**
+	 * Byte offset of <code>nextline</code>
+	 */
+	private long nextlineOffset = 0;
 	
 	/**
 	 * Creates a new reader on a file
@@ -77,13 +85,30 @@ public abstract class OMReader<T> implements Closeable {
 		br = new BufferedReader(new InputStreamReader(stream));
 		commentReader();
 	}
+	/**
+	 * Creates a new reader on an uncompressed file, starting from byte <code>offset</code>, which should be the start of a line
+	 * @param filename
+	 * @param offset
+	 * @throws IOException
+	 * @throws IllegalArgumentException	if the file is compressed
+	 */
+	public OMReader(String filename, long offset) throws IOException {
+		if (CompressionFormat.isValidFormat(FilenameUtils.getExtension(filename)))
+			throw new IllegalArgumentException("Cannot start reading a compressed file at an offset: " + filename);
+		FileInputStream fis = new FileInputStream(filename);
+		fis.getChannel().position(offset);
+		br = new BufferedReader(new InputStreamReader(new BufferedInputStream(fis)));
+		position = offset;
+		commentReader();
+	}
 	/**
 	 * Attempts to skip the headers in the data file. Subclasses can override this method depending on file format  
 	 * @throws IOException
 	 */
 	protected void commentReader() throws IOException {
 		do {
-			nextline = br.readLine();
+			nextlineOffset = position;
+			nextline = readLine();
 		}
 		while (nextline != null && (nextline.startsWith("#") || nextline.isEmpty()));
 	}
@@ -93,10 +118,36 @@ public abstract class OMReader<T> implements Closeable {
 	 */
 	protected void proceedNextLine() throws IOException	{
 		do {
-			nextline = br.readLine();
+			nextlineOffset = position;
+			nextline = readLine();
 		}
 		while (nextline != null && (nextline.startsWith("#") || nextline.isEmpty()));
 	}
+	/**
+	 * Reads a line and keeps track of the byte offset in the file
+	 * @return the line, or <code>null</code> if the end of file is reached
+	 * @throws IOException	if an I/O error occurs
+	 */
+	protected String readLine() throws IOException {
+		String line = br.readLine();
+		if (line != null)
+			position += line.getBytes().length + 1;
+		return line;
+	}
+	/**
+	 * Returns the byte offset of the next data entry in an uncompressed file, if the entry starts at a line read by {@link #proceedNextLine()}. The offset assumes single-byte line terminators; callers seeking to the offset should verify the line found with {@link #getNextLine()}
+	 * @return the byte offset of the next entry
+	 */
+	public long getNextLineOffset() {
+		return nextlineOffset;
+	}
+	/**
+	 * Returns the first line of the next data entry
+	 * @return the first line of the next entry, or <code>null</code> if the end of file is reached
+	 */
+	public String getNextLine() {
+		return nextline;
+	}
 	/**
 	 * Attempts to read for next data entry.  
 	 * @return	the data of type <code>T</code> or <code>null</code> if the end of file is reached
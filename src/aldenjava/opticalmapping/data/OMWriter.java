@@ -57,8 +57,18 @@ public abstract class OMWriter<T> implements Closeable{
 	}	
 
 	public OMWriter(String filename, boolean autoInitializeHeader) throws IOException {
-		OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename));
+		this(filename, autoInitializeHeader, false);
+	}
+
+	/**
+	 * Creates a writer on a file. If <code>append</code> is set, entries are appended to the existing file and no header is written
+	 * @throws IllegalArgumentException	if appending to a compressed file
+	 */
+	public OMWriter(String filename, boolean autoInitializeHeader, boolean append) throws IOException {
 		String extension = FilenameUtils.getExtension(filename).toLowerCase();
+		if (append && CompressionFormat.isValidFormat(extension))
+			throw new IllegalArgumentException("Cannot append to a compressed file: " + filename);
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename, append));
 		if (CompressionFormat.isValidFormat(extension)) {
 			CompressionFormat cformat = CompressionFormat.lookupfileext(extension);
 			switch (cformat) {
@@ -68,7 +78,7 @@ public abstract class OMWriter<T> implements Closeable{
 			}
 		}
 		bw = new BufferedWriter(new OutputStreamWriter(stream));
-		if (autoInitializeHeader)
+		if (autoInitializeHeader && !append)
 			initializeHeader();
 	}
 	
@@ -94,6 +104,14 @@ public abstract class OMWriter<T> implements Closeable{
 			write(t);
 	}
 	
+	/**
+	 * Flushes the written entries to the file. Entries are not guaranteed to be readable from a compressed file until it is closed
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		bw.flush();
+	}
+
 	@Override
 	public void close() throws IOException
 	{
@@ -40,6 +40,7 @@ import org.apache.commons.lang.ArrayUtils;
 import aldenjava.opticalmapping.GenomicPosNode;
 import aldenjava.opticalmapping.data.Identifiable;
 import aldenjava.opticalmapping.mapper.seeding.Kmer;
+import aldenjava.opticalmapping.mapper.seeding.KmerStore;
 
 /**
  * Basic Data Node. Two schemes have been used for an optical map record. (1) Size (bp) of molecule and positions of labeling/segment break; and (2) ordered sizes of segments Here (1) is selected for easy segment size deduction, as represented by <code>refp</code>. To allow convenient segment size as in scheme (2), one can use the function <code>getRefl</code>. It is a 1-based coordinate system. Each position occupies 1bp.
@@ -198,6 +199,18 @@ public class DataNode implements Identifiable<String> {
 		return refl;
 	}
 
+	/**
+	 * Returns the cumulative segment lengths including the length of signals. The element <code>i</code> is the total length of segments before segment <code>i</code>, so the length of segment <code>i</code> plus one is the difference of elements <code>i + 1</code> and <code>i</code>
+	 * 
+	 * @return cumulative segment lengths with <code>getTotalSegment() + 1</code> elements
+	 */
+	public long[] getCumulativeRefl() {
+		long[] cumulativeRefl = new long[this.getTotalSegment() + 1];
+		for (int i = 0; i < cumulativeRefl.length - 1; i++)
+			cumulativeRefl[i + 1] = cumulativeRefl[i] + getRefl(i) + 1;
+		return cumulativeRefl;
+	}
+
 
 	/**
 	 * Returns the signal density of this <code>DataNode</code>
@@ -562,123 +575,136 @@ public class DataNode implements Identifiable<String> {
 		return subRefNode(name, subrefstart, subrefstop, flankingSignal);
 	}
 	public Kmer getKmer(int k, int pos) {
-		List<Long> sizeList = new ArrayList<Long>();
+		long[] sizes = new long[k];
 		for (int i = pos; i < pos + k; i++)
-			sizeList.add(getRefl(i));
-		return new Kmer(this.name, pos, sizeList);
+			sizes[i - pos] = getRefl(i);
+		return new Kmer(this.name, pos, sizes, 0, k);
 	}
-	public List<Kmer> getKmerWord(int kmerlen, long maxnosignalregion) {
-		List<Kmer> kmerlist = new ArrayList<Kmer>();
-		for (int i = 1; i < getTotalSegment() - kmerlen; i++) // +1 is no need to be added: 2014/05/27
+
+	/**
+	 * Adds all kmers of this <code>DataNode</code> into <code>store</code>. Segment sizes are stored in one block shared by all kmers
+	 * 
+	 * @param store
+	 * @param maxnosignalregion
+	 */
+	public void addKmerWord(KmerStore store, long maxnosignalregion) {
+		int kmerlen = store.k();
+		long[] refl = getRefl();
+		int block = -1;
+		for (int i = 1; i < refl.length - kmerlen; i++) // +1 is no need to be added: 2014/05/27
 		{
-			List<Long> sizelist = new ArrayList<Long>();
 			boolean discarded = false;
 			for (int j = i; j < i + kmerlen; j++)
-				if (getRefl(j) <= maxnosignalregion)
-					sizelist.add(getRefl(j));
-				else
+				if (refl[j] > maxnosignalregion)
 					discarded = true;
-			if (!discarded)
-				kmerlist.add(new Kmer(name, i, sizelist));
+			if (!discarded) {
+				if (block == -1)
+					block = store.addBlock(name, refl);
+				store.add(block, i, i);
+			}
 		}
+	}
 
-		return kmerlist;
+	/**
+	 * Returns the range of kmer positions, i.e. the first and the last starting segment, of kmers located within <code>region</code>. The range is empty if the first position is larger than the last position.
+	 * 
+	 * @param region
+	 * @param kmerlen
+	 * @return an array of the first and the last kmer positions
+	 */
+	public int[] getKmerRange(GenomicPosNode region, int kmerlen) {
+		int start = this.findRefpIndex(region.start);
+		int stop = this.findRefpIndex(region.stop);
+
+		if (stop >= refp.length)
+			stop--;
+		else if (refp[stop] > region.stop)
+			stop--;
+		return new int[] {start + 1, stop - kmerlen + 1};
 	}
 
-	public List<Kmer> getKmerWord(int kmerlen, long maxnosignalregion, List<GenomicPosNode> restrictedRegions) {
+	public void addKmerWord(KmerStore store, long maxnosignalregion, List<GenomicPosNode> restrictedRegions) {
 		List<GenomicPosNode> regionList = new ArrayList<GenomicPosNode>();
 		for (GenomicPosNode region : restrictedRegions) {
 			if (region.ref.equals(this.name))
 				regionList.add(region);
 		}
+		if (regionList.isEmpty())
+			return;
 
-		List<Kmer> kmerlist = new ArrayList<Kmer>();
-
+		int kmerlen = store.k();
+		long[] refl = getRefl();
+		int block = store.addBlock(name, refl);
 		for (GenomicPosNode region : regionList) {
-			int start = this.findRefpIndex(region.start);
-			int stop = this.findRefpIndex(region.stop);
-
-			if (stop >= refp.length)
-				stop--;
-			else if (refp[stop] > region.stop)
-				stop--;
-			NEXTKmer: for (int i = start + 1; i <= stop - kmerlen + 1; i++) {
-				List<Long> sizelist = new ArrayList<Long>();
-				// boolean discarded = false;
-				// for (int j = i - 1; j < i + kmerlen; j++) {
-				// boolean pass = false;
-				// for (GenomicPosNode region : regionList)
-				// if (region.getLoc().contain(refp[j]))
-				// pass = true;
-				// if (!pass)
-				// // discarded = true;
-				// continue NEXTKmer;
-				// }
+			int[] kmerRange = getKmerRange(region, kmerlen);
+			NEXTKmer: for (int i = kmerRange[0]; i <= kmerRange[1]; i++) {
 				for (int j = i; j < i + kmerlen; j++) {
-					if (getRefl(j) <= maxnosignalregion)
-						sizelist.add(getRefl(j));
-					else
-						// discarded = true;
+					if (refl[j] > maxnosignalregion)
 						continue NEXTKmer;
 				}
-				// if (!discarded)
-				kmerlist.add(new Kmer(name, i, sizelist));
+				store.add(block, i, i);
 			}
 		}
-		return kmerlist;
-	}
-/*
-	public List<Kmer> getErrorKmerWord(int kmerlen, int maxnosignalregion, int errorno) {
-		List<Kmer> kmerlist = new ArrayList<Kmer>();
-		// Generate error-free kmer list
-		int finalkmerlen = kmerlen + errorno;
-		for (int i = 1; i < getTotalSegment() - finalkmerlen; i++) {
-			List<Long> sizelist = new ArrayList<Long>();
-			boolean discarded = false;
-			for (int j = i; j < i + finalkmerlen; j++)
-				if (getRefl(j) <= maxnosignalregion)
-					sizelist.add(getRefl(j));
-				else
-					discarded = true;
-			if (!discarded)
-				kmerlist.add(new Kmer(name, i, sizelist));
-		}
-		// Induce error
-		if (errorno == 0)
-			return kmerlist;
-		else {
-			if (errorno > 1) {
-				System.err.println("Only support error number <= 1.");
-				return null;
-			}
-			List<Kmer> errorkmerlist = new ArrayList<Kmer>();
-			// int pos = 1;
-			// int error = 0;
-			// List<Integer> errorposlist = new ArrayList<Integer>();
-			// for (Kmer kmer : kmerlist)
-			// {
-			// while (true)
-			// {
-			// if (error == errorno)
-			// {
-			// Kmer k = new Kmer(kmer.source, kmer.pos, kmer.sizelist, errorposlist);
-			// errorkmerlist.add();
-			// errorposlist.add(pos);
-			// }
-			//
-			// }
-			// }
-			// temporarily used for errorno = 1
-			for (Kmer kmer : kmerlist) {
-				for (int i = 0; i < finalkmerlen - 1; i++) {
-					List<Integer> errorposlist = new ArrayList<Integer>();
-					errorposlist.add(i);
-					errorkmerlist.add(new Kmer(kmer.source, kmer.pos, kmer.sizelist, errorposlist));
+	}
+
+	public List<Kmer> getKmerWord(int kmerlen, long maxnosignalregion) {
+		KmerStore store = new KmerStore(kmerlen);
+		addKmerWord(store, maxnosignalregion);
+		return store.getKmerList();
+	}
+
+	public List<Kmer> getKmerWord(int kmerlen, long maxnosignalregion, List<GenomicPosNode> restrictedRegions) {
+		KmerStore store = new KmerStore(kmerlen);
+		addKmerWord(store, maxnosignalregion, restrictedRegions);
+		return store.getKmerList();
+	}
+	/**
+	 * Adds error-free kmers, followed by error kmers with one to <code>maxError</code> signals skipped. Error kmers are kmers of merged segments, representing missing signals on the query. They refer to the same block of segment sizes as the error-free kmers. Error kmers with a merged
+	 * segment longer than <code>maxnosignalregion</code> are discarded
+	 * 
+	 * @param store
+	 * @param maxnosignalregion
+	 * @param maxError
+	 *            maximum number of skipped signals (at most 2)
+	 */
+	public void addKmerWord(KmerStore store, long maxnosignalregion, int maxError) {
+		if (maxError < 0 || maxError > 2)
+			throw new IllegalArgumentException("Only 0 to 2 skipped signals are supported.");
+		int kmerlen = store.k();
+		long[] refl = getRefl();
+		int block = -1;
+		for (int error = 0; error <= maxError; error++) {
+			int span = kmerlen + error;
+			for (int i = 1; i < refl.length - span; i++) {
+				boolean discarded = false;
+				for (int j = i; j < i + span; j++)
+					if (refl[j] > maxnosignalregion)
+						discarded = true;
+				if (discarded)
+					continue;
+				if (block == -1)
+					block = store.addBlock(name, refl);
+				if (error == 0)
+					store.add(block, i, i);
+				else if (error == 1) {
+					for (int first = 0; first < kmerlen; first++)
+						if (refl[i + first] + refl[i + first + 1] + 1 <= maxnosignalregion)
+							store.add(block, i, i, Kmer.skipCode(first, -1));
 				}
+				else
+					for (int first = 0; first < kmerlen; first++)
+						for (int second = first; second < kmerlen; second++) {
+							if (first == second) {
+								if (refl[i + first] + refl[i + first + 1] + refl[i + first + 2] + 2 > maxnosignalregion)
+									continue;
+							}
+							else if (refl[i + first] + refl[i + first + 1] + 1 > maxnosignalregion || refl[i + second + 1] + refl[i + second + 2] + 1 > maxnosignalregion)
+								continue;
+							store.add(block, i, i, Kmer.skipCode(first, second));
+						}
 			}
-			return errorkmerlist;
 		}
-	}*/
+	}
 
 	// Modify
 	public void insertSignal(long pos) {
@@ -969,21 +995,54 @@ public class DataNode implements Identifiable<String> {
 	}
 
 	public static List<Kmer> getKmerWord(LinkedHashMap<String, DataNode> optrefmap, int kmerlen, long maxnosignalregion) {
+		return getKmerStore(optrefmap, kmerlen, maxnosignalregion).getKmerList();
+	}
+
+	public static List<Kmer> getKmerWord(LinkedHashMap<String, DataNode> optrefmap, int kmerlen, long maxnosignalregion, List<GenomicPosNode> restrictedRegions) {
+		return getKmerStore(optrefmap, kmerlen, maxnosignalregion, restrictedRegions).getKmerList();
+	}
+
+	/**
+	 * Returns a packed store of all kmers in <code>optrefmap</code>. No <code>Kmer</code> object is created
+	 * 
+	 * @param optrefmap
+	 * @param kmerlen
+	 * @param maxnosignalregion
+	 * @return a <code>KmerStore</code> containing all kmers
+	 */
+	public static KmerStore getKmerStore(LinkedHashMap<String, DataNode> optrefmap, int kmerlen, long maxnosignalregion) {
 		if (optrefmap == null)
 			throw new NullPointerException("optrefmap");
-		List<Kmer> kmerList = new ArrayList<Kmer>();
-		for (DataNode ref : optrefmap.values()) {
-			kmerList.addAll(ref.getKmerWord(kmerlen, maxnosignalregion));
-		}
-		return kmerList;
+		KmerStore store = new KmerStore(kmerlen, getTotalSignal(optrefmap));
+		for (DataNode ref : optrefmap.values())
+			ref.addKmerWord(store, maxnosignalregion);
+		return store;
 	}
 
-	public static List<Kmer> getKmerWord(LinkedHashMap<String, DataNode> optrefmap, int kmerlen, long maxnosignalregion, List<GenomicPosNode> restrictedRegions) {
-		List<Kmer> kmerList = new ArrayList<Kmer>();
-		for (DataNode ref : optrefmap.values()) {
-			kmerList.addAll(ref.getKmerWord(kmerlen, maxnosignalregion, restrictedRegions));
-		}
-		return kmerList;
+	/**
+	 * Returns a packed store of all kmers in <code>optrefmap</code>, including error kmers with up to <code>maxError</code> skipped signals
+	 * 
+	 * @param optrefmap
+	 * @param kmerlen
+	 * @param maxnosignalregion
+	 * @param maxError
+	 * @return a <code>KmerStore</code> containing all kmers
+	 * @see #addKmerWord(KmerStore, long, int)
+	 */
+	public static KmerStore getKmerStore(LinkedHashMap<String, DataNode> optrefmap, int kmerlen, long maxnosignalregion, int maxError) {
+		if (maxError == 0)
+			return getKmerStore(optrefmap, kmerlen, maxnosignalregion);
+		KmerStore store = new KmerStore(kmerlen, getTotalSignal(optrefmap) * (1 + kmerlen));
+		for (DataNode ref : optrefmap.values())
+			ref.addKmerWord(store, maxnosignalregion, maxError);
+		return store;
+	}
+
+	public static KmerStore getKmerStore(LinkedHashMap<String, DataNode> optrefmap, int kmerlen, long maxnosignalregion, List<GenomicPosNode> restrictedRegions) {
+		KmerStore store = new KmerStore(kmerlen);
+		for (DataNode ref : optrefmap.values())
+			ref.addKmerWord(store, maxnosignalregion, restrictedRegions);
+		return store;
 	}
 
 	public static Comparator<DataNode> sizecomparator = new Comparator<DataNode>() {
@@ -44,9 +44,11 @@ import javax.xml.stream.events.XMLEvent;
 
 import joptsimple.OptionSet;
 
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.ArrayUtils;
 
 import aldenjava.opticalmapping.GenomicPosNode;
+import aldenjava.opticalmapping.data.CompressionFormat;
 import aldenjava.opticalmapping.data.DataFormat;
 import aldenjava.opticalmapping.data.OMReader;
 import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
@@ -97,6 +99,22 @@ public class OptMapDataReader extends OMReader<DataNode> {
 			createXMLReader();
 	}
 
+	/**
+	 * Creates a reader starting from byte <code>offset</code> of an uncompressed file, which should be the start of a data entry
+	 * 
+	 * @see #isSeekable(String, DataFormat)
+	 */
+	public OptMapDataReader(String filename, DataFormat dformat, double bnxSNR, long offset) throws IOException {
+		super(filename, offset);
+		if (dformat == null)
+			throw new NullPointerException("dformat");
+		if (!isSeekable(filename, dformat))
+			throw new IllegalArgumentException("Cannot start reading at an offset for format " + dformat.toString() + ": " + filename);
+		this.dformat = dformat;
+		this.filename = filename;
+		this.bnxSNR = bnxSNR;
+	}
+
 	public OptMapDataReader(InputStream stream, DataFormat dformat) throws IOException {
 		super(stream);
 		if (dformat == null)
@@ -108,6 +126,32 @@ public class OptMapDataReader extends OMReader<DataNode> {
 
 	}
 
+	/**
+	 * Returns whether reading of the file can start at the offset of an entry. This is supported for uncompressed files in formats whose entries start at a new line
+	 * 
+	 * @param filename
+	 * @param dformat
+	 * @return <code>true</code> if reading can start at an offset
+	 * @see #getNextLineOffset()
+	 */
+	public static boolean isSeekable(String filename, DataFormat dformat) {
+		if (CompressionFormat.isValidFormat(FilenameUtils.getExtension(filename)))
+			return false;
+		switch (dformat) {
+			case REF:
+			case SILICO:
+			case DATA:
+			case SDATA:
+			case BNX:
+			case CMAP:
+			case VALDATA:
+			case MAPS:
+				return true;
+			default:
+				return false;
+		}
+	}
+
 	@Override
 	public DataNode read() throws IOException {
 		if (nextline == null)
@@ -56,6 +56,14 @@ public class OptMapResultWriter extends OMWriter<OptMapResultNode> {
 				.valueOf("writeinfo"));
 	}
 
+	/**
+	 * Creates a result writer according to <code>options</code>, appending to the existing output file if <code>append</code> is set
+	 */
+	public OptMapResultWriter(OptionSet options, boolean append) throws IOException {
+		this((String) options.valueOf("optresout"), ResultFormat.lookup((String) options.valueOf("optresout"), (int) options.valueOf("optresoutformat")), (boolean) options.valueOf("writeunmap"),
+				(boolean) options.valueOf("multiple"), (boolean) options.valueOf("writeinfo"), append);
+	}
+
 	public OptMapResultWriter(String filename) throws IOException {
 		this(filename, -1);
 	}
@@ -73,9 +81,14 @@ public class OptMapResultWriter extends OMWriter<OptMapResultNode> {
 	}
 
 	public OptMapResultWriter(String filename, ResultFormat rformat, boolean writeunmap, boolean multiple, boolean writeinfo) throws IOException {
-		super(filename, false);
+		this(filename, rformat, writeunmap, multiple, writeinfo, false);
+	}
+
+	public OptMapResultWriter(String filename, ResultFormat rformat, boolean writeunmap, boolean multiple, boolean writeinfo, boolean append) throws IOException {
+		super(filename, false, append);
 		this.rformat = rformat;
-		this.initializeHeader();
+		if (!append)
+			this.initializeHeader();
 		this.writeunmap = writeunmap;
 		this.multiple = multiple;
 		this.writeinfo = writeinfo;
@@ -89,6 +102,24 @@ public class OptMapResultWriter extends OMWriter<OptMapResultNode> {
 		}
 	}
 
+	/**
+	 * Returns the ID of the last XMAP entry written
+	 * 
+	 * @return the last entry ID; 0 if no entry is written
+	 */
+	public int getLastEntryID() {
+		return xmapDummyID;
+	}
+
+	/**
+	 * Sets the ID of the last XMAP entry in the file, such that appended entries continue the numbering
+	 * 
+	 * @param lastEntryID
+	 */
+	public void setLastEntryID(int lastEntryID) {
+		this.xmapDummyID = lastEntryID;
+	}
+
 	@Override
 	protected void initializeHeader() throws IOException {
 		
@@ -36,6 +36,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import joptsimple.OptionSet;
 import aldenjava.common.TimeCounter;
@@ -104,6 +105,14 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 	 * Allow exact match. If not allowed, any alignment result showing <code>data</code> aligns to itself as a whole is removed. Note that the result is not removed if only part of <code>data</code> is aligned. Exact match should be set false for self-alignment and pairwise alignment.
 	 */
 	private boolean exactmatch = true;
+	/**
+	 * Pool for splitting the work of a long query, shared by all copies of the mapper. <code>null</code> if the work of a query is not split
+	 */
+	private ForkJoinPool queryPool = null;
+	/**
+	 * Minimum signal of the data for splitting its work in <code>queryPool</code>
+	 */
+	private int minParallelSignal = 200;
 
 	public TimeCounter tc = new TimeCounter(3, "Alignment Time", "Result PostProcessing Time", "Result Clustering Time");
 
@@ -121,6 +130,7 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 
 	public void setParameters(OptionSet options) throws IOException {
 		this.setParameters((int) options.valueOf("minsig"), (int) options.valueOf("minsize"), (boolean) options.valueOf("exactmatch"));
+		this.setQueryParallelism((int) options.valueOf("queryparallelism"), (int) options.valueOf("parallelquerysig"));
 		pmj = new PostMapJoining(optrefmap);
 		pmj.setMode(options);
 		pmj.setParameters(options);
@@ -145,6 +155,42 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		this.exactmatch = exactmatch;
 	}
 
+	/**
+	 * Splits the work of each query with at least <code>minParallelSignal</code> signals into tasks on a fork-join pool of <code>parallelism</code> threads, shared by all copies of this mapper. The work is not split if <code>parallelism</code> is 1 or less
+	 * 
+	 * @param parallelism
+	 *            number of threads of the pool
+	 * @param minParallelSignal
+	 *            minimum signal of a query to split its work
+	 */
+	public void setQueryParallelism(int parallelism, int minParallelSignal) {
+		if (queryPool != null)
+			queryPool.shutdown();
+		this.queryPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		this.minParallelSignal = minParallelSignal;
+	}
+
+	/**
+	 * Returns the pool for splitting the work of <code>data</code>
+	 * 
+	 * @param data
+	 * @return the pool; <code>null</code> if the work of <code>data</code> is not split
+	 */
+	protected ForkJoinPool getQueryPool(DataNode data) {
+		if (queryPool == null || data.getTotalSignal() < minParallelSignal)
+			return null;
+		return queryPool;
+	}
+
+	/**
+	 * Shuts down the pool for splitting the work of queries. The pool is shared by all copies of this mapper, so it is shut down only after all copies finish alignment
+	 */
+	public void shutdownQueryPool() {
+		if (queryPool != null)
+			queryPool.shutdown();
+		queryPool = null;
+	}
+
 	public void setPostAlignmentProcess(PostMapJoining pmj, Filter filter, ResultClusterModule rcm) {
 		this.pmj = pmj;
 		this.filter = filter;
@@ -251,6 +297,15 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 
 	}
 
+	/**
+	 * Outputs the statistics collected by all copies of this mapper during alignment. Nothing is output by default
+	 * 
+	 * @param mapperList
+	 *            all copies of this mapper used in alignment, including this mapper
+	 */
+	public void outputStatistics(List<Mapper> mapperList) {
+	}
+
 	public void setCopyMapperParameters(Mapper mapper) {
 		// mapper.setParameters(minsubfragment, scorecutoff, maxabovescoreitem,
 		// maxitem);
@@ -268,6 +323,8 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		else
 			mapper.rcm = null;
 		mapper.targetRegionMap = this.targetRegionMap;
+		mapper.queryPool = this.queryPool;
+		mapper.minParallelSignal = this.minParallelSignal;
 	}
 
 	protected static void assignOptions(ExtendOptionParser parser, int level) {
@@ -275,6 +332,8 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		parser.accepts("minsig", "Minimum signal of the query to align.").withRequiredArg().ofType(Integer.class).defaultsTo(5);
 		parser.accepts("minsize", "Minimum size of the query to align.").withRequiredArg().ofType(Integer.class).defaultsTo(50000);
 		parser.accepts("exactmatch", "Enable exact match of query to reference. Disable this option when performing self-alignment.").withRequiredArg().ofType(Boolean.class).defaultsTo(true);
+		parser.accepts("queryparallelism", "Number of threads sharing the work of a long query (strands, reference partitions and seed batches). 1: Each query is aligned by one thread").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("parallelquerysig", "Minimum signal of a query to share its work across threads").withRequiredArg().ofType(Integer.class).defaultsTo(200);
 
 		PostMapJoining.assignOptions(parser, level + 1);
 		Filter.assignOptions(parser, level + 1);
@@ -306,6 +365,8 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 			throw new MapperConstructionException(e);
 		}
 		MultiThreadMapper.assignOptions(parser, 1);
+		MappingPipeline.assignOptions(parser, 1);
+		ReferencePartitionedMapping.assignOptions(parser, 1);
 		ReferenceReader.assignOptions(parser, 1);
 		OptMapDataReader.assignOptions(parser, 1);
 		OptMapResultWriter.assignOptions(parser, 1);
@@ -314,18 +375,74 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 			return;
 		}
 		OptionSet options = parser.parse(args);
-		OptMapDataReader omdr = new OptMapDataReader(options);
+		boolean pipelined = (boolean) options.valueOf("pipeline");
+		boolean partitioned = (long) options.valueOf("refchunk") > 0;
+		boolean resume = (boolean) options.valueOf("resume");
+		int checkpointInterval = (int) options.valueOf("checkpoint");
+		if (partitioned && (resume || checkpointInterval > 0)) {
+			System.err.println("Warning! Checkpointing is not supported with reference chunks and is disabled.");
+			resume = false;
+			checkpointInterval = 0;
+		}
+		MappingCheckpoint checkpoint = null;
+		if (resume || checkpointInterval > 0) {
+			checkpoint = new MappingCheckpoint((String) options.valueOf("optresout"), checkpointInterval > 0 ? checkpointInterval : 300);
+			if (resume && !checkpoint.load()) {
+				System.err.println("Warning! No checkpoint is found. Alignment starts from the beginning.");
+				resume = false;
+			}
+			if (resume && checkpoint.isFinished()) {
+				System.err.println("Warning! The run has already finished according to the checkpoint.");
+				return;
+			}
+			if (!pipelined) {
+				System.err.println("Warning! Pipeline is used for checkpointing.");
+				pipelined = true;
+			}
+		}
+		OptMapDataReader omdr = partitioned ? null : resume ? checkpoint.openReader(options) : new OptMapDataReader(options);
 		ReferenceReader refreader = new ReferenceReader(options);
 		LinkedHashMap<String, DataNode> optrefmap = refreader.readAllData();
-		MultiThreadMapper multi = new MultiThreadMapper(mapperclass, optrefmap);
-		multi.setParameters(options);
-		OptMapResultWriter omrw = new OptMapResultWriter(options);
+		MultiThreadMapper multi = null;
+		ReferencePartitionedMapping partition = null;
+		if (partitioned)
+			partition = new ReferencePartitionedMapping(mapperclass, optrefmap, options);
+		else {
+			multi = new MultiThreadMapper(mapperclass, optrefmap);
+			multi.setParameters(options);
+		}
+		if (resume)
+			checkpoint.truncateOutput();
+		OptMapResultWriter omrw = new OptMapResultWriter(options, resume);
+		if (resume)
+			checkpoint.restoreWriter(omrw);
 
 		tc.end(0);
 		DataNode fragment;
 		try {
-			while ((fragment = omdr.read()) != null) {
-				while (!multi.startNext(fragment)) {
+			if (partitioned)
+				partition.run(omrw);
+			else if (pipelined) {
+				MappingPipeline pipeline = new MappingPipeline(multi);
+				pipeline.setParameters(options);
+				pipeline.setCheckpoint(checkpoint);
+				pipeline.run(omdr, omrw);
+			}
+			else {
+				while ((fragment = omdr.read()) != null) {
+					while (!multi.startNext(fragment)) {
+						MultiThreadResultNode multinode = multi.getNextResult();
+						List<OptMapResultNode> resultlist = multinode.alignmentResults;
+						if (resultlist == null || resultlist.size() == 0) {
+							resultlist = new ArrayList<OptMapResultNode>();
+							resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
+						}
+						omrw.write(resultlist);
+					}
+
+				}
+				while (multi.getStatus() != -1) {
+
 					MultiThreadResultNode multinode = multi.getNextResult();
 					List<OptMapResultNode> resultlist = multinode.alignmentResults;
 					if (resultlist == null || resultlist.size() == 0) {
@@ -334,28 +451,26 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 					}
 					omrw.write(resultlist);
 				}
-
-			}
-			while (multi.getStatus() != -1) {
-
-				MultiThreadResultNode multinode = multi.getNextResult();
-				List<OptMapResultNode> resultlist = multinode.alignmentResults;
-				if (resultlist == null || resultlist.size() == 0) {
-					resultlist = new ArrayList<OptMapResultNode>();
-					resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
-				}
-				omrw.write(resultlist);
 			}
 
 		} catch (InterruptedException | ExecutionException e) {
 			e.printStackTrace();
 			// Unknown reason for interruption, but should continue to handle
 			// the result.
+		} finally {
+			// Mapper threads must be released even if reading or writing fails
+			if (multi != null)
+				multi.close();
 		}
-		omdr.close();
 		omrw.close();
-		TimeCounter mappertc = multi.getMappingTime();
-		multi.close();
+		TimeCounter mappertc;
+		if (partitioned)
+			mappertc = partition.getMappingTime();
+		else {
+			omdr.close();
+			mappertc = multi.getMappingTime();
+			multi.outputStatistics();
+		}
 		tc.set(1, mappertc.get(0));
 		tc.set(2, mappertc.get(1));
 		tc.set(3, mappertc.get(2));
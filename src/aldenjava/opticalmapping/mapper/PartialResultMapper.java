@@ -0,0 +1,84 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aldenjava.opticalmapping.GenomicPosNode;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+
+/**
+ * A mapper returning partial alignments computed beforehand, used to run the post-mapping modules on partial alignments merged from different reference chunks. The partial alignments are shared by all copies of the mapper.
+ * 
+ * @author Alden
+ *
+ * @see ReferencePartitionedMapping
+ */
+class PartialResultMapper extends Mapper {
+
+	private final Map<DataNode, List<OptMapResultNode>> partialResultMap;
+
+	public PartialResultMapper(LinkedHashMap<String, DataNode> optrefmap) {
+		this(optrefmap, Collections.synchronizedMap(new IdentityHashMap<DataNode, List<OptMapResultNode>>()));
+	}
+
+	private PartialResultMapper(LinkedHashMap<String, DataNode> optrefmap, Map<DataNode, List<OptMapResultNode>> partialResultMap) {
+		super(optrefmap);
+		this.partialResultMap = partialResultMap;
+	}
+
+	/**
+	 * Sets the partial alignments of <code>data</code>, to be returned once by {@link #getResult(DataNode, List)}
+	 * 
+	 * @param data
+	 * @param resultList
+	 */
+	public void putPartialResults(DataNode data, List<OptMapResultNode> resultList) {
+		partialResultMap.put(data, resultList);
+	}
+
+	@Override
+	public List<OptMapResultNode> getResult(DataNode data, List<GenomicPosNode> regionList) {
+		return partialResultMap.remove(data);
+	}
+
+	@Override
+	public PartialResultMapper copy() {
+		PartialResultMapper mapper = new PartialResultMapper(optrefmap, partialResultMap);
+		super.setCopyMapperParameters(mapper);
+		return mapper;
+	}
+}
@@ -0,0 +1,240 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import joptsimple.OptionSet;
+import aldenjava.common.TimeCounter;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataReader;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultReader;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultWriter;
+import aldenjava.opticalmapping.data.mappingresult.ResultFormat;
+import aldenjava.opticalmapping.mapper.multithread.MappingPipeline;
+import aldenjava.opticalmapping.mapper.multithread.MultiThreadMapper;
+import aldenjava.opticalmapping.mapper.multithread.MultiThreadResultNode;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+
+/**
+ * Aligns data to a reference partitioned into chunks of consecutive references. All data are aligned to one chunk at a time with a mapper built on the chunk only, so the seed database of only one chunk is held in memory. The partial alignments of each chunk are written to a temporary file in the input order. They are then merged for each data, and post map joining, filtering and clustering are done on the merged partial alignments with the whole reference.
+ * 
+ * @author Alden
+ *
+ */
+public class ReferencePartitionedMapping {
+
+	private final Class<? extends Mapper> mapperclass;
+	private final LinkedHashMap<String, DataNode> optrefmap;
+	private final OptionSet options;
+	private long chunkSize;
+	private String chunkPrefix;
+	private final TimeCounter mappingTime = new TimeCounter(3, "Alignment Time", "Result PostProcessing Time", "Result Clustering Time");
+
+	public ReferencePartitionedMapping(Class<? extends Mapper> mapperclass, LinkedHashMap<String, DataNode> optrefmap, OptionSet options) {
+		if (options.has("seedindexin"))
+			throw new IllegalArgumentException("A seed index cannot be used with reference chunks.");
+		this.mapperclass = mapperclass;
+		this.optrefmap = optrefmap;
+		this.options = options;
+		this.chunkSize = (long) options.valueOf("refchunk");
+		this.chunkPrefix = options.has("refchunkprefix") ? (String) options.valueOf("refchunkprefix") : (String) options.valueOf("optresout") + ".refchunk";
+	}
+
+	/**
+	 * Partitions the reference into chunks of consecutive references. A chunk is closed once its total size reaches <code>chunkSize</code>, so a reference longer than <code>chunkSize</code> forms a chunk by itself
+	 * 
+	 * @param optrefmap
+	 *            the reference
+	 * @param chunkSize
+	 *            the size of a chunk
+	 * @return the chunks in reference order
+	 */
+	public static List<LinkedHashMap<String, DataNode>> partition(LinkedHashMap<String, DataNode> optrefmap, long chunkSize) {
+		List<LinkedHashMap<String, DataNode>> chunkList = new ArrayList<>();
+		LinkedHashMap<String, DataNode> chunk = new LinkedHashMap<>();
+		long size = 0;
+		for (DataNode ref : optrefmap.values()) {
+			chunk.put(ref.name, ref);
+			size += ref.size;
+			if (size >= chunkSize) {
+				chunkList.add(chunk);
+				chunk = new LinkedHashMap<>();
+				size = 0;
+			}
+		}
+		if (!chunk.isEmpty())
+			chunkList.add(chunk);
+		return chunkList;
+	}
+
+	/**
+	 * Aligns all data read according to <code>options</code> and writes the final results to <code>omrw</code>
+	 * 
+	 * @param omrw
+	 *            the result writer
+	 * @throws IOException
+	 * @throws MapperConstructionException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void run(OptMapResultWriter omrw) throws IOException, MapperConstructionException, InterruptedException, ExecutionException {
+		List<LinkedHashMap<String, DataNode>> chunkList = partition(optrefmap, chunkSize);
+		List<String> chunkResultList = new ArrayList<>();
+		for (int i = 0; i < chunkList.size(); i++) {
+			VerbosePrinter.println("Aligning to reference chunk " + (i + 1) + " of " + chunkList.size() + " (" + chunkList.get(i).size() + " references)...");
+			String chunkResult = chunkPrefix + (i + 1) + ".oma";
+			mapChunk(chunkList.get(i), chunkResult);
+			chunkResultList.add(chunkResult);
+		}
+		VerbosePrinter.println("Merging partial alignments of reference chunks...");
+		merge(chunkResultList, omrw);
+		for (String chunkResult : chunkResultList)
+			Files.deleteIfExists(Paths.get(chunkResult));
+	}
+
+	private void mapChunk(LinkedHashMap<String, DataNode> chunk, String chunkResult) throws IOException, MapperConstructionException, InterruptedException, ExecutionException {
+		Mapper mapper;
+		try {
+			mapper = mapperclass.getConstructor(LinkedHashMap.class).newInstance(chunk);
+		} catch (NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			throw new MapperConstructionException(e);
+		}
+		mapper.setParameters(options);
+		// Post-mapping modules are run after merging
+		mapper.setPostAlignmentProcess(null, null, null);
+		MultiThreadMapper multi = new MultiThreadMapper(mapper);
+		multi.setParameters(options);
+		OptMapDataReader omdr = new OptMapDataReader(options);
+		OptMapResultWriter omrw = new OptMapResultWriter(chunkResult, ResultFormat.OMA, true, true, true);
+		MappingPipeline pipeline = new MappingPipeline(multi);
+		pipeline.setParameters((int) options.valueOf("pipelinequeue"), true);
+		try {
+			pipeline.run(omdr, omrw);
+		} finally {
+			omdr.close();
+			omrw.close();
+			multi.close();
+		}
+		mappingTime.add(0, multi.getMappingTime().get(0));
+		multi.outputStatistics();
+	}
+
+	private void merge(List<String> chunkResultList, OptMapResultWriter omrw) throws IOException, InterruptedException, ExecutionException {
+		PartialResultMapper mapper = new PartialResultMapper(optrefmap);
+		mapper.setParameters(options);
+		MultiThreadMapper multi = new MultiThreadMapper(mapper);
+		multi.setParameters(options);
+		List<OptMapResultReader> readerList = new ArrayList<>();
+		List<Map<String, DataNode>> fragmentInfoList = new ArrayList<>();
+		for (String chunkResult : chunkResultList) {
+			OptMapResultReader omrr = new OptMapResultReader(chunkResult, ResultFormat.OMA);
+			// Molecule information is only kept until the next list is read
+			Map<String, DataNode> fragmentInfo = new HashMap<>();
+			omrr.importFragInfo(fragmentInfo);
+			readerList.add(omrr);
+			fragmentInfoList.add(fragmentInfo);
+		}
+		OptMapDataReader omdr = new OptMapDataReader(options);
+		try {
+			DataNode data;
+			while ((data = omdr.read()) != null) {
+				List<OptMapResultNode> partialList = new ArrayList<>();
+				List<OptMapResultNode> reverseList = new ArrayList<>();
+				for (int i = 0; i < readerList.size(); i++) {
+					List<OptMapResultNode> resultList = readerList.get(i).readNextList();
+					fragmentInfoList.get(i).clear();
+					if (resultList == null || !resultList.get(0).parentFrag.name.equalsIgnoreCase(data.name))
+						throw new IOException("Partial alignments of reference chunk " + (i + 1) + " do not follow the input order.");
+					for (OptMapResultNode result : resultList)
+						if (result.isUsed()) {
+							result.parentFrag = data;
+							// Keep all forward alignments before reverse alignments as in a single reference
+							if (result.mappedstrand == -1)
+								reverseList.add(result);
+							else
+								partialList.add(result);
+						}
+				}
+				partialList.addAll(reverseList);
+				if (!partialList.isEmpty())
+					mapper.putPartialResults(data, partialList);
+				while (!multi.startNext(data))
+					write(multi.getNextResult(), omrw);
+			}
+			while (multi.getStatus() != -1)
+				write(multi.getNextResult(), omrw);
+		} finally {
+			omdr.close();
+			for (OptMapResultReader omrr : readerList)
+				omrr.close();
+			multi.close();
+		}
+		TimeCounter mappertc = multi.getMappingTime();
+		mappingTime.add(1, mappertc.get(1));
+		mappingTime.add(2, mappertc.get(2));
+	}
+
+	private void write(MultiThreadResultNode multinode, OptMapResultWriter omrw) throws IOException {
+		List<OptMapResultNode> resultlist = multinode.alignmentResults;
+		if (resultlist == null || resultlist.size() == 0) {
+			resultlist = new ArrayList<OptMapResultNode>();
+			resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
+		}
+		omrw.write(resultlist);
+	}
+
+	/**
+	 * Returns the alignment, post-processing and clustering time summed over all chunks and threads
+	 * 
+	 * @return the time counter
+	 */
+	public TimeCounter getMappingTime() {
+		return mappingTime;
+	}
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Reference Partition Options", level);
+		parser.accepts("refchunk", "Total size of consecutive references aligned together, each chunk with its own seed database. Partial alignments are merged before post-mapping modules. 0: The whole reference is aligned together").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+		parser.accepts("refchunkprefix", "Prefix of the temporary files of partial alignments. Default: <optresout>.refchunk").withRequiredArg().ofType(String.class);
+	}
+}
@@ -0,0 +1,55 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.io.IOException;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A source of data shared by all mapper threads of <code>MultiThreadMapper</code> in batch mode. Each thread pulls a chunk of data at a time
+ * 
+ * @author Alden
+ *
+ */
+public interface DataChunkSource {
+	/**
+	 * Returns the next chunk of data. Blocks until at least one data is available or the source is exhausted. Must be thread-safe
+	 * 
+	 * @param maxSize
+	 *            maximum number of data in the chunk
+	 * @return the next chunk of data; an empty list if the source is exhausted
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<DataNode> nextChunk(int maxSize) throws IOException, InterruptedException;
+}
@@ -0,0 +1,79 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <code>ForkJoinInvoker</code> splits the work of a single query into tasks on a <code>ForkJoinPool</code>. Tasks may split further, e.g. strands into seed partitions; nested calls fork within the pool instead of blocking a thread.
+ * 
+ * @author Alden
+ *
+ */
+public class ForkJoinInvoker {
+
+	/**
+	 * Runs all <code>tasks</code> in <code>pool</code> and returns their results in the order of <code>tasks</code>. If called within a fork-join pool, tasks are forked in that pool
+	 * 
+	 * @param pool
+	 *            the pool running the tasks
+	 * @param tasks
+	 *            the tasks
+	 * @return the results of tasks
+	 * @throws RuntimeException
+	 *             if any task fails. Checked exceptions are wrapped
+	 */
+	public static <T> List<T> invokeAll(ForkJoinPool pool, List<? extends Callable<T>> tasks) {
+		final List<ForkJoinTask<T>> forkJoinTasks = new ArrayList<ForkJoinTask<T>>(tasks.size());
+		for (Callable<T> task : tasks)
+			forkJoinTasks.add(ForkJoinTask.adapt(task));
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(forkJoinTasks);
+		else
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(forkJoinTasks);
+				}
+			});
+		List<T> results = new ArrayList<T>(tasks.size());
+		for (ForkJoinTask<T> task : forkJoinTasks)
+			results.add(task.join());
+		return results;
+	}
+}
@@ -0,0 +1,315 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import joptsimple.OptionSet;
+
+import org.apache.commons.io.FilenameUtils;
+
+import aldenjava.opticalmapping.data.CompressionFormat;
+import aldenjava.opticalmapping.data.DataFormat;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataReader;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultWriter;
+import aldenjava.opticalmapping.miscellaneous.InvalidFileFormatException;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+
+/**
+ * <code>MappingCheckpoint</code> records the progress of a mapping run in a sidecar file next to the output, so that an interrupted run can be resumed. Data are identified by their order in the input. A checkpoint records:
+ * <ul>
+ * <li>the number of leading data whose results are all written, with the byte offset and a hash of the first line of the next data</li>
+ * <li>the order and ID of data after them whose results are written</li>
+ * <li>the length of the output file after flushing</li>
+ * </ul>
+ * On resume, the output is truncated to the recorded length and appended, the input is read from the recorded offset (or by skipping the leading data if the offset cannot be used), and data with written results are skipped.
+ * 
+ * @author Alden
+ *
+ */
+public class MappingCheckpoint {
+
+	private static final String HEADER = "#OMTools mapping checkpoint v1.0";
+
+	private final String filename;
+	private final String outputFilename;
+	private final long interval;
+	private long lastCheckpointTime;
+
+	// Progress of the current run
+	/**
+	 * Results of all data with order below <code>completed</code> are written
+	 */
+	private long completed = 0;
+	/**
+	 * ID of data with order above <code>completed</code> whose results are written
+	 */
+	private final TreeMap<Long, String> doneMap = new TreeMap<Long, String>();
+	/**
+	 * Offset and first line hash of data read but not yet completed. Updated by the reading thread
+	 */
+	private final Map<Long, long[]> inputMap = new ConcurrentHashMap<Long, long[]>();
+
+	// State loaded for resume
+	private long startOrder = 0;
+	private long startOffset = -1;
+	private int startLineHash = 0;
+	private long outputLength = -1;
+	private int lastEntryID = 0;
+	private boolean finished = false;
+	private final Set<Long> skippedSet = new HashSet<Long>();
+
+	/**
+	 * Constructs a <code>MappingCheckpoint</code> for the output file <code>outputFilename</code>. The sidecar file is <code>outputFilename</code> with suffix <code>.ckpt</code>
+	 * 
+	 * @param outputFilename
+	 *            the output file
+	 * @param interval
+	 *            minimum interval between checkpoints in seconds
+	 * @throws IllegalArgumentException
+	 *             if the output file is compressed
+	 */
+	public MappingCheckpoint(String outputFilename, int interval) {
+		if (CompressionFormat.isValidFormat(FilenameUtils.getExtension(outputFilename).toLowerCase()))
+			throw new IllegalArgumentException("Checkpointing does not support compressed output: " + outputFilename);
+		if (interval <= 0)
+			throw new IllegalArgumentException("Checkpoint interval must be positive");
+		this.outputFilename = outputFilename;
+		this.filename = outputFilename + ".ckpt";
+		this.interval = interval * 1000L;
+		this.lastCheckpointTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Loads the last checkpoint for resuming
+	 * 
+	 * @return <code>true</code> if a checkpoint is found
+	 * @throws IOException
+	 */
+	public boolean load() throws IOException {
+		if (!new File(filename).exists())
+			return false;
+		Map<String, String> valueMap = new HashMap<String, String>();
+		try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+			String s = br.readLine();
+			if (s == null || !s.equals(HEADER))
+				throw new InvalidFileFormatException();
+			while ((s = br.readLine()) != null) {
+				String[] l = s.split("\t", 3);
+				if (l[0].equals("done"))
+					doneMap.put(Long.parseLong(l[1]), l[2]);
+				else
+					valueMap.put(l[0], l[1]);
+			}
+		} catch (InvalidFileFormatException | ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IOException("Invalid checkpoint file: " + filename, e);
+		}
+		for (String key : new String[] {"completed", "offset", "linehash", "outputlength", "finished"})
+			if (!valueMap.containsKey(key))
+				throw new IOException("Incomplete checkpoint file: " + filename);
+		completed = startOrder = Long.parseLong(valueMap.get("completed"));
+		startOffset = Long.parseLong(valueMap.get("offset"));
+		startLineHash = Integer.parseInt(valueMap.get("linehash"));
+		outputLength = Long.parseLong(valueMap.get("outputlength"));
+		if (valueMap.containsKey("entryid"))
+			lastEntryID = Integer.parseInt(valueMap.get("entryid"));
+		finished = Boolean.parseBoolean(valueMap.get("finished"));
+		skippedSet.addAll(doneMap.keySet());
+		return true;
+	}
+
+	/**
+	 * Returns whether the loaded checkpoint is recorded at the end of a run
+	 * 
+	 * @return <code>true</code> if all data were aligned
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Truncates the output file to the length recorded in the loaded checkpoint, discarding results written after the checkpoint
+	 * 
+	 * @throws IOException
+	 */
+	public void truncateOutput() throws IOException {
+		File file = new File(outputFilename);
+		if (!file.exists() || file.length() < outputLength)
+			throw new IOException("Output file is shorter than recorded in the checkpoint: " + outputFilename);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(outputLength);
+		}
+	}
+
+	/**
+	 * Restores the entry numbering of the output writer appending to the truncated output
+	 * 
+	 * @param omrw
+	 *            the writer of the output
+	 */
+	public void restoreWriter(OptMapResultWriter omrw) {
+		omrw.setLastEntryID(lastEntryID);
+	}
+
+	/**
+	 * Opens the input positioned at the first data not completed in the loaded checkpoint. The reader starts at the recorded offset if the first line there matches the record; otherwise the completed data are read and skipped
+	 * 
+	 * @param options
+	 * @return the reader
+	 * @throws IOException
+	 */
+	public OptMapDataReader openReader(OptionSet options) throws IOException {
+		String input = (String) options.valueOf("optmapin");
+		DataFormat dformat = DataFormat.lookup(input, (int) options.valueOf("optmapinformat"));
+		double bnxSNR = (double) options.valueOf("bnxsnr");
+		if (startOrder > 0 && startOffset >= 0 && OptMapDataReader.isSeekable(input, dformat)) {
+			OptMapDataReader omdr = new OptMapDataReader(input, dformat, bnxSNR, startOffset);
+			if (omdr.getNextLine() != null && omdr.getNextLine().hashCode() == startLineHash) {
+				VerbosePrinter.println("Resuming from data " + startOrder + " at byte " + startOffset);
+				return omdr;
+			}
+			omdr.close();
+			System.err.println("Warning! Input at the recorded offset does not match the checkpoint. Completed data are skipped by reading.");
+		}
+		OptMapDataReader omdr = new OptMapDataReader(options);
+		for (long i = 0; i < startOrder; i++)
+			if (omdr.read() == null)
+				throw new IOException("Input has fewer data than recorded in the checkpoint: " + input);
+		VerbosePrinter.println("Resuming from data " + startOrder);
+		return omdr;
+	}
+
+	/**
+	 * Returns the order of the first data read by the reader from {@link #openReader(OptionSet)}
+	 * 
+	 * @return the order of the first data to read
+	 */
+	public long getStartOrder() {
+		return startOrder;
+	}
+
+	/**
+	 * Returns whether the result of data is written before the loaded checkpoint, such that the data should be skipped
+	 * 
+	 * @param order
+	 *            the order of data in the input
+	 * @return <code>true</code> if the data should be skipped
+	 */
+	public boolean isSkipped(long order) {
+		return skippedSet.contains(order);
+	}
+
+	/**
+	 * Records the position of data about to be read. Called by the reading thread
+	 * 
+	 * @param order
+	 *            the order of data in the input
+	 * @param offset
+	 *            the byte offset of data
+	 * @param line
+	 *            the first line of data
+	 */
+	public void recordInput(long order, long offset, String line) {
+		inputMap.put(order, new long[] {offset, line == null ? 0 : line.hashCode()});
+	}
+
+	/**
+	 * Records data whose results are written
+	 * 
+	 * @param order
+	 *            the order of data in the input
+	 * @param data
+	 */
+	public void recordCompleted(long order, DataNode data) {
+		doneMap.put(order, data.name);
+		inputMap.remove(order);
+		while (doneMap.remove(completed) != null)
+			completed++;
+	}
+
+	/**
+	 * Writes a checkpoint if the interval has passed since the last checkpoint
+	 * 
+	 * @param omrw
+	 *            the writer of the output, flushed before writing the checkpoint
+	 * @throws IOException
+	 */
+	public void update(OptMapResultWriter omrw) throws IOException {
+		if (System.currentTimeMillis() - lastCheckpointTime >= interval)
+			save(omrw, false);
+	}
+
+	/**
+	 * Writes the final checkpoint after all results are written
+	 * 
+	 * @param omrw
+	 *            the writer of the output
+	 * @throws IOException
+	 */
+	public void finish(OptMapResultWriter omrw) throws IOException {
+		save(omrw, true);
+	}
+
+	private void save(OptMapResultWriter omrw, boolean finished) throws IOException {
+		omrw.flush();
+		long length = new File(outputFilename).length();
+		long[] next = inputMap.get(completed);
+		File tmpFile = new File(filename + ".tmp");
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(tmpFile))) {
+			bw.write(HEADER + "\n");
+			bw.write("completed\t" + completed + "\n");
+			bw.write("offset\t" + (next == null ? -1 : next[0]) + "\n");
+			bw.write("linehash\t" + (next == null ? 0 : next[1]) + "\n");
+			bw.write("outputlength\t" + length + "\n");
+			bw.write("entryid\t" + omrw.getLastEntryID() + "\n");
+			bw.write("finished\t" + finished + "\n");
+			for (Map.Entry<Long, String> entry : doneMap.entrySet())
+				bw.write("done\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+		}
+		Files.move(tmpFile.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		lastCheckpointTime = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,314 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import joptsimple.OptionSet;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataReader;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultWriter;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+
+/**
+ * <code>MappingPipeline</code> runs alignment as three stages connected by bounded queues: a reader thread parsing the data, the <code>MultiThreadMapper</code> fed by the calling thread, and a writer thread writing the results. Parsing and writing therefore overlap with alignment. In batch mode of <code>MultiThreadMapper</code>, mapper threads pull chunks of data from the input queue directly. Results are written in the order of completion, or in the input order if <code>keepOrder</code> is set.
+ * 
+ * @author Alden
+ *
+ */
+public class MappingPipeline {
+
+	private static final DataNode ENDOFINPUT = new DataNode();
+	private static final List<MultiThreadResultNode> ENDOFRESULT = new ArrayList<MultiThreadResultNode>();
+
+	private final MultiThreadMapper multi;
+	private int queueSize = 64;
+	private boolean keepOrder = false;
+	private MappingCheckpoint checkpoint = null;
+
+	/**
+	 * Constructs a <code>MappingPipeline</code> feeding the data to <code>multi</code>. Parameters of <code>multi</code> must be set beforehand
+	 * 
+	 * @param multi
+	 */
+	public MappingPipeline(MultiThreadMapper multi) {
+		this.multi = multi;
+	}
+
+	public void setParameters(OptionSet options) {
+		setParameters((int) options.valueOf("pipelinequeue"), (boolean) options.valueOf("keeporder"));
+	}
+
+	/**
+	 * Sets parameters for <code>MappingPipeline</code>
+	 * 
+	 * @param queueSize
+	 *            capacity of the queues between stages
+	 * @param keepOrder
+	 *            writes results in the input order
+	 */
+	public void setParameters(int queueSize, boolean keepOrder) {
+		if (queueSize < 1)
+			throw new IllegalArgumentException("Pipeline queue size must be at least 1");
+		this.queueSize = queueSize;
+		this.keepOrder = keepOrder;
+	}
+
+	/**
+	 * Records progress in <code>checkpoint</code>. If a checkpoint is loaded for resuming, the reader passed to {@link #run(OptMapDataReader, OptMapResultWriter)} must be opened by {@link MappingCheckpoint#openReader(OptionSet)}, and data with written results are skipped
+	 * 
+	 * @param checkpoint
+	 *            the checkpoint; <code>null</code> if progress is not recorded
+	 */
+	public void setCheckpoint(MappingCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Aligns all data from <code>omdr</code> and writes the results to <code>omrw</code>. A blank result is written for data without any alignment. Readers and writers are not closed
+	 * 
+	 * @param omdr
+	 *            the data reader
+	 * @param omrw
+	 *            the result writer
+	 * @throws IOException
+	 *             if reading or writing fails
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 *             if alignment fails
+	 */
+	public void run(final OptMapDataReader omdr, final OptMapResultWriter omrw) throws IOException, InterruptedException, ExecutionException {
+		final BlockingQueue<DataNode> inputQueue = new ArrayBlockingQueue<DataNode>(queueSize);
+		final BlockingQueue<List<MultiThreadResultNode>> outputQueue = new ArrayBlockingQueue<List<MultiThreadResultNode>>(queueSize);
+		// Input order of data being processed
+		final Map<DataNode, Long> orderMap = Collections.synchronizedMap(new IdentityHashMap<DataNode, Long>());
+		// Daemon threads do not keep the JVM alive if a stage is stuck after a failure
+		ExecutorService es = Executors.newFixedThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			Future<Void> readerFuture = es.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException, InterruptedException {
+					boolean completed = false;
+					try {
+						long order = checkpoint == null ? 0 : checkpoint.getStartOrder();
+						while (true) {
+							if (checkpoint != null && !checkpoint.isSkipped(order))
+								checkpoint.recordInput(order, omdr.getNextLineOffset(), omdr.getNextLine());
+							DataNode data = omdr.read();
+							if (data == null)
+								break;
+							if (checkpoint == null || !checkpoint.isSkipped(order)) {
+								orderMap.put(data, order);
+								inputQueue.put(data);
+							}
+							order++;
+						}
+						completed = true;
+					} finally {
+						if (completed)
+							inputQueue.put(ENDOFINPUT);
+						else {
+							// The dispatcher may have stopped taking data. Discard the queued data so that the end mark never blocks
+							inputQueue.clear();
+							inputQueue.offer(ENDOFINPUT);
+						}
+					}
+					return null;
+				}
+			});
+			Future<Void> writerFuture = es.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException, InterruptedException {
+					write(outputQueue, orderMap, omrw);
+					return null;
+				}
+			});
+			try {
+				if (multi.isBatchMode())
+					dispatchBatch(inputQueue, outputQueue);
+				else
+					dispatch(inputQueue, outputQueue);
+			} finally {
+				outputQueue.put(ENDOFRESULT);
+			}
+			getResult(writerFuture);
+			getResult(readerFuture);
+			if (checkpoint != null)
+				checkpoint.finish(omrw);
+		} finally {
+			es.shutdownNow();
+		}
+	}
+
+	private static void getResult(Future<Void> future) throws IOException, InterruptedException, ExecutionException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Feeds data from <code>inputQueue</code> to the mapper and passes the results to <code>outputQueue</code>. Finished results are collected before waiting for more data, so that mapper threads are released as soon as possible
+	 */
+	private void dispatch(BlockingQueue<DataNode> inputQueue, BlockingQueue<List<MultiThreadResultNode>> outputQueue) throws InterruptedException, ExecutionException {
+		while (true) {
+			while (multi.getStatus() == 1)
+				outputQueue.put(Collections.singletonList(multi.getNextResult()));
+			DataNode data = inputQueue.take();
+			if (data == ENDOFINPUT)
+				break;
+			while (!multi.startNext(data))
+				outputQueue.put(Collections.singletonList(multi.getNextResult()));
+		}
+		while (multi.getStatus() != -1)
+			outputQueue.put(Collections.singletonList(multi.getNextResult()));
+	}
+
+	/**
+	 * Lets mapper threads pull chunks of data from <code>inputQueue</code>, and passes the results of each chunk to <code>outputQueue</code>
+	 */
+	private void dispatchBatch(final BlockingQueue<DataNode> inputQueue, BlockingQueue<List<MultiThreadResultNode>> outputQueue) throws InterruptedException, ExecutionException {
+		DataChunkSource source = new DataChunkSource() {
+			@Override
+			public List<DataNode> nextChunk(int maxSize) throws InterruptedException {
+				List<DataNode> chunk = new ArrayList<DataNode>();
+				DataNode data = inputQueue.take();
+				if (data != ENDOFINPUT) {
+					chunk.add(data);
+					inputQueue.drainTo(chunk, maxSize - 1);
+					if (chunk.get(chunk.size() - 1) != ENDOFINPUT)
+						return chunk;
+					chunk.remove(chunk.size() - 1);
+				}
+				// Leave the end mark for other threads
+				inputQueue.put(ENDOFINPUT);
+				return chunk;
+			}
+		};
+		while (multi.startNextBatch(source))
+			;
+		boolean exhausted = false;
+		while (multi.getStatus() != -1) {
+			List<MultiThreadResultNode> resultList = multi.getNextBatchResult();
+			if (resultList.isEmpty())
+				exhausted = true;
+			else
+				outputQueue.put(resultList);
+			if (!exhausted)
+				multi.startNextBatch(source);
+		}
+	}
+
+	/**
+	 * Writes results from <code>outputQueue</code> until the end of results. If writing fails, the remaining results are still taken so that the mapping stage is not blocked, and the exception is thrown at the end
+	 */
+	private void write(BlockingQueue<List<MultiThreadResultNode>> outputQueue, Map<DataNode, Long> orderMap, OptMapResultWriter omrw) throws IOException, InterruptedException {
+		HashMap<Long, MultiThreadResultNode> pendingMap = new HashMap<Long, MultiThreadResultNode>();
+		long nextOrder = checkpoint == null ? 0 : checkpoint.getStartOrder();
+		Exception exception = null;
+		List<MultiThreadResultNode> resultList;
+		while ((resultList = outputQueue.take()) != ENDOFRESULT) {
+			if (exception != null)
+				continue;
+			try {
+				for (MultiThreadResultNode multinode : resultList) {
+					long order = orderMap.remove(multinode.data);
+					if (keepOrder) {
+						pendingMap.put(order, multinode);
+						MultiThreadResultNode nextnode;
+						while (true) {
+							if (checkpoint != null && checkpoint.isSkipped(nextOrder))
+								nextOrder++;
+							else if ((nextnode = pendingMap.remove(nextOrder)) != null)
+								write(nextOrder++, nextnode, omrw);
+							else
+								break;
+						}
+					} else
+						write(order, multinode, omrw);
+				}
+				if (checkpoint != null)
+					checkpoint.update(omrw);
+			} catch (IOException | RuntimeException e) {
+				exception = e;
+			}
+		}
+		if (exception instanceof IOException)
+			throw (IOException) exception;
+		if (exception != null)
+			throw (RuntimeException) exception;
+	}
+
+	private void write(long order, MultiThreadResultNode multinode, OptMapResultWriter omrw) throws IOException {
+		List<OptMapResultNode> resultlist = multinode.alignmentResults;
+		if (resultlist == null || resultlist.size() == 0) {
+			resultlist = new ArrayList<OptMapResultNode>();
+			resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
+		}
+		omrw.write(resultlist);
+		if (checkpoint != null)
+			checkpoint.recordCompleted(order, multinode.data);
+	}
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Pipeline Options", level);
+		parser.accepts("pipeline", "Read data and write results on separate threads, overlapping with alignment").withRequiredArg().ofType(Boolean.class).defaultsTo(true);
+		parser.accepts("pipelinequeue", "Capacity of the queues between reading, alignment and writing").withRequiredArg().ofType(Integer.class).defaultsTo(64);
+		parser.accepts("keeporder", "Write results in the input order when using the pipeline").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("checkpoint", "Interval in seconds for recording progress in a checkpoint file next to the output (optresout with suffix .ckpt). 0: No checkpoint").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+		parser.accepts("resume", "Resume an interrupted run from its checkpoint file, appending to the existing output. Checkpoints continue every 300 seconds unless checkpoint is set").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+	}
+}
@@ -0,0 +1,73 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.mapper.Mapper;
+
+/**
+ * A task of <code>MultiThreadMapper</code> in batch mode. A chunk of data is pulled from the shared source and aligned one by one on the same <code>Mapper</code>
+ * 
+ * @author Alden
+ *
+ */
+class MultiThreadBatchTask implements Callable<List<MultiThreadResultNode>> {
+	private final Mapper mapper;
+	private final DataChunkSource source;
+	private final int chunkSize;
+	/**
+	 * Time spent on alignment of the chunk in nanoseconds, excluding the time waiting for data
+	 */
+	long alignmentTime = 0;
+
+	MultiThreadBatchTask(Mapper mapper, DataChunkSource source, int chunkSize) {
+		this.mapper = mapper;
+		this.source = source;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public List<MultiThreadResultNode> call() throws Exception {
+		List<DataNode> chunk = source.nextChunk(chunkSize);
+		List<MultiThreadResultNode> resultList = new ArrayList<MultiThreadResultNode>(chunk.size());
+		long start = System.nanoTime();
+		for (DataNode data : chunk) {
+			mapper.setData(data);
+			resultList.add(new MultiThreadResultNode(data, mapper.call()));
+		}
+		alignmentTime = System.nanoTime() - start;
+		return resultList;
+	}
+}
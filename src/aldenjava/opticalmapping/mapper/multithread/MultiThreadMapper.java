@@ -34,6 +34,9 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.CompletionService;
@@ -69,6 +72,17 @@ public class MultiThreadMapper implements Closeable {
 	private CompletionService<List<OptMapResultNode>> ecs;
 	private Constructor<? extends Mapper> ctor;
 
+	// Batch mode
+	private boolean batchMode = false;
+	private int maxChunkSize = 256;
+	private long targetChunkTime = 50000000L;
+	private List<Future<List<MultiThreadResultNode>>> batchFutureList;
+	private CompletionService<List<MultiThreadResultNode>> batchEcs;
+	private HashMap<Future<List<MultiThreadResultNode>>, Integer> batchSlotMap;
+	private MultiThreadBatchTask[] batchTask;
+	private int[] chunkSize;
+	private double[] moleculeTime;
+
 	/**
 	 * Constructs a new <code>MultiThreadMapper</code> based on any class extending <code>Mapper</code> using reflection
 	 * 
@@ -106,6 +120,7 @@ public class MultiThreadMapper implements Closeable {
 		if (mapperNeedToSetParameters)
 			targetmapper.setParameters(options);
 		setParameters((int) options.valueOf("thread"));
+		setBatchParameters((boolean) options.valueOf("batchmapping"), (int) options.valueOf("maxchunk"), (int) options.valueOf("chunktime"));
 	}
 
 	/**
@@ -128,6 +143,47 @@ public class MultiThreadMapper implements Closeable {
 		for (int i = 1; i < ommapper.length; i++) {
 			ommapper[i] = ommapper[0].copy();
 		}
+
+		batchEcs = new ExecutorCompletionService<List<MultiThreadResultNode>>(es);
+		batchFutureList = new ArrayList<Future<List<MultiThreadResultNode>>>();
+		for (int i = 0; i < nrOfProcessors; i++)
+			batchFutureList.add(null);
+		batchSlotMap = new HashMap<Future<List<MultiThreadResultNode>>, Integer>();
+		batchTask = new MultiThreadBatchTask[nrOfProcessors];
+		chunkSize = new int[nrOfProcessors];
+		moleculeTime = new double[nrOfProcessors];
+		Arrays.fill(chunkSize, 1);
+		Arrays.fill(moleculeTime, -1);
+	}
+
+	/**
+	 * Sets parameters for batch mode. In batch mode, each <code>ommapper</code> pulls a chunk of data from a shared <code>DataChunkSource</code> and aligns it in one task. The chunk size of each <code>ommapper</code> starts from 1 and adapts to the observed alignment time per data, such that a chunk takes about <code>chunkTime</code>
+	 * 
+	 * @param batchMode
+	 *            use batch mode in procedures supporting it
+	 * @param maxChunkSize
+	 *            maximum number of data in a chunk
+	 * @param chunkTime
+	 *            target alignment time of a chunk in milliseconds
+	 * @see #startNextBatch(DataChunkSource)
+	 */
+	public void setBatchParameters(boolean batchMode, int maxChunkSize, int chunkTime) {
+		if (maxChunkSize < 1)
+			throw new IllegalArgumentException("Maximum chunk size must be at least 1");
+		if (chunkTime < 0)
+			throw new IllegalArgumentException("Chunk time must not be negative");
+		this.batchMode = batchMode;
+		this.maxChunkSize = maxChunkSize;
+		this.targetChunkTime = chunkTime * 1000000L;
+	}
+
+	/**
+	 * Returns whether batch mode is used
+	 * 
+	 * @return <code>true</code> if batch mode is used
+	 */
+	public boolean isBatchMode() {
+		return batchMode;
 	}
 
 	// Core
@@ -139,7 +195,7 @@ public class MultiThreadMapper implements Closeable {
 	 */
 	public boolean startNext(DataNode data) {
 		for (int i = 0; i < nrOfProcessors; i++)
-			if (futureList.get(i) == null) {
+			if (futureList.get(i) == null && batchFutureList.get(i) == null) {
 				ommapper[i].setData(data);
 				futureList.set(i, ecs.submit(ommapper[i]));
 				return true;
@@ -157,12 +213,18 @@ public class MultiThreadMapper implements Closeable {
 		// 0 running
 		// 1 running and have results
 		boolean nothingRun = true;
-		for (int i = 0; i < nrOfProcessors; i++)
+		for (int i = 0; i < nrOfProcessors; i++) {
 			if (futureList.get(i) != null) {
 				nothingRun = false;
 				if (futureList.get(i).isDone())
 					return 1;
 			}
+			if (batchFutureList.get(i) != null) {
+				nothingRun = false;
+				if (batchFutureList.get(i).isDone())
+					return 1;
+			}
+		}
 		if (nothingRun)
 			return -1;
 		else
@@ -189,6 +251,52 @@ public class MultiThreadMapper implements Closeable {
 		return multinode;
 	}
 
+	/**
+	 * Starts a task on an idle <code>ommapper</code>, which pulls a chunk of data from <code>source</code> and aligns it. Returns <code>false</code> if all <code>ommapper</code> are busy. Tasks finishing with an empty result list indicate that <code>source</code> is exhausted
+	 * 
+	 * @param source
+	 *            the shared source of data
+	 * @return <code>true</code> if a task is started; <code>false</code> if all <code>ommapper</code> are busy
+	 * @see #getNextBatchResult()
+	 */
+	public boolean startNextBatch(DataChunkSource source) {
+		for (int i = 0; i < nrOfProcessors; i++)
+			if (futureList.get(i) == null && batchFutureList.get(i) == null) {
+				batchTask[i] = new MultiThreadBatchTask(ommapper[i], source, chunkSize[i]);
+				Future<List<MultiThreadResultNode>> future = batchEcs.submit(batchTask[i]);
+				batchFutureList.set(i, future);
+				batchSlotMap.put(future, i);
+				return true;
+			}
+		return false;
+	}
+
+	/**
+	 * Returns the alignment results of the next finished chunk. If all tasks are running, wait until the next chunk is finished. The chunk size of the <code>ommapper</code> is then updated according to the alignment time per data in the chunk
+	 * 
+	 * @return alignment results of the chunk; an empty list if the task found the source exhausted
+	 * @throws IllegalStateException
+	 *             if no batch tasks are started
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public List<MultiThreadResultNode> getNextBatchResult() throws IllegalStateException, InterruptedException, ExecutionException {
+		if (batchSlotMap.isEmpty())
+			throw new IllegalStateException("All results are taken");
+		Future<List<MultiThreadResultNode>> future = batchEcs.take();
+		int i = batchSlotMap.remove(future);
+		batchFutureList.set(i, null);
+		List<MultiThreadResultNode> resultList = future.get();
+		if (!resultList.isEmpty()) {
+			double time = batchTask[i].alignmentTime / (double) resultList.size();
+			// Exponential moving average of the alignment time per data
+			moleculeTime[i] = moleculeTime[i] < 0 ? time : moleculeTime[i] * 0.75 + time * 0.25;
+			chunkSize[i] = (int) Math.max(1, Math.min(maxChunkSize, targetChunkTime / Math.max(moleculeTime[i], 1)));
+		}
+		batchTask[i] = null;
+		return resultList;
+	}
+
 	// Call to activate
 	/**
 	 * Perform alignments on all the data in <code>fragmentmap</code>
@@ -201,6 +309,35 @@ public class MultiThreadMapper implements Closeable {
 			throw new IllegalStateException("Mapper is already running.");
 		} else {
 			LinkedHashMap<String, List<OptMapResultNode>> fragmentmaplistmap = new LinkedHashMap<String, List<OptMapResultNode>>();
+			if (batchMode) {
+				final Iterator<DataNode> iterator = fragmentmap.values().iterator();
+				DataChunkSource source = new DataChunkSource() {
+					@Override
+					public synchronized List<DataNode> nextChunk(int maxSize) {
+						List<DataNode> chunk = new ArrayList<DataNode>();
+						while (chunk.size() < maxSize && iterator.hasNext())
+							chunk.add(iterator.next());
+						return chunk;
+					}
+				};
+				try {
+					while (startNextBatch(source))
+						;
+					boolean exhausted = false;
+					while (!batchSlotMap.isEmpty()) {
+						List<MultiThreadResultNode> resultList = getNextBatchResult();
+						if (resultList.isEmpty())
+							exhausted = true;
+						for (MultiThreadResultNode multinode : resultList)
+							fragmentmaplistmap.put(multinode.data.name, multinode.alignmentResults);
+						if (!exhausted)
+							startNextBatch(source);
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					e.printStackTrace();
+				}
+				return fragmentmaplistmap;
+			}
 			try {
 				for (DataNode fragment : fragmentmap.values()) {
 					while (!startNext(fragment)) {
@@ -234,13 +371,26 @@ public class MultiThreadMapper implements Closeable {
 		return TimeCounter.mergeTimeCounter(tclist);
 	}
 
+	/**
+	 * Outputs the statistics collected by all copies of the mapper
+	 * 
+	 * @see Mapper#outputStatistics(List)
+	 */
+	public void outputStatistics() {
+		targetmapper.outputStatistics(Arrays.asList(ommapper));
+	}
+
 	@Override
 	public void close() {
 		es.shutdown();
+		targetmapper.shutdownQueryPool();
 	}
 
 	public static void assignOptions(ExtendOptionParser parser, int level) {
 		parser.addHeader("Multi-thread Options", level);
 		parser.accepts("thread", "Number of threads").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("batchmapping", "Each thread pulls and aligns a chunk of data at a time. The chunk size adapts to the alignment time per data").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("maxchunk", "Maximum number of data in a chunk in batch mapping").withRequiredArg().ofType(Integer.class).defaultsTo(256);
+		parser.accepts("chunktime", "Target alignment time of a chunk in batch mapping (ms)").withRequiredArg().ofType(Integer.class).defaultsTo(50);
 	}
 }
@@ -0,0 +1,81 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * Assigns query molecules to shards, either by hashing the molecule ID or by splitting the records into contiguous ranges. Molecules must be passed in the input order, as the record range mode counts the records assigned so far.
+ * 
+ * @author Alden
+ *
+ */
+public class ShardAssigner {
+
+	public static final int HASHMODE = 0;
+	public static final int RANGEMODE = 1;
+
+	private final int shards;
+	private final int mode;
+	private final long totalRecords;
+	private long record = 0;
+
+	public ShardAssigner(int shards, int mode, long totalRecords) {
+		if (shards <= 0)
+			throw new IllegalArgumentException("Number of shards must be positive.");
+		if (mode != HASHMODE && mode != RANGEMODE)
+			throw new IllegalArgumentException("Unknown shard mode: " + mode);
+		this.shards = shards;
+		this.mode = mode;
+		this.totalRecords = totalRecords;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * Returns the shard of the next molecule in the input order
+	 * 
+	 * @param data
+	 *            the next molecule
+	 * @return the shard index, from 0 to <code>shards - 1</code>
+	 */
+	public int getShard(DataNode data) {
+		int shard;
+		if (mode == HASHMODE)
+			shard = Math.floorMod(data.name.hashCode(), shards);
+		else
+			shard = totalRecords <= 0 ? 0 : (int) Math.min(record * shards / totalRecords, shards - 1);
+		record++;
+		return shard;
+	}
+}
@@ -0,0 +1,252 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import joptsimple.OptionSet;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import aldenjava.opticalmapping.OMTools;
+import aldenjava.opticalmapping.data.DataFormat;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataReader;
+import aldenjava.opticalmapping.data.data.OptMapDataWriter;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultReader;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultWriter;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+import aldenjava.opticalmapping.tools.ResultMerger;
+
+/**
+ * Runs a mapper in several worker processes on one machine. The query is split into shard files, each shard is mapped by a separate JVM, and the shard results are merged back into the query order with <code>ResultMerger</code>. Options not recognized by the driver are passed to every worker, such that the workers share the same reference and the same memory-mapped seed index given by <code>--seedindexin</code>.
+ * 
+ * @author Alden
+ *
+ */
+public class ShardedMapper {
+
+	// Options set by the driver for every worker
+	private static final String[] overriddenOptions = {"pipeline", "keeporder"};
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Sharded Mapping Options", level);
+		parser.accepts("mapper", "Mapper used by the workers (OMBlastMapper, OMHAMapper or OMFMMapper)").withRequiredArg().ofType(String.class).defaultsTo("OMBlastMapper");
+		parser.accepts("shards", "Number of worker processes").withRequiredArg().ofType(Integer.class).defaultsTo(2);
+		parser.accepts("shardmode", "Shard assignment. 0: Hash of molecule ID; 1: Record range").withRequiredArg().ofType(Integer.class).defaultsTo(ShardAssigner.HASHMODE);
+		parser.accepts("shardprefix", "Prefix of the temporary shard files. Default: <optresout>.shard").withRequiredArg().ofType(String.class);
+		parser.accepts("workerjvmopts", "JVM options of the worker processes, e.g. \"-Xmx8g\"").withRequiredArg().ofType(String.class).defaultsTo("");
+		parser.accepts("keepshards", "Keep the shard files after merging").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+	}
+
+	private static Set<String> getOptionNames(ExtendOptionParser parser) {
+		Set<String> optionNames = new HashSet<>();
+		for (List<String> list : parser.getOptionList())
+			if (list != null)
+				optionNames.addAll(list);
+		return optionNames;
+	}
+
+	/**
+	 * Returns <code>true</code> if <code>arg</code> starts a new option. Other arguments, including negative values such as <code>-1</code>, belong to the previous option
+	 */
+	private static boolean isOption(String arg, Set<String> driverOptionNames) {
+		if (arg.startsWith("--"))
+			return true;
+		if (!arg.startsWith("-"))
+			return false;
+		return driverOptionNames.contains(getOptionName(arg)) || !NumberUtils.isNumber(arg);
+	}
+
+	private static String getOptionName(String arg) {
+		String name = arg.replaceFirst("^-+", "");
+		int index = name.indexOf('=');
+		if (index != -1)
+			name = name.substring(0, index);
+		return name;
+	}
+
+	public static void main(String[] args) throws IOException {
+		ExtendOptionParser parser = new ExtendOptionParser(ShardedMapper.class.getSimpleName(), "Splits the query into shards, maps the shards in separate worker processes and merges the results in the query order. Options other than those listed here are passed to the mapper of the workers.");
+		ShardedMapper.assignOptions(parser, 1);
+		OptMapDataReader.assignOptions(parser, 1);
+		OptMapResultWriter.assignOptions(parser, 1);
+		if (args.length == 0) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		// Separate driver options from worker options
+		Set<String> driverOptionNames = getOptionNames(parser);
+		Set<String> overriddenOptionNames = new HashSet<>();
+		for (String option : overriddenOptions)
+			overriddenOptionNames.add(option);
+		List<String> driverArgs = new ArrayList<>();
+		List<String> workerArgs = new ArrayList<>();
+		List<String> targetArgs = workerArgs;
+		for (String arg : args) {
+			if (isOption(arg, driverOptionNames)) {
+				String name = getOptionName(arg);
+				if (driverOptionNames.contains(name))
+					targetArgs = driverArgs;
+				else if (overriddenOptionNames.contains(name)) {
+					System.err.println("Warning! Option " + name + " is set by the driver and is ignored.");
+					targetArgs = new ArrayList<>();
+				}
+				else
+					targetArgs = workerArgs;
+			}
+			targetArgs.add(arg);
+		}
+		OptionSet options = parser.parse(driverArgs.toArray(new String[driverArgs.size()]));
+		String mapper = (String) options.valueOf("mapper");
+		int shards = (int) options.valueOf("shards");
+		int shardmode = (int) options.valueOf("shardmode");
+		String optmapin = (String) options.valueOf("optmapin");
+		String optresout = (String) options.valueOf("optresout");
+		String prefix = options.has("shardprefix") ? (String) options.valueOf("shardprefix") : optresout + ".shard";
+		String workerjvmopts = ((String) options.valueOf("workerjvmopts")).trim();
+		boolean keepshards = (boolean) options.valueOf("keepshards");
+		DataFormat dformat = DataFormat.lookup(optmapin, (int) options.valueOf("optmapinformat"));
+
+		long totalRecords = 0;
+		if (shardmode == ShardAssigner.RANGEMODE) {
+			OptMapDataReader omdr = new OptMapDataReader(options);
+			while (omdr.read() != null)
+				totalRecords++;
+			omdr.close();
+		}
+
+		// Split the query
+		VerbosePrinter.println("Splitting query into " + shards + " shards...");
+		List<String> shardInputList = new ArrayList<>();
+		List<String> shardOutputList = new ArrayList<>();
+		List<String> shardLogList = new ArrayList<>();
+		List<OptMapDataWriter> shardWriterList = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			String shardPrefix = prefix + (shard + 1);
+			shardInputList.add(shardPrefix + "." + dformat.getExtension());
+			shardOutputList.add(shardPrefix + ".oma");
+			shardLogList.add(shardPrefix + ".log");
+			shardWriterList.add(new OptMapDataWriter(shardInputList.get(shard), dformat));
+		}
+		ShardAssigner assigner = new ShardAssigner(shards, shardmode, totalRecords);
+		OptMapDataReader omdr = new OptMapDataReader(options);
+		DataNode data;
+		while ((data = omdr.read()) != null)
+			shardWriterList.get(assigner.getShard(data)).write(data);
+		omdr.close();
+		for (OptMapDataWriter omdw : shardWriterList)
+			omdw.close();
+
+		// Run the workers
+		VerbosePrinter.println("Running " + shards + " workers...");
+		List<Process> processList = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			List<String> command = new ArrayList<>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			if (!workerjvmopts.isEmpty())
+				for (String s : workerjvmopts.split("\\s+"))
+					command.add(s);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(OMTools.class.getName());
+			command.add(mapper);
+			command.addAll(workerArgs);
+			command.add("--optmapin");
+			command.add(shardInputList.get(shard));
+			command.add("--bnxsnr");
+			command.add(Double.toString((double) options.valueOf("bnxsnr")));
+			command.add("--optresout");
+			command.add(shardOutputList.get(shard));
+			command.add("--writeunmap");
+			command.add("true");
+			command.add("--multiple");
+			command.add("true");
+			command.add("--writeinfo");
+			command.add("true");
+			command.add("--pipeline");
+			command.add("true");
+			command.add("--keeporder");
+			command.add("true");
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(new File(shardLogList.get(shard)));
+			processList.add(pb.start());
+		}
+		boolean failed = false;
+		for (int shard = 0; shard < shards; shard++) {
+			int exitValue;
+			try {
+				exitValue = processList.get(shard).waitFor();
+			} catch (InterruptedException e) {
+				for (Process process : processList)
+					process.destroy();
+				throw new IOException("Interrupted while waiting for the workers.", e);
+			}
+			if (exitValue != 0) {
+				System.err.println("Warning! Worker " + (shard + 1) + " exits with value " + exitValue + ". Please check " + shardLogList.get(shard));
+				failed = true;
+			}
+		}
+		if (failed)
+			throw new IOException("Shard mapping failed. Shard files are kept.");
+
+		// Merge the shard results
+		VerbosePrinter.println("Merging shard results...");
+		List<OptMapResultReader> shardReaderList = new ArrayList<>();
+		for (String shardOutput : shardOutputList)
+			shardReaderList.add(new OptMapResultReader(shardOutput));
+		omdr = new OptMapDataReader(options);
+		OptMapResultWriter omrw = new OptMapResultWriter(options);
+		ResultMerger.mergeShards(omdr, new ShardAssigner(shards, shardmode, totalRecords), shardReaderList, omrw);
+		omrw.close();
+		omdr.close();
+		for (OptMapResultReader omrr : shardReaderList)
+			omrr.close();
+
+		if (!keepshards)
+			for (int shard = 0; shard < shards; shard++) {
+				Files.deleteIfExists(Paths.get(shardInputList.get(shard)));
+				Files.deleteIfExists(Paths.get(shardOutputList.get(shard)));
+				Files.deleteIfExists(Paths.get(shardLogList.get(shard)));
+			}
+		VerbosePrinter.println("Program ends.");
+	}
+}
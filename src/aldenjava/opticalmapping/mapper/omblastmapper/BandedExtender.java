@@ -0,0 +1,223 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.Arrays;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * Banded dynamic-programming extension from a matched signal pair. As in the greedy extension, a reference signal and a query signal are matched if their scaled distances from the initial pair differ by at most <code>measure</code>. Instead of deciding M, I or D one step at a time, the highest scoring chain of matched signal pairs is found, where at most <code>falselimit</code> extra and missing signals are allowed between two consecutive matched pairs.
+ * <p>
+ * For each reference signal, only the contiguous band of query signals within <code>measure</code> is stored. The score and backtrack arrays are reused across extensions. The result only depends on the bands, so the path is valid for all scales giving the same bands.
+ * 
+ * @author Alden
+ *
+ */
+class BandedExtender {
+	private static final int UNREACHABLE = Integer.MIN_VALUE;
+
+	// cumulative lengths from the initial pair
+	private long[] dataCum = new long[64];
+	private long[] refCum = new long[64];
+	// band of each reference step i: cells rowStart[i] to rowStart[i + 1] - 1 matching query steps rowJStart[i] onwards
+	private int[] rowStart = new int[64];
+	private int[] rowJStart = new int[64];
+	// cells
+	private int[] cellScore = new int[256];
+	private int[] cellPrev = new int[256];
+	private int[] cellRow = new int[256];
+	private int[] chain = new int[64];
+
+	private int measure;
+	private int matchscore;
+	private int falseppenalty;
+	private int falsenpenalty;
+	private int falselimit;
+	private boolean allowLocalAlignment;
+
+	void setParameters(int measure, int matchscore, int falseppenalty, int falsenpenalty, int falselimit, boolean allowLocalAlignment) {
+		this.measure = measure;
+		this.matchscore = matchscore;
+		this.falseppenalty = falseppenalty;
+		this.falsenpenalty = falsenpenalty;
+		this.falselimit = falselimit;
+		this.allowLocalAlignment = allowLocalAlignment;
+	}
+
+	private void ensureCellCapacity(int size) {
+		if (size > cellScore.length) {
+			int newSize = Math.max(size, cellScore.length * 2);
+			cellScore = Arrays.copyOf(cellScore, newSize);
+			cellPrev = Arrays.copyOf(cellPrev, newSize);
+			cellRow = Arrays.copyOf(cellRow, newSize);
+		}
+	}
+
+	private void ensureRowCapacity(int size) {
+		if (size > rowStart.length) {
+			int newSize = Math.max(size, rowStart.length * 2);
+			rowStart = Arrays.copyOf(rowStart, newSize);
+			rowJStart = Arrays.copyOf(rowJStart, newSize);
+			refCum = Arrays.copyOf(refCum, newSize);
+		}
+	}
+
+	/**
+	 * Extends from the initial signal pair and records the result in <code>path</code>. The conventions of positions, score and operations are the same as the greedy extension in <code>SeedExtension</code>
+	 * 
+	 * @param refcum
+	 *            cumulative segment lengths of the reference
+	 * @param datacum
+	 *            cumulative segment lengths of the query
+	 * @see DataNode#getCumulativeRefl()
+	 */
+	void extend(long[] refcum, long[] datacum, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionPath path) {
+		path.clear();
+
+		// Number of steps available on query and reference
+		int maxJ = direction == 1 ? datacum.length - 3 - initialdatapos : initialdatapos - 1;
+		int maxI = direction == 1 ? refcum.length - 3 - initialrefpos : initialrefpos - 1;
+		if (maxJ < 0)
+			maxJ = 0;
+		if (maxI < 0)
+			maxI = 0;
+		if (maxJ + 1 > dataCum.length)
+			dataCum = new long[Math.max(maxJ + 1, dataCum.length * 2)];
+		dataCum[0] = 0;
+		for (int j = 1; j <= maxJ; j++)
+			dataCum[j] = dataCum[j - 1] + datacum[initialdatapos + direction * j + 1] - datacum[initialdatapos + direction * j];
+
+		// Initial pair
+		ensureRowCapacity(2);
+		ensureCellCapacity(1);
+		refCum[0] = 0;
+		rowStart[0] = 0;
+		rowJStart[0] = 0;
+		rowStart[1] = 1;
+		cellScore[0] = matchscore * 2;
+		cellPrev[0] = -1;
+		cellRow[0] = 0;
+		int cellCount = 1;
+		int bestCell = 0;
+		double bestScore = allowLocalAlignment ? cellScore[0] : cellScore[0] - (double) falseppenalty * maxJ;
+
+		int lo = 1;
+		int hi = 0;
+		int lastReachableRow = 0;
+		for (int i = 1; i <= maxI && i - lastReachableRow <= falselimit + 1; i++) {
+			ensureRowCapacity(i + 2);
+			refCum[i] = refCum[i - 1] + refcum[initialrefpos + direction * i + 1] - refcum[initialrefpos + direction * i];
+			double scaledRef = refCum[i] * scale;
+			// The band moves forward monotonically as both cumulative lengths increase
+			while (lo <= maxJ && dataCum[lo] < scaledRef - measure)
+				lo++;
+			if (hi < lo - 1)
+				hi = lo - 1;
+			while (hi + 1 <= maxJ && dataCum[hi + 1] <= scaledRef + measure)
+				hi++;
+			// Scale range keeping the same band: query signals lo - 1 and hi + 1 stay outside, lo and hi stay inside
+			double margin = ExtensionPath.SCALEMARGIN;
+			if (lo >= 2)
+				path.restrictScale((dataCum[lo - 1] + measure + margin) / refCum[i], Double.POSITIVE_INFINITY);
+			if (hi + 1 <= maxJ)
+				path.restrictScale(Double.NEGATIVE_INFINITY, (dataCum[hi + 1] - measure - margin) / refCum[i]);
+			if (lo <= hi)
+				path.restrictScale((dataCum[hi] - measure + margin) / refCum[i], (dataCum[lo] + measure - margin) / refCum[i]);
+			rowStart[i] = cellCount;
+			rowJStart[i] = lo;
+			ensureCellCapacity(cellCount + Math.max(0, hi - lo + 1));
+			for (int j = lo; j <= hi; j++) {
+				int score = UNREACHABLE;
+				int prev = -1;
+				// Predecessors with at most falselimit skipped signals in total, closest first
+				for (int pi = i - 1; pi >= 0 && i - pi - 1 <= falselimit; pi--) {
+					int fn = i - pi - 1;
+					int pjStart = rowJStart[pi];
+					int pjStop = pjStart + rowStart[pi + 1] - rowStart[pi] - 1;
+					for (int pj = Math.min(j - 1, pjStop); pj >= pjStart && fn + j - pj - 1 <= falselimit; pj--) {
+						int prevScore = cellScore[rowStart[pi] + pj - pjStart];
+						if (prevScore == UNREACHABLE)
+							continue;
+						int s = prevScore + matchscore - falsenpenalty * fn - falseppenalty * (j - pj - 1);
+						if (s > score) {
+							score = s;
+							prev = rowStart[pi] + pj - pjStart;
+						}
+					}
+				}
+				cellScore[cellCount] = score;
+				cellPrev[cellCount] = prev;
+				cellRow[cellCount] = i;
+				if (score != UNREACHABLE) {
+					lastReachableRow = i;
+					double finalScore = allowLocalAlignment ? score : score - (double) falseppenalty * (maxJ - j);
+					if (finalScore > bestScore) {
+						bestScore = finalScore;
+						bestCell = cellCount;
+					}
+				}
+				cellCount++;
+			}
+			rowStart[i + 1] = cellCount;
+		}
+
+		// Backtrack
+		int chainSize = 0;
+		for (int cell = bestCell; cell != -1; cell = cellPrev[cell]) {
+			if (chainSize == chain.length)
+				chain = Arrays.copyOf(chain, chainSize * 2);
+			chain[chainSize++] = cell;
+		}
+		int lastI = 0;
+		int lastJ = 0;
+		path.append('M');
+		for (int c = chainSize - 2; c >= 0; c--) {
+			int cell = chain[c];
+			int i = cellRow[cell];
+			int j = rowJStart[i] + cell - rowStart[i];
+			for (int k = lastI + 1; k < i; k++)
+				path.append('D');
+			for (int k = lastJ + 1; k < j; k++)
+				path.append('I');
+			path.append('M');
+			lastI = i;
+			lastJ = j;
+		}
+		if (!allowLocalAlignment)
+			for (int k = lastJ + 1; k <= maxJ; k++)
+				path.append('I');
+		path.commit();
+		path.stopRefPos = initialrefpos + direction * lastI;
+		path.stopFragPos = initialdatapos + direction * lastJ;
+		path.score = bestScore;
+	}
+}
@@ -0,0 +1,183 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.mapper.ExtensionResult;
+import aldenjava.opticalmapping.mapper.seeding.Seed;
+
+/**
+ * Matched signal pairs of completed extensions of a query. Each pair is stored as its reference, diagonal (reference signal minus query signal) and reference signal in an open-addressing hash table of primitive keys, which is reused across queries. A seed is
+ * covered if all of its signal pairs are matched by a previous extension, in which case extending it again mostly leads to the same alignment. This is the counterpart of the <code>omitlist</code> in <code>OMHACore</code>
+ * 
+ * @author Alden
+ *
+ */
+public class ExtensionCoverage {
+	private final HashMap<String, Integer> refIndex;
+	private long[] diagonalKeys = new long[16];
+	private int[] refposKeys = new int[16];
+	private boolean[] used = new boolean[16];
+	private int[] occupied = new int[16];
+	private int occupiedNo = 0;
+
+	/**
+	 * Constructs an empty <code>ExtensionCoverage</code> with the reference information
+	 * 
+	 * @param optrefmap
+	 *            the reference information
+	 */
+	public ExtensionCoverage(LinkedHashMap<String, DataNode> optrefmap) {
+		refIndex = new HashMap<String, Integer>();
+		for (String name : optrefmap.keySet())
+			refIndex.put(name, refIndex.size());
+	}
+
+	/**
+	 * Removes all matched signal pairs. It should be called before processing a new query. Only the occupied slots are cleared
+	 */
+	public void clear() {
+		for (int i = 0; i < occupiedNo; i++)
+			used[occupied[i]] = false;
+		occupiedNo = 0;
+	}
+
+	/**
+	 * The reference is stored in the upper 32 bits and the diagonal in the lower 32 bits
+	 */
+	private long diagonalKey(String refName, int diagonal) {
+		return ((long) refIndex.get(refName) << 32) | (diagonal & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the slot of the signal pair, or the empty slot where it should be inserted
+	 */
+	private int slot(long diagonalKey, int refpos) {
+		int mask = used.length - 1;
+		int s = (int) (((diagonalKey * 31 + refpos) * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		while (used[s] && (diagonalKeys[s] != diagonalKey || refposKeys[s] != refpos))
+			s = (s + 1) & mask;
+		return s;
+	}
+
+	/**
+	 * Doubles the hash table and inserts the occupied slots again
+	 */
+	private void expand() {
+		long[] oldDiagonalKeys = diagonalKeys;
+		int[] oldRefposKeys = refposKeys;
+		int[] oldOccupied = occupied;
+		int capacity = used.length * 2;
+		diagonalKeys = new long[capacity];
+		refposKeys = new int[capacity];
+		used = new boolean[capacity];
+		occupied = new int[capacity];
+		int n = occupiedNo;
+		occupiedNo = 0;
+		for (int i = 0; i < n; i++)
+			insert(oldDiagonalKeys[oldOccupied[i]], oldRefposKeys[oldOccupied[i]]);
+	}
+
+	private void insert(long diagonalKey, int refpos) {
+		if ((occupiedNo + 1) * 2 > used.length)
+			expand();
+		int s = slot(diagonalKey, refpos);
+		if (!used[s]) {
+			used[s] = true;
+			diagonalKeys[s] = diagonalKey;
+			refposKeys[s] = refpos;
+			occupied[occupiedNo++] = s;
+		}
+	}
+
+	private boolean contains(long diagonalKey, int refpos) {
+		return used[slot(diagonalKey, refpos)];
+	}
+
+	/**
+	 * Adds the matched signal pairs of <code>extensionresult</code>
+	 * 
+	 * @param extensionresult
+	 *            a completed extension
+	 */
+	public void add(ExtensionResult extensionresult) {
+		int refpos = extensionresult.startfinalrefpos - 1;
+		int fragpos = extensionresult.startfinalfragmentpos - 1;
+		String precigar = extensionresult.precigar;
+		long refKey = diagonalKey(extensionresult.refName, 0);
+		for (int i = 0; i < precigar.length(); i++) {
+			switch (precigar.charAt(i)) {
+				case 'M':
+					if (refpos >= 0)
+						insert(refKey | ((refpos - fragpos) & 0xFFFFFFFFL), refpos);
+					refpos++;
+					fragpos++;
+					break;
+				case 'I':
+					fragpos++;
+					break;
+				case 'D':
+					refpos++;
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether all signal pairs of <code>seed</code> are matched by previous extensions
+	 * 
+	 * @param seed
+	 *            the seed
+	 * @return <code>true</code> if the seed is covered
+	 */
+	public boolean covers(Seed seed) {
+		if (seed.pos < 1)
+			return false;
+		// Each signal pair is checked, as pairs of an error seed are on different diagonals
+		long refKey = diagonalKey(seed.source, 0);
+		int refpos = seed.pos - 1;
+		int fragpos = seed.kmerpointer.pos - 1;
+		for (int i = 0; i <= seed.k(); i++) {
+			if (!contains(refKey | ((refpos - fragpos) & 0xFFFFFFFFL), refpos))
+				return false;
+			if (i < seed.k()) {
+				refpos += 1 + seed.getSkippedSignals(i);
+				fragpos += 1 + seed.kmerpointer.getSkippedSignals(i);
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,114 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+/**
+ * A reusable buffer recording the operations (M, I, D) of a one-directional extension, together with the stop positions and score of the extension. Operations after the last committed position are discarded, as in local alignment.
+ * <p>
+ * The valid scale range is the range of scales at which extension from the same starting position makes exactly the same M/I/D decisions, and thus yields the same path.
+ * 
+ * @author Alden
+ *
+ */
+class ExtensionPath {
+	/**
+	 * Margin (bp) of M/I/D decisions for a scale to be considered within the valid scale range of a path. This is far larger than the rounding error of cumulative lengths
+	 */
+	static final double SCALEMARGIN = 0.001;
+	private byte[] ops = new byte[64];
+	private int size = 0;
+	private int committed = 0;
+	int stopRefPos;
+	int stopFragPos;
+	double score;
+	double scaleLBound;
+	double scaleUBound;
+
+	void clear() {
+		size = 0;
+		committed = 0;
+		scaleLBound = Double.NEGATIVE_INFINITY;
+		scaleUBound = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Restricts the valid scale range
+	 * 
+	 * @param lbound
+	 * @param ubound
+	 */
+	void restrictScale(double lbound, double ubound) {
+		if (lbound > scaleLBound)
+			scaleLBound = lbound;
+		if (ubound < scaleUBound)
+			scaleUBound = ubound;
+	}
+
+	boolean covers(double scale) {
+		return scale >= scaleLBound && scale <= scaleUBound;
+	}
+
+	void append(char op) {
+		if (size == ops.length) {
+			byte[] newOps = new byte[ops.length * 2];
+			System.arraycopy(ops, 0, newOps, 0, size);
+			ops = newOps;
+		}
+		ops[size++] = (byte) op;
+	}
+
+	/**
+	 * Keeps all operations appended so far
+	 */
+	void commit() {
+		committed = size;
+	}
+
+	int length() {
+		return committed;
+	}
+
+	/**
+	 * Appends the committed operations to <code>sb</code>
+	 * 
+	 * @param sb
+	 * @param reverse
+	 *            <code>true</code> to append in reverse order, i.e. for leftward extension
+	 */
+	void appendTo(StringBuilder sb, boolean reverse) {
+		if (reverse)
+			for (int i = committed - 1; i >= 0; i--)
+				sb.append((char) ops[i]);
+		else
+			for (int i = 0; i < committed; i++)
+				sb.append((char) ops[i]);
+	}
+}
@@ -0,0 +1,75 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.Arrays;
+
+/**
+ * A pool of <code>ExtensionPath</code> from the same starting position and direction at different scales. A path is reused for any scale within its valid scale range.
+ * 
+ * @author Alden
+ *
+ */
+class ExtensionPathPool {
+	private ExtensionPath[] paths = new ExtensionPath[16];
+	private int count = 0;
+
+	/**
+	 * Releases all paths for extension from a new starting position
+	 */
+	void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Returns a path valid for <code>scale</code>
+	 * 
+	 * @param scale
+	 * @return the path, or <code>null</code> if no path is valid for <code>scale</code>
+	 */
+	ExtensionPath find(double scale) {
+		for (int i = 0; i < count; i++)
+			if (paths[i].covers(scale))
+				return paths[i];
+		return null;
+	}
+
+	/**
+	 * Returns an unused path to be filled by extension. The path is kept in the pool until {@link #clear()}
+	 */
+	ExtensionPath next() {
+		if (count == paths.length)
+			paths = Arrays.copyOf(paths, count * 2);
+		if (paths[count] == null)
+			paths[count] = new ExtensionPath();
+		return paths[count++];
+	}
+}
@@ -30,16 +30,21 @@
 package aldenjava.opticalmapping.mapper.omblastmapper;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import aldenjava.opticalmapping.GenomicPosNode;
 import aldenjava.opticalmapping.data.data.DataNode;
 import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
 import aldenjava.opticalmapping.mapper.ExtensionResult;
+import aldenjava.opticalmapping.mapper.multithread.ForkJoinInvoker;
 import aldenjava.opticalmapping.mapper.seeding.Kmer;
 import aldenjava.opticalmapping.mapper.seeding.Seed;
 import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
+import aldenjava.opticalmapping.mapper.seeding.SeedRegionFilter;
 
 /**
  * The core module for <code>OMBlastMapper</code>
@@ -59,6 +64,36 @@ public class OMBlastCore {
 	private int maxSeedNumber;
 	private boolean allowEqualRefQuery;
 	private boolean allowDiffRefQuery;
+	private int buildThread = 1;
+	private int quantileBin = 0;
+	private int maxRefKmerFreq = 0;
+	private int minimizerWindow = 1;
+	private int kmerError = 0;
+	private boolean seedChain = false;
+	private int chainMaxGap = 100000;
+	private SeedChainer seedchainer = null;
+	private int minSeedVote = 1;
+	private int seedVoteBin = 10000;
+	private SeedVoteFilter seedvotefilter = null;
+	private boolean skipCovered = false;
+	private int extensionMode = 1;
+	private ExtensionCoverage extensioncoverage = null;
+	/**
+	 * Reusable seed buffer. Each thread works on its own copy of <code>OMBlastCore</code>
+	 */
+	private final List<Seed> seedBuffer = new ArrayList<Seed>();
+	/**
+	 * Minimum number of seeds in a partition when extension of a query is split across threads
+	 */
+	private static final int MINPARTITIONSEEDS = 16;
+	/**
+	 * Minimum number of seeds in a chain for skipping the unchained seeds of a query in seed chaining
+	 */
+	private static final int MINCHAINANCHORS = 3;
+	// Helpers for splitting the work of a query. Created on demand and used only by the thread owning this core
+	private List<GenomicPosNode> regionList = null;
+	private OMBlastCore reverseCore = null;
+	private final List<SeedExtension> partitionExtensionList = new ArrayList<SeedExtension>();
 
 	public OMBlastCore(LinkedHashMap<String, DataNode> optrefmap, SeedExtension seedextensionmodule, SeedDatabase seeddatabase, int measure, double ear, int kmerlen,
 			int maxnosignalregion, int maxSeedNumber, boolean allowEqualRefQuery, boolean allowDiffRefQuery) {
@@ -78,69 +113,283 @@ public class OMBlastCore {
 		this.optrefmap = optrefmap;
 	}
 
+	/**
+	 * Sets the number of threads used in building the seed database in {@link #setParameters}
+	 * 
+	 * @param thread
+	 */
+	public void setBuildThread(int thread) {
+		this.buildThread = thread;
+	}
+
+	/**
+	 * Sets the number of quantile bins of the binning table used in building the seed database in {@link #setParameters}
+	 * 
+	 * @param quantileBin
+	 */
+	public void setQuantileBin(int quantileBin) {
+		this.quantileBin = quantileBin;
+	}
+
+	/**
+	 * Sets the maximum number of similar reference kmers of a seed. Repetitive reference kmers are masked. No masking is done if it is 0
+	 * 
+	 * @param maxRefKmerFreq
+	 */
+	public void setRepeatMask(int maxRefKmerFreq) {
+		this.maxRefKmerFreq = maxRefKmerFreq;
+	}
+
+	/**
+	 * Sets the window size of minimizer sparse seeding used in building the seed database in {@link #setParameters}. A pre-built seed index uses its own window
+	 * 
+	 * @param minimizerWindow
+	 */
+	public void setMinimizerWindow(int minimizerWindow) {
+		this.minimizerWindow = minimizerWindow;
+	}
+
+	/**
+	 * Sets the maximum number of skipped signals of the error kmers indexed in building the seed database in {@link #setParameters}. A pre-built seed index uses its own error kmers
+	 * 
+	 * @param kmerError
+	 */
+	public void setKmerError(int kmerError) {
+		this.kmerError = kmerError;
+	}
+
+	/**
+	 * Enables chaining of collinear seeds before extension in {@link #setParameters}. The best anchor of each chain is extended, and other seeds of the chain covered by the extension are skipped. Unchained seeds are skipped if a chain of at least three seeds is found
+	 * 
+	 * @param seedChain
+	 * @param chainMaxGap
+	 *            maximum distance on reference between two consecutive anchors in a chain
+	 */
+	public void setSeedChain(boolean seedChain, int chainMaxGap) {
+		this.seedChain = seedChain;
+		this.chainMaxGap = chainMaxGap;
+	}
+
+	/**
+	 * Enables the diagonal-voting prefilter of seeds in {@link #setParameters}. Seeds are kept only if at least <code>minSeedVote</code> seeds agree on the reference and approximate offset. No filtering is done if it is 1 or less
+	 * 
+	 * @param minSeedVote
+	 * @param seedVoteBin
+	 *            size of an offset bin
+	 */
+	public void setSeedVote(int minSeedVote, int seedVoteBin) {
+		this.minSeedVote = minSeedVote;
+		this.seedVoteBin = seedVoteBin;
+	}
+
+	/**
+	 * Skips seeds whose signal pairs are all matched by a previous extension of the same query
+	 * 
+	 * @param skipCovered
+	 */
+	public void setSkipCovered(boolean skipCovered) {
+		this.skipCovered = skipCovered;
+	}
+
+	/**
+	 * Sets the extension mode of <code>SeedExtension</code>. Must be called before {@link #setParameters}
+	 * 
+	 * @param extensionMode
+	 * @see SeedExtension#setMode(int)
+	 */
+	public void setExtensionMode(int extensionMode) {
+		this.extensionMode = extensionMode;
+	}
+
 	public void setParameters(int seedingmode, int kmerlen, int maxnosignalregion, boolean allowLocalAlignment, int measure, double ear, int matchscore, int falseppenalty, int falsenpenalty,
 			int falselimit, int maxSeedNumber, boolean allowEqualRefQuery, boolean allowDiffRefQuery) {
+		setParameters(null, seedingmode, kmerlen, maxnosignalregion, allowLocalAlignment, measure, ear, matchscore, falseppenalty, falsenpenalty, falselimit, maxSeedNumber, allowEqualRefQuery, allowDiffRefQuery);
+	}
+
+	/**
+	 * Sets parameters using a pre-built <code>seedIndex</code> (e.g. from a seed index file). The seed database is built from the reference if <code>seedIndex</code> is <code>null</code>
+	 */
+	public void setParameters(SeedDatabase seedIndex, int seedingmode, int kmerlen, int maxnosignalregion, boolean allowLocalAlignment, int measure, double ear, int matchscore, int falseppenalty, int falsenpenalty,
+			int falselimit, int maxSeedNumber, boolean allowEqualRefQuery, boolean allowDiffRefQuery) {
 		this.kmerlen = kmerlen;
 		this.maxnosignalregion = maxnosignalregion;
 		this.measure = measure;
 		this.ear = ear;
 		this.maxSeedNumber = maxSeedNumber;
-		seeddatabase = new SeedDatabase(DataNode.getKmerWord(optrefmap, kmerlen, maxnosignalregion), kmerlen);
-		seeddatabase.setMode(seedingmode);
-		seeddatabase.setParameters(kmerlen, maxnosignalregion);
-		seeddatabase.buildDatabase();
+		if (seedIndex != null) {
+			seeddatabase = seedIndex;
+			seeddatabase.setRepeatMask(maxRefKmerFreq);
+			if (maxRefKmerFreq > 0 && !seeddatabase.hasMultiplicity()) {
+				System.err.println("Warning! Reference kmer multiplicity is not found in the seed index. It is computed now.");
+				seeddatabase.setErrorTolerance(ear, measure);
+				seeddatabase.setBuildThread(buildThread);
+				seeddatabase.buildMultiplicity();
+			}
+		}
+		else {
+			seeddatabase = new SeedDatabase(DataNode.getKmerStore(optrefmap, kmerlen, maxnosignalregion, kmerError));
+			seeddatabase.setMode(seedingmode);
+			seeddatabase.setParameters(kmerlen, maxnosignalregion);
+			seeddatabase.setBuildThread(buildThread);
+			seeddatabase.setErrorTolerance(ear, measure);
+			seeddatabase.setBinning(quantileBin);
+			seeddatabase.setRepeatMask(maxRefKmerFreq);
+			seeddatabase.setMinimizerWindow(minimizerWindow);
+			seeddatabase.buildDatabase();
+		}
 		this.seedextensionmodule = new SeedExtension(optrefmap);
 		this.seedextensionmodule.setParameters(measure, ear, matchscore, falseppenalty, falsenpenalty, falselimit, allowLocalAlignment);
+		this.seedextensionmodule.setMode(extensionMode);
+		if (seedChain) {
+			this.seedchainer = new SeedChainer(optrefmap);
+			this.seedchainer.setParameters(measure, ear, chainMaxGap);
+		}
+		else
+			this.seedchainer = null;
+		this.extensioncoverage = new ExtensionCoverage(optrefmap);
+		if (minSeedVote > 1) {
+			this.seedvotefilter = new SeedVoteFilter(optrefmap);
+			this.seedvotefilter.setParameters(minSeedVote, seedVoteBin);
+		}
+		else
+			this.seedvotefilter = null;
 		this.allowEqualRefQuery = allowEqualRefQuery;
 		this.allowDiffRefQuery = allowDiffRefQuery;
 	}
 
 	/**
-	 * Restricts the regions for alignment. This method rebuilds the
-	 * <code>seedDatabase</code>. The database is not rebuilt if regionList
-	 * remains <code>null</code> for previous <code>data</code> and this
-	 * <code>data</code>.
+	 * Restricts the regions for alignment. The <code>seedDatabase</code> is
+	 * not rebuilt; seeds are filtered by their reference positions instead.
+	 * The restriction is removed if <code>regionList</code> is
+	 * <code>null</code>.
 	 * 
 	 * @param regionList
 	 */
 	public void restrictRegion(List<GenomicPosNode> regionList) {
-		seeddatabase.assignSeeds(DataNode.getKmerWord(optrefmap, kmerlen, maxnosignalregion, regionList), kmerlen);
-		seeddatabase.buildDatabase();
+		this.regionList = regionList;
+		if (regionList == null)
+			seeddatabase.setRegionFilter(null);
+		else
+			seeddatabase.setRegionFilter(new SeedRegionFilter(optrefmap, regionList, kmerlen));
 	}
 
 	/**
 	 * Perform seed and extend on the data in forward direction only.
 	 * 
 	 * @param data <code>data</code> for seed-and-extend
+	 * @param pool pool for splitting extension of independent seeds; <code>null</code> if extension is not split
 	 * @return Extension results
 	 */
-	private List<ExtensionResult> seedAndExtend(DataNode data) {
+	private List<ExtensionResult> seedAndExtend(DataNode data, ForkJoinPool pool) {
 		List<ExtensionResult> extensionresultlist = new ArrayList<ExtensionResult>();
 		List<Kmer> dataKmerList = data.getKmerWord(kmerlen, maxnosignalregion);
+		// Minimizers are selected from all kmers, in the same way as the reference
+		List<Kmer> minimizerList = seeddatabase.selectMinimizers(dataKmerList);
 		
 		// Remove high-density regions
-		SeedDatabase tDatabase = new SeedDatabase(dataKmerList, kmerlen);
-		tDatabase.setMode(1);
-		tDatabase.setParameters(kmerlen, maxnosignalregion);
-		dataKmerList = tDatabase.filter(dataKmerList, ear, measure, maxSeedNumber, 100);
+		dataKmerList = SeedDatabase.filterLowComplexity(dataKmerList, ear, measure, maxSeedNumber, 100);
+		if (seeddatabase.getMinimizerWindow() > 1)
+			dataKmerList.retainAll(new HashSet<Kmer>(minimizerList));
 
 //		List<Seed> pooledseedlist = new ArrayList<Seed>();
 //		for (Kmer fragmentkmer : dataKmerList) {
 //			List<Seed> seedlist = seeddatabase.getJoinedSeed(fragmentkmer, ear, measure);
 //			pooledseedlist.addAll(seedlist);
 //		}
-		List<Seed> pooledseedlist = seeddatabase.getJoinedSeed(dataKmerList, ear, measure);
-		// Extension
+		List<Seed> pooledseedlist = seeddatabase.getJoinedSeed(dataKmerList, ear, measure, seedBuffer);
+		List<Seed> candidateseedlist = new ArrayList<Seed>();
 		for (Seed seed : pooledseedlist) {
 			if (!allowEqualRefQuery && seed.source.equals(seed.kmerpointer.source))
 				continue;
 			if (!allowDiffRefQuery && !seed.source.equals(seed.kmerpointer.source)) // The implementation here isn't good. Should build a database for its own
 				continue;
-			ExtensionResult tmpresult = seedextensionmodule.extension(data, seed);
+			candidateseedlist.add(seed);
+		}
+		// Discard isolated seeds
+		if (seedvotefilter != null)
+			candidateseedlist = seedvotefilter.filter(data, candidateseedlist);
+		
+		// Extension
+		extensioncoverage.clear();
+		if (seedchainer == null && !skipCovered && pool != null && candidateseedlist.size() >= MINPARTITIONSEEDS * 2)
+			extensionresultlist.addAll(extendInPartitions(data, candidateseedlist, pool));
+		else if (seedchainer == null && !skipCovered)
+			extensionresultlist.addAll(extendAll(seedextensionmodule, data, candidateseedlist));
+		else if (seedchainer == null) {
+			for (Seed seed : candidateseedlist) {
+				if (extensioncoverage.covers(seed))
+					continue;
+				ExtensionResult tmpresult = seedextensionmodule.extension(data, seed);
+				if (tmpresult != null) {
+					extensionresultlist.add(tmpresult);
+					extensioncoverage.add(tmpresult);
+				}
+			}
+		}
+		else {
+			// Extension from the best anchor of each chain. Other seeds of the chain covered by the extension are skipped, so a chain is extended once per collinear sub-chain
+			// Unchained seeds are mostly random hits. They are extended only if no chain of at least MINCHAINANCHORS seeds is found on this strand
+			List<List<Seed>> chainlist = seedchainer.chain(data, candidateseedlist);
+			boolean chained = false;
+			for (List<Seed> chain : chainlist)
+				if (chain.size() >= MINCHAINANCHORS)
+					chained = true;
+			for (List<Seed> chain : chainlist) {
+				if (chained && chain.size() == 1)
+					continue;
+				if (!skipCovered)
+					extensioncoverage.clear();
+				for (Seed seed : chain) {
+					if (extensioncoverage.covers(seed))
+						continue;
+					ExtensionResult tmpresult = seedextensionmodule.extension(data, seed);
+					if (tmpresult != null) {
+						extensionresultlist.add(tmpresult);
+						extensioncoverage.add(tmpresult);
+					}
+				}
+			}
+		}
+
+		return extensionresultlist;
+	}
+
+	/**
+	 * Extends independent seeds one by one
+	 * 
+	 * @return the non-<code>null</code> extension results in the order of <code>seedList</code>
+	 */
+	private List<ExtensionResult> extendAll(SeedExtension seedextension, DataNode data, List<Seed> seedList) {
+		List<ExtensionResult> extensionresultlist = new ArrayList<ExtensionResult>();
+		for (Seed seed : seedList) {
+			ExtensionResult tmpresult = seedextension.extension(data, seed);
 			if (tmpresult != null)
 				extensionresultlist.add(tmpresult);
 		}
+		return extensionresultlist;
+	}
 
+	/**
+	 * Extends independent seeds in partitions on <code>pool</code>. Each partition uses its own copy of <code>SeedExtension</code>. The results are in the order of <code>seedList</code>, identical to {@link #extendAll(SeedExtension, DataNode, List)}
+	 */
+	private List<ExtensionResult> extendInPartitions(final DataNode data, List<Seed> seedList, ForkJoinPool pool) {
+		int partitions = Math.min(pool.getParallelism(), seedList.size() / MINPARTITIONSEEDS);
+		while (partitionExtensionList.size() < partitions)
+			partitionExtensionList.add(seedextensionmodule.copy());
+		List<Callable<List<ExtensionResult>>> tasks = new ArrayList<Callable<List<ExtensionResult>>>();
+		for (int i = 0; i < partitions; i++) {
+			final SeedExtension seedextension = partitionExtensionList.get(i);
+			final List<Seed> partition = seedList.subList(seedList.size() * i / partitions, seedList.size() * (i + 1) / partitions);
+			tasks.add(new Callable<List<ExtensionResult>>() {
+				@Override
+				public List<ExtensionResult> call() {
+					return extendAll(seedextension, data, partition);
+				}
+			});
+		}
+		List<ExtensionResult> extensionresultlist = new ArrayList<ExtensionResult>();
+		for (List<ExtensionResult> partitionresultlist : ForkJoinInvoker.invokeAll(pool, tasks))
+			extensionresultlist.addAll(partitionresultlist);
 		return extensionresultlist;
 	}
 
@@ -158,24 +407,89 @@ public class OMBlastCore {
 		List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
 
 		// forward
-		List<ExtensionResult> forwardlist = seedAndExtend(data);
+		List<ExtensionResult> forwardlist = seedAndExtend(data, null);
 		for (ExtensionResult extensionresult : forwardlist)
 			fragmentmaplist.add(extensionresult.toAlignment(data, optrefmap, 1));
 
 		// reverse
 		DataNode reversedfragment = data.getReverse();
-		List<ExtensionResult> reverselist = seedAndExtend(reversedfragment);
+		List<ExtensionResult> reverselist = seedAndExtend(reversedfragment, null);
 		for (ExtensionResult extensionresult : reverselist)
 			fragmentmaplist.add(extensionresult.toAlignment(data, optrefmap, -1));
 		return fragmentmaplist;
 	}
 
+	/**
+	 * Performs alignments by seed-and-extending forward and reverse data, splitting the work on <code>pool</code>. The forward and reverse data are processed in parallel, and extension of independent seeds is split into partitions. The results are identical to {@link #getResult(DataNode)}
+	 * 
+	 * @param data
+	 *            <code>data</code> to be aligned
+	 * @param pool
+	 *            the pool for splitting the work
+	 * @return Partial alignment results
+	 */
+	public List<OptMapResultNode> getResult(final DataNode data, final ForkJoinPool pool) {
+		if (data.getTotalSegment() - 2 < kmerlen)
+			return null;
+		if (reverseCore == null)
+			reverseCore = copy();
+		reverseCore.restrictRegion(regionList);
+		List<Callable<List<ExtensionResult>>> tasks = new ArrayList<Callable<List<ExtensionResult>>>();
+		tasks.add(new Callable<List<ExtensionResult>>() {
+			@Override
+			public List<ExtensionResult> call() {
+				return seedAndExtend(data, pool);
+			}
+		});
+		tasks.add(new Callable<List<ExtensionResult>>() {
+			@Override
+			public List<ExtensionResult> call() {
+				return reverseCore.seedAndExtend(data.getReverse(), pool);
+			}
+		});
+		List<List<ExtensionResult>> strandlist = ForkJoinInvoker.invokeAll(pool, tasks);
+		List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
+		for (ExtensionResult extensionresult : strandlist.get(0))
+			fragmentmaplist.add(extensionresult.toAlignment(data, optrefmap, 1));
+		for (ExtensionResult extensionresult : strandlist.get(1))
+			fragmentmaplist.add(extensionresult.toAlignment(data, optrefmap, -1));
+		return fragmentmaplist;
+	}
+
+	/**
+	 * Returns the number of one-directional extensions performed and saved in seed extension
+	 * 
+	 * @return the number of extensions performed and saved
+	 * @see SeedExtension#getExtensionCount()
+	 */
+	public long[] getExtensionCount() {
+		long[] count = seedextensionmodule.getExtensionCount();
+		List<SeedExtension> helperList = new ArrayList<SeedExtension>(partitionExtensionList);
+		if (reverseCore != null) {
+			helperList.add(reverseCore.seedextensionmodule);
+			helperList.addAll(reverseCore.partitionExtensionList);
+		}
+		for (SeedExtension seedextension : helperList) {
+			long[] helperCount = seedextension.getExtensionCount();
+			count[0] += helperCount[0];
+			count[1] += helperCount[1];
+		}
+		return count;
+	}
+
 	/**
 	 * Creates and returns a copy of this object.
 	 * 
 	 * @return a copy of this instance
 	 */
 	public OMBlastCore copy() {
-		return new OMBlastCore(optrefmap, seedextensionmodule.copy(), seeddatabase.copy(), measure, ear, kmerlen, maxnosignalregion, maxSeedNumber, allowEqualRefQuery, allowDiffRefQuery);
+		OMBlastCore core = new OMBlastCore(optrefmap, seedextensionmodule.copy(), seeddatabase.copy(), measure, ear, kmerlen, maxnosignalregion, maxSeedNumber, allowEqualRefQuery, allowDiffRefQuery);
+		core.skipCovered = skipCovered;
+		core.extensioncoverage = new ExtensionCoverage(optrefmap);
+		if (seedchainer != null)
+			core.seedchainer = seedchainer.copy();
+		if (seedvotefilter != null)
+			core.seedvotefilter = seedvotefilter.copy();
+		return core;
 	}
 }
\ No newline at end of file
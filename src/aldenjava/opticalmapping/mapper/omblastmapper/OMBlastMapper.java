@@ -32,6 +32,7 @@ package aldenjava.opticalmapping.mapper.omblastmapper;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import joptsimple.OptionSet;
 import aldenjava.opticalmapping.GenomicPosNode;
@@ -41,7 +42,9 @@ import aldenjava.opticalmapping.mapper.AlignmentOptions;
 import aldenjava.opticalmapping.mapper.Mapper;
 import aldenjava.opticalmapping.mapper.MapperConstructionException;
 import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
+import aldenjava.opticalmapping.mapper.seeding.SeedIndexFile;
 import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
 
 /**
  * The OMBlastMapper class
@@ -66,9 +69,33 @@ public class OMBlastMapper extends Mapper {
 	@Override
 	public void setParameters(OptionSet options) throws IOException {
 		super.setParameters(options);
-		this.setParameters((int) options.valueOf("seedingmode"), (boolean) options.valueOf("local"), (int) options.valueOf("falselimit"), (int) options.valueOf("k"),
-				(int) options.valueOf("maxnosignal"), (int) options.valueOf("meas"), (double) options.valueOf("ear"), (int) options.valueOf("match"), (int) options.valueOf("fpp"),
-				(int) options.valueOf("fnp"), (int) options.valueOf("maxseedno"), (boolean) options.valueOf("allowequalrefquery"), (boolean) options.valueOf("allowdiffrefquery"));
+		if (blastcore != null)
+			throw new IllegalStateException("Parameters are already initialized.");
+		SeedDatabase seedIndex = null;
+		if (options.valueOf("seedindexin") != null) {
+			seedIndex = SeedIndexFile.read((String) options.valueOf("seedindexin"));
+			SeedIndexFile.validate(seedIndex, optrefmap, (int) options.valueOf("k"), (int) options.valueOf("maxnosignal"));
+			if ((int) options.valueOf("seedingmode") != -1 && (int) options.valueOf("seedingmode") != seedIndex.getMode())
+				System.err.println("Warning! Seeding mode " + seedIndex.getMode() + " in the seed index is used.");
+			if ((int) options.valueOf("minimizerwindow") != seedIndex.getMinimizerWindow())
+				System.err.println("Warning! Minimizer window " + seedIndex.getMinimizerWindow() + " in the seed index is used.");
+			if ((int) options.valueOf("kmererror") != seedIndex.getKmerError())
+				System.err.println("Warning! Kmer error " + seedIndex.getKmerError() + " in the seed index is used.");
+		}
+		blastcore = new OMBlastCore(optrefmap);
+		if (options.valueOf("thread") != null)
+			blastcore.setBuildThread((int) options.valueOf("thread"));
+		blastcore.setQuantileBin((int) options.valueOf("quantilebin"));
+		blastcore.setRepeatMask((int) options.valueOf("maxrefkmerfreq"));
+		blastcore.setMinimizerWindow((int) options.valueOf("minimizerwindow"));
+		blastcore.setKmerError((int) options.valueOf("kmererror"));
+		blastcore.setSeedChain((boolean) options.valueOf("seedchain"), (int) options.valueOf("chainmaxgap"));
+		blastcore.setSeedVote((int) options.valueOf("minseedvote"), (int) options.valueOf("seedvotebin"));
+		blastcore.setSkipCovered((boolean) options.valueOf("skipcovered"));
+		blastcore.setExtensionMode((int) options.valueOf("extensionmode"));
+		blastcore.setParameters(seedIndex, (int) options.valueOf("seedingmode"), (int) options.valueOf("k"), (int) options.valueOf("maxnosignal"), (boolean) options.valueOf("local"),
+				(int) options.valueOf("meas"), (double) options.valueOf("ear"), (int) options.valueOf("match"), (int) options.valueOf("fpp"), (int) options.valueOf("fnp"),
+				(int) options.valueOf("falselimit"), (int) options.valueOf("maxseedno"), (boolean) options.valueOf("allowequalrefquery"), (boolean) options.valueOf("allowdiffrefquery"));
 	}
 
 	public void setParameters(int seedingmode, boolean allowLocalAlignment, int falselimit, int kmerlen, int maxnosignalregion, int measure, double ear, int matchscore, int falseppenalty,
@@ -84,12 +111,27 @@ public class OMBlastMapper extends Mapper {
 		if (data == null)
 			throw new NullPointerException(); 
 		
-		if (regionList != null)
-			blastcore.restrictRegion(regionList);
+		blastcore.restrictRegion(regionList);
+		ForkJoinPool pool = getQueryPool(data);
+		if (pool != null)
+			return blastcore.getResult(data, pool);
 		return blastcore.getResult(data);
 		
 	}
 
+	@Override
+	public void outputStatistics(List<Mapper> mapperList) {
+		long extensionCount = 0;
+		long reusedExtensionCount = 0;
+		for (Mapper mapper : mapperList) {
+			long[] count = ((OMBlastMapper) mapper).blastcore.getExtensionCount();
+			extensionCount += count[0];
+			reusedExtensionCount += count[1];
+		}
+		long total = extensionCount + reusedExtensionCount;
+		VerbosePrinter.println(String.format("Seed extensions performed: %d; saved by reusing extensions at nearby scales: %d (%.2f%%)", extensionCount, reusedExtensionCount, total == 0 ? 0 : reusedExtensionCount * 100.0 / total));
+	}
+
 	@Override
 	public OMBlastMapper copy() {
 		OMBlastMapper mapper = new OMBlastMapper(optrefmap);
@@ -107,8 +149,15 @@ public class OMBlastMapper extends Mapper {
 		AlignmentOptions.assignErrorToleranceOptions(parser);
 		AlignmentOptions.assignScoreOptions(parser);
 		parser.accepts("falselimit", "Maximum number of consecutive extra/missing signals").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+		parser.accepts("extensionmode", "Extension mode. 1: Greedy extension; 2: Banded dynamic-programming extension, finding the highest scoring chain of matched signals with at most falselimit extra/missing signals between matches").withRequiredArg().ofType(Integer.class).defaultsTo(1);
 		parser.accepts("maxseedno", "Maximum similar seed number on query").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+		parser.accepts("seedchain", "Chain collinear seeds and extend only the best anchor of each chain. Unchained seeds are skipped if a chain of at least three seeds is found").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("chainmaxgap", "Maximum distance on reference between two consecutive seeds in a chain").withRequiredArg().ofType(Integer.class).defaultsTo(100000);
+		parser.accepts("minseedvote", "Minimum number of seeds agreeing on the reference and approximate offset for extension. 1: No filtering").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("seedvotebin", "Size of an offset bin in seed voting").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+		parser.accepts("skipcovered", "Skip seeds whose signal pairs are all matched by a previous extension of the same query").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
 		SeedDatabase.assignOptions(parser, level + 1);
+		parser.accepts("seedindexin", "Input seed index file built by SeedIndexBuilder. The seed index is memory-mapped instead of building the seed database from the reference").withRequiredArg().ofType(String.class);
 	}
 
 	public static void main(String[] args) throws IOException, MapperConstructionException {
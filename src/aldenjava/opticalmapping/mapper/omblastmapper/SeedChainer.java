@@ -0,0 +1,241 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.mapper.seeding.Seed;
+import aldenjava.opticalmapping.miscellaneous.Copyable;
+
+/**
+ * A class for chaining collinear seeds before extension. Seeds are grouped by reference and sorted by (reference position, query position). A chaining dynamic programming over the anchors links seeds whose reference and query distances agree within the error tolerance. The best anchor of each chain is extended first. Other seeds of the chain are
+ * extended only if they are not covered by the extension (see <code>ExtensionCoverage</code>). Unchained seeds are extended only if no chain of at least three seeds is found. Each call handles one strand of the query, as in <code>OMBlastCore</code>
+ * 
+ * @author Alden
+ *
+ */
+public class SeedChainer implements Copyable<SeedChainer> {
+	/**
+	 * Maximum number of predecessors examined for each anchor
+	 */
+	private static final int MAXLOOKBACK = 50;
+
+	private final LinkedHashMap<String, DataNode> optrefmap;
+	private int measure = 500;
+	private double ear = 0.05;
+	private int maxGap = 100000;
+
+	/**
+	 * Constructs a <code>SeedChainer</code> with the reference information
+	 * 
+	 * @param optrefmap
+	 *            the reference information
+	 */
+	public SeedChainer(LinkedHashMap<String, DataNode> optrefmap) {
+		this.optrefmap = optrefmap;
+	}
+
+	/**
+	 * Sets the parameters of chaining
+	 * 
+	 * @param measure
+	 *            measurement error
+	 * @param ear
+	 *            error acceptable range of scaling
+	 * @param maxGap
+	 *            maximum distance on reference between two consecutive anchors in a chain
+	 */
+	public void setParameters(int measure, double ear, int maxGap) {
+		this.measure = measure;
+		this.ear = ear;
+		this.maxGap = maxGap;
+	}
+
+	/**
+	 * Chains the seeds of <code>data</code>. The best anchor is the first seed of each chain, followed by the other seeds of the chain in collinear order. Chains are ordered by their best anchors in <code>seedlist</code>
+	 * 
+	 * @param data
+	 *            the query where the seeds are found
+	 * @param seedlist
+	 *            the seeds
+	 * @return the chains of seeds
+	 */
+	public List<List<Seed>> chain(DataNode data, final List<Seed> seedlist) {
+		int n = seedlist.size();
+		if (n == 0)
+			return new ArrayList<List<Seed>>();
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				Seed s1 = seedlist.get(i1);
+				Seed s2 = seedlist.get(i2);
+				int c = s1.source.compareTo(s2.source);
+				if (c != 0)
+					return c;
+				c = Integer.compare(s1.pos, s2.pos);
+				if (c != 0)
+					return c;
+				return Integer.compare(s1.kmerpointer.pos, s2.kmerpointer.pos);
+			}
+		});
+
+		// Anchors in sorted order
+		Seed[] seeds = new Seed[n];
+		long[] refCoord = new long[n];
+		long[] queryCoord = new long[n];
+		DataNode ref = null;
+		for (int x = 0; x < n; x++) {
+			seeds[x] = seedlist.get(order[x]);
+			if (ref == null || !ref.name.equals(seeds[x].source))
+				ref = optrefmap.get(seeds[x].source);
+			refCoord[x] = ref.length(0, seeds[x].pos);
+			queryCoord[x] = data.length(0, seeds[x].kmerpointer.pos);
+		}
+
+		// Chaining
+		int[] score = new int[n];
+		int[] prev = new int[n];
+		for (int x = 0; x < n; x++) {
+			int k = seeds[x].k();
+			score[x] = k;
+			prev[x] = -1;
+			for (int y = x - 1; y >= 0 && y >= x - MAXLOOKBACK; y--) {
+				if (!seeds[y].source.equals(seeds[x].source))
+					break;
+				long refDist = refCoord[x] - refCoord[y];
+				if (refDist > maxGap)
+					break;
+				int refStep = seeds[x].pos - seeds[y].pos;
+				int queryStep = seeds[x].kmerpointer.pos - seeds[y].kmerpointer.pos;
+				if (refStep <= 0 || queryStep <= 0)
+					continue;
+				long queryDist = queryCoord[x] - queryCoord[y];
+				if (Math.abs(refDist - queryDist) > ear * Math.max(refDist, queryDist) + measure)
+					continue;
+				int s = score[y] + Math.min(Math.min(refStep, queryStep), k) - Math.abs(refStep - queryStep);
+				if (s > score[x]) {
+					score[x] = s;
+					prev[x] = y;
+				}
+			}
+		}
+
+		// Backtrack from the highest scoring anchors. Each anchor belongs to the first chain reaching it
+		Integer[] rank = new Integer[n];
+		for (int x = 0; x < n; x++)
+			rank[x] = x;
+		final int[] finalScore = score;
+		Arrays.sort(rank, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer x1, Integer x2) {
+				int c = Integer.compare(finalScore[x2], finalScore[x1]);
+				if (c != 0)
+					return c;
+				return Integer.compare(x1, x2);
+			}
+		});
+		boolean[] assigned = new boolean[n];
+		int[] anchor = new int[n];
+		List<List<Seed>> chainlist = new ArrayList<List<Seed>>();
+		for (int r = 0; r < n; r++) {
+			int last = rank[r];
+			if (assigned[last])
+				continue;
+			List<Integer> members = new ArrayList<Integer>();
+			for (int y = last; y != -1 && !assigned[y]; y = prev[y]) {
+				assigned[y] = true;
+				members.add(y);
+			}
+			int first = members.get(members.size() - 1);
+			// The scale of the whole chain is more reliable than the scaling range of a single seed
+			double chainScale = (refCoord[last] > refCoord[first]) ? (queryCoord[last] - queryCoord[first]) / (double) (refCoord[last] - refCoord[first]) : 1;
+			int best = last;
+			for (int y : members)
+				if (isBetterAnchor(seeds[y], seeds[best], chainScale))
+					best = y;
+			List<Seed> chain = new ArrayList<Seed>();
+			chain.add(seeds[best]);
+			for (int m = members.size() - 1; m >= 0; m--)
+				if (members.get(m) != best)
+					chain.add(seeds[members.get(m)]);
+			anchor[chainlist.size()] = order[best];
+			chainlist.add(chain);
+		}
+
+		// Chains are reported in the order of their best anchors in seedlist
+		Integer[] chainOrder = new Integer[chainlist.size()];
+		for (int c = 0; c < chainOrder.length; c++)
+			chainOrder[c] = c;
+		final int[] finalAnchor = anchor;
+		Arrays.sort(chainOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer c1, Integer c2) {
+				return Integer.compare(finalAnchor[c1], finalAnchor[c2]);
+			}
+		});
+		List<List<Seed>> sortedchainlist = new ArrayList<List<Seed>>();
+		for (int c : chainOrder)
+			sortedchainlist.add(chainlist.get(c));
+		return sortedchainlist;
+	}
+
+	/**
+	 * A seed with its scaling range closer to the chain scale is preferred. A longer seed is preferred for seeds of equal distance
+	 */
+	private static boolean isBetterAnchor(Seed s1, Seed s2, double chainScale) {
+		double d1 = Math.abs(midScale(s1) - chainScale);
+		double d2 = Math.abs(midScale(s2) - chainScale);
+		if (d1 != d2)
+			return d1 < d2;
+		return s1.k() > s2.k();
+	}
+
+	private static double midScale(Seed seed) {
+		if (seed.rangeUBound == -1 || seed.rangeLBound == -1)
+			return 1;
+		return (seed.rangeUBound + seed.rangeLBound) / 2;
+	}
+
+	@Override
+	public SeedChainer copy() {
+		SeedChainer chainer = new SeedChainer(optrefmap);
+		chainer.setParameters(measure, ear, maxGap);
+		return chainer;
+	}
+}
@@ -29,13 +29,18 @@
 
 package aldenjava.opticalmapping.mapper.omblastmapper;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
+import joptsimple.OptionSet;
+import aldenjava.opticalmapping.Cigar;
 import aldenjava.opticalmapping.data.data.DataNode;
 import aldenjava.opticalmapping.mapper.ExtensionResult;
 import aldenjava.opticalmapping.mapper.seeding.Kmer;
 import aldenjava.opticalmapping.mapper.seeding.Seed;
 import aldenjava.opticalmapping.miscellaneous.Copyable;
+import aldenjava.opticalmapping.miscellaneous.SelectableMode;
 
 /**
  * A class for extending the data from a matched seed
@@ -43,8 +48,10 @@ import aldenjava.opticalmapping.miscellaneous.Copyable;
  * @author Alden
  * 
  */
-public class SeedExtension implements Copyable<SeedExtension> {
+public class SeedExtension implements Copyable<SeedExtension>, SelectableMode {
 	private final LinkedHashMap<String, DataNode> optrefmap;
+	// Cumulative segment lengths of references. Built once and shared by all copies
+	private final Map<String, long[]> refCumulativeMap;
 	private int measure = 500;
 	private int matchscore = 5;
 	private int falseppenalty = 2;
@@ -52,6 +59,18 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	private int falselimit = 5;
 	private double ear = 0.05;
 	private boolean allowLocalAlignment;
+	private int extensionmode = 1;
+	private final BandedExtender bandedExtender = new BandedExtender();
+	// Operation buffers reused across extensions. Each thread holds its own copy of SeedExtension
+	private final ExtensionPathPool leftPathPool = new ExtensionPathPool();
+	private final ExtensionPathPool rightPathPool = new ExtensionPathPool();
+	private long extensionCount = 0;
+	private long reusedExtensionCount = 0;
+	// Cumulative segment lengths of the last extended reference and query
+	private DataNode cumulativeRef = null;
+	private long[] refCumulativeRefl = null;
+	private DataNode cumulativeData = null;
+	private long[] dataCumulativeRefl = null;
 
 	/**
 	 * Constructs a <code>SeedExtension</code> module with the reference information
@@ -61,6 +80,14 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	 */
 	public SeedExtension(LinkedHashMap<String, DataNode> optrefmap) {
 		this.optrefmap = optrefmap;
+		this.refCumulativeMap = new HashMap<String, long[]>();
+		for (DataNode ref : optrefmap.values())
+			refCumulativeMap.put(ref.name, ref.getCumulativeRefl());
+	}
+
+	private SeedExtension(LinkedHashMap<String, DataNode> optrefmap, Map<String, long[]> refCumulativeMap) {
+		this.optrefmap = optrefmap;
+		this.refCumulativeMap = refCumulativeMap;
 	}
 
 	public void setParameters(int measure, double ear, int matchscore, int falseppenalty, int falsenpenalty, int falselimit, boolean allowLocalAlignment) {
@@ -71,6 +98,57 @@ public class SeedExtension implements Copyable<SeedExtension> {
 		this.falselimit = falselimit;
 		this.ear = ear;
 		this.allowLocalAlignment = allowLocalAlignment;
+		this.bandedExtender.setParameters(measure, matchscore, falseppenalty, falsenpenalty, falselimit, allowLocalAlignment);
+	}
+
+	@Override
+	public void setMode(OptionSet options) {
+		setMode((int) options.valueOf("extensionmode"));
+	}
+
+	/**
+	 * Sets the extension mode. 1: Greedy extension; 2: Banded dynamic-programming extension
+	 * 
+	 * @see BandedExtender
+	 */
+	@Override
+	public void setMode(int mode) {
+		if (mode != 1 && mode != 2)
+			throw new IllegalArgumentException("Extension mode must be 1 or 2");
+		this.extensionmode = mode;
+	}
+
+	@Override
+	public int getMode() {
+		return extensionmode;
+	}
+
+	/**
+	 * Returns the cumulative segment lengths of <code>ref</code>. The shared array is used unless <code>ref</code> is not in the reference information
+	 * 
+	 * @see DataNode#getCumulativeRefl()
+	 */
+	private long[] getRefCumulativeRefl(DataNode ref) {
+		if (ref != cumulativeRef) {
+			cumulativeRef = ref;
+			refCumulativeRefl = refCumulativeMap.get(ref.name);
+			if (refCumulativeRefl == null || optrefmap.get(ref.name) != ref)
+				refCumulativeRefl = ref.getCumulativeRefl();
+		}
+		return refCumulativeRefl;
+	}
+
+	/**
+	 * Returns the cumulative segment lengths of <code>data</code>. The array is kept until another query is extended
+	 * 
+	 * @see DataNode#getCumulativeRefl()
+	 */
+	private long[] getDataCumulativeRefl(DataNode data) {
+		if (data != cumulativeData) {
+			cumulativeData = data;
+			dataCumulativeRefl = data.getCumulativeRefl();
+		}
+		return dataCumulativeRefl;
 	}
 
 	/**
@@ -91,6 +169,21 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	 * @return the result of extension
 	 */
 	public ExtensionResult extendCore(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale) {
+		ExtensionPath path = new ExtensionPath();
+		extendPath(ref, data, initialrefpos, initialdatapos, direction, scale, path);
+		StringBuilder precigar = new StringBuilder(path.length());
+		path.appendTo(precigar, direction == -1);
+		return new ExtensionResult(ref.name, initialrefpos, initialdatapos, path.stopRefPos, path.stopFragPos, precigar.toString(), path.score, scale);
+	}
+
+	/**
+	 * Extends the data on reference using a scale <code>ratio</code> from the initial position. Operations are recorded in <code>path</code> in the order of extension, i.e. reversed for leftward extension
+	 * 
+	 * @see #extendCore(DataNode, DataNode, int, int, int, double)
+	 */
+	private void extendCore(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionPath path) {
+		long[] refcum = getRefCumulativeRefl(ref);
+		long[] datacum = getDataCumulativeRefl(data);
 		int refstartpos = -1;
 		int fragmentstartpos = -1;
 		int score = matchscore; // Now any matching signals count, not any
@@ -101,13 +194,15 @@ public class SeedExtension implements Copyable<SeedExtension> {
 		int err = 0;
 		double cumulatefragmentlen = 0;
 		double cumulatereflen = 0;
+		long unscaledreflen = 0;
 
-		StringBuilder precigar = new StringBuilder();
-		StringBuilder tmpcigar = new StringBuilder();
+		path.clear();
 		do {
 			if (Math.abs(cumulatereflen - cumulatefragmentlen) <= measure) {
+				if (unscaledreflen > 0)
+					path.restrictScale((cumulatefragmentlen - measure + ExtensionPath.SCALEMARGIN) / unscaledreflen, (cumulatefragmentlen + measure - ExtensionPath.SCALEMARGIN) / unscaledreflen);
 				score += matchscore;
-				tmpcigar.append("M");
+				path.append('M');
 				// double tshift = cumulatefragmentlen - cumulatereflen;
 				// longer is allowed!
 				if (score > highestscore || !allowLocalAlignment) // go ahead!! Onlyhigher score and longer is allowed!
@@ -115,38 +210,44 @@ public class SeedExtension implements Copyable<SeedExtension> {
 					refstartpos = refpos;
 					fragmentstartpos = datapos;
 					highestscore = score;
-					precigar.append(tmpcigar);
-					tmpcigar = new StringBuilder();
+					path.commit();
 				}
 				datapos += direction;
 				refpos += direction;
-				cumulatefragmentlen += data.getRefl(datapos) + 1;
-				cumulatereflen += (ref.getRefl(refpos) + 1) * scale;
+				cumulatefragmentlen += datacum[datapos + 1] - datacum[datapos];
+				long refl = refcum[refpos + 1] - refcum[refpos];
+				cumulatereflen += refl * scale;
+				unscaledreflen += refl;
 				err = 0;
 			} else {
 				if (cumulatereflen > cumulatefragmentlen) // falsep
 				{
+					// cumulatereflen can only exceed cumulatefragmentlen if unscaledreflen > 0
+					path.restrictScale((cumulatefragmentlen + measure + ExtensionPath.SCALEMARGIN) / unscaledreflen, Double.POSITIVE_INFINITY);
 					err++;
 					datapos += direction;
 					score -= falseppenalty;
-					cumulatefragmentlen += data.getRefl(datapos) + 1;
-					tmpcigar.append("I");
+					cumulatefragmentlen += datacum[datapos + 1] - datacum[datapos];
+					path.append('I');
 				} else // falsen
 				{
+					if (unscaledreflen > 0)
+						path.restrictScale(Double.NEGATIVE_INFINITY, (cumulatefragmentlen - measure - ExtensionPath.SCALEMARGIN) / unscaledreflen);
 					err++;
 					refpos += direction;
 					score -= falsenpenalty;
-					cumulatereflen += (ref.getRefl(refpos) + 1) * scale;
-					tmpcigar.append("D");
+					long refl = refcum[refpos + 1] - refcum[refpos];
+					cumulatereflen += refl * scale;
+					unscaledreflen += refl;
+					path.append('D');
 				}
 				if (!allowLocalAlignment) {
 					highestscore = score;
-					precigar.append(tmpcigar);
-					tmpcigar = new StringBuilder();
+					path.commit();
 				}
 			}
 
-		} while ((datapos >= 1 && datapos < data.getTotalSegment() - 1) && (refpos >= 1 && refpos < ref.refp.length) && (err <= falselimit || !allowLocalAlignment));
+		} while ((datapos >= 1 && datapos < datacum.length - 2) && (refpos >= 1 && refpos < refcum.length - 2) && (err <= falselimit || !allowLocalAlignment));
 
 		// Need to resolve wrong cigar problem:
 		// Direction -->
@@ -249,14 +350,48 @@ public class SeedExtension implements Copyable<SeedExtension> {
 		// }
 		// precigar.append(tmpcigar);
 		// }
-		if (direction == -1)
-			precigar.reverse();
-		return new ExtensionResult(ref.name, initialrefpos, initialdatapos, refstartpos, fragmentstartpos, precigar.toString(), highestscore, scale);
+		path.stopRefPos = refstartpos;
+		path.stopFragPos = fragmentstartpos;
+		path.score = highestscore;
+
+	}
+
+	/**
+	 * Extends from the initial position according to the extension mode
+	 */
+	private void extendPath(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionPath path) {
+		if (extensionmode == 2)
+			bandedExtender.extend(getRefCumulativeRefl(ref), getDataCumulativeRefl(data), initialrefpos, initialdatapos, direction, scale, path);
+		else
+			extendCore(ref, data, initialrefpos, initialdatapos, direction, scale, path);
+	}
 
+	/**
+	 * Extends from the initial position, or reuses a previous extension from the same initial position in <code>pathPool</code> if <code>scale</code> is within its valid scale range
+	 */
+	private ExtensionPath extend(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionPathPool pathPool) {
+		ExtensionPath path = pathPool.find(scale);
+		if (path != null) {
+			reusedExtensionCount++;
+			return path;
+		}
+		path = pathPool.next();
+		extendPath(ref, data, initialrefpos, initialdatapos, direction, scale, path);
+		extensionCount++;
+		return path;
 	}
 
 	/**
-	 * Attempts to find a better scaling factor by extending with 3 scaling factors at <code>startscale - ear</code>, <code>startscale</code> and <code>startscale + ear</code>. The scaling factor which yields the best extension results is used for next round of <code>extensionLoop</code> (recursion) with smaller <code>ear</code>
+	 * Returns the number of one-directional extensions performed and the number of extensions saved by reusing a previous extension in {@link #extensionLoop(DataNode, Seed, double, double, int)}
+	 * 
+	 * @return the number of extensions performed and saved
+	 */
+	public long[] getExtensionCount() {
+		return new long[] {extensionCount, reusedExtensionCount};
+	}
+
+	/**
+	 * Attempts to find a better scaling factor by extending with 5 scaling factors from <code>startscale - ear</code> to <code>startscale + ear</code>. The scaling factor which yields the best extension results is used for next round with half <code>ear</code>. Extension at a scale is skipped if a previous extension in the same direction makes the same M/I/D decisions at that scale. The precigar is built only for the best extension of the last round
 	 * 
 	 * @param data
 	 *            alignment of <code>data</code> to be extended according to <code>seed</code>
@@ -267,50 +402,61 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	 * @param ear
 	 *            the flanking range of the scale
 	 * @param times
-	 *            Number of rounds remained for recursion to get a better scaling factor
+	 *            Number of rounds to get a better scaling factor
 	 * @return
 	 */
 	public ExtensionResult extensionLoop(DataNode data, Seed seed, double startscale, double ear, int times) {
 		Kmer refKmer = seed;
 		Kmer dataKmer = seed.kmerpointer;
 		DataNode ref = optrefmap.get(refKmer.source);
-		double highestscore = 0;
-		ExtensionResult combinedExtension = null;
-		double highestratio = -1;
-		for (double ratio = startscale - ear; ratio <= startscale + ear; ratio += ear / 2) {
-			ExtensionResult leftExtension = this.extendCore(ref, data, refKmer.pos, dataKmer.pos, -1, ratio);
-			ExtensionResult rightExtension = this.extendCore(ref, data, refKmer.pos + refKmer.k() + refKmer.getErrorNo() - 1, dataKmer.pos + dataKmer.k() + dataKmer.getErrorNo() - 1, 1, ratio);
-			// module for refining scale at global alignment; no longer used as we now define the starting position to be the first matched signal
-			double refinedratio = data.length(leftExtension.stopfinalfragmentpos, rightExtension.stopfinalfragmentpos)
-					/ (double) ref.length(leftExtension.stopfinalrefpos, rightExtension.stopfinalrefpos);
-
-			double finalscore = (leftExtension.score + rightExtension.score + seed.getCigar(false).calcScore(matchscore, falseppenalty, falsenpenalty)) * (1 - Math.abs((1 - refinedratio)));
-			if (combinedExtension == null
-					|| finalscore > highestscore
-					|| (finalscore == highestscore && (rightExtension.stopfinalfragmentpos - leftExtension.stopfinalfragmentpos + 1) > (combinedExtension.stopfinalfragmentpos
-							- combinedExtension.startfinalfragmentpos + 1))) {
-				StringBuilder finalprecigar = new StringBuilder();
-				finalprecigar.append(leftExtension.precigar);
-
-				finalprecigar.append(seed.getCigar(false).getPrecigar());
+		Cigar seedCigar = seed.getCigar(false);
+		double seedScore = seedCigar.calcScore(matchscore, falseppenalty, falsenpenalty);
+		int rightRefPos = refKmer.pos + refKmer.k() + refKmer.getErrorNo() - 1;
+		int rightDataPos = dataKmer.pos + dataKmer.k() + dataKmer.getErrorNo() - 1;
+		leftPathPool.clear();
+		rightPathPool.clear();
+		ExtensionPath bestLeftPath = null;
+		ExtensionPath bestRightPath = null;
+		while (true) {
+			double highestscore = 0;
+			double highestratio = -1;
+			double highestrefinedratio = -1;
+			boolean found = false;
+			for (double ratio = startscale - ear; ratio <= startscale + ear; ratio += ear / 2) {
+				ExtensionPath leftPath = this.extend(ref, data, refKmer.pos, dataKmer.pos, -1, ratio, leftPathPool);
+				ExtensionPath rightPath = this.extend(ref, data, rightRefPos, rightDataPos, 1, ratio, rightPathPool);
+				// module for refining scale at global alignment; no longer used as we now define the starting position to be the first matched signal
+				double refinedratio = data.length(leftPath.stopFragPos, rightPath.stopFragPos) / (double) ref.length(leftPath.stopRefPos, rightPath.stopRefPos);
 
-				finalprecigar.append(rightExtension.precigar);
-
-				ExtensionResult tmpExtension = new ExtensionResult(ref.name, leftExtension.stopfinalrefpos, leftExtension.stopfinalfragmentpos, rightExtension.stopfinalrefpos,
-						rightExtension.stopfinalfragmentpos, finalprecigar.toString(), finalscore, refinedratio);
-
-				highestscore = finalscore;
-				combinedExtension = tmpExtension;
-				highestratio = ratio;
+				double finalscore = (leftPath.score + rightPath.score + seedScore) * (1 - Math.abs((1 - refinedratio)));
+				if (!found
+						|| finalscore > highestscore
+						|| (finalscore == highestscore && (rightPath.stopFragPos - leftPath.stopFragPos + 1) > (bestRightPath.stopFragPos - bestLeftPath.stopFragPos + 1))) {
+					bestLeftPath = leftPath;
+					bestRightPath = rightPath;
+					highestscore = finalscore;
+					highestratio = ratio;
+					highestrefinedratio = refinedratio;
+					found = true;
+				}
+				if (ear == 0)
+					break;
 			}
-			if (ear == 0)
-				break;
+			if (!found)
+				return null;
+			if (times <= 1) {
+				String seedPrecigar = seedCigar.getPrecigar();
+				StringBuilder finalprecigar = new StringBuilder(bestLeftPath.length() + seedPrecigar.length() + bestRightPath.length());
+				bestLeftPath.appendTo(finalprecigar, true);
+				finalprecigar.append(seedPrecigar);
+				bestRightPath.appendTo(finalprecigar, false);
+				return new ExtensionResult(ref.name, bestLeftPath.stopRefPos, bestLeftPath.stopFragPos, bestRightPath.stopRefPos, bestRightPath.stopFragPos, finalprecigar.toString(), highestscore,
+						highestrefinedratio);
+			}
+			startscale = highestratio;
+			ear /= 2;
+			times--;
 		}
-		if (times == 1)
-			return combinedExtension;
-		else
-			return extensionLoop(data, seed, highestratio, ear / 2, times - 1);
-
 	}
 
 	/**
@@ -349,8 +495,9 @@ public class SeedExtension implements Copyable<SeedExtension> {
 
 	@Override
 	public SeedExtension copy() {
-		SeedExtension newse = new SeedExtension(optrefmap);
+		SeedExtension newse = new SeedExtension(optrefmap, refCumulativeMap);
 		newse.setParameters(measure, ear, matchscore, falseppenalty, falsenpenalty, falselimit, allowLocalAlignment);
+		newse.setMode(extensionmode);
 		return newse;
 	}
 }
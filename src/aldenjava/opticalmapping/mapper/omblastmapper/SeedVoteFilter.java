@@ -0,0 +1,176 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.mapper.seeding.Seed;
+import aldenjava.opticalmapping.miscellaneous.Copyable;
+
+/**
+ * A prefilter discarding isolated seeds before extension. Each seed votes for a bin of its reference and approximate offset (reference coordinate minus the scaled query coordinate). Seeds of the same alignment share similar offsets, while spurious seeds are scattered. Only
+ * seeds in bins (together with the two adjacent bins) reaching the vote threshold are kept. Votes are counted in an open-addressing hash table of primitive keys, which is reused in each call
+ * 
+ * @author Alden
+ *
+ */
+public class SeedVoteFilter implements Copyable<SeedVoteFilter> {
+	private final LinkedHashMap<String, DataNode> optrefmap;
+	private final HashMap<String, Integer> refIndex;
+	private int minVote = 1;
+	private int binSize = 10000;
+
+	private long[] keys = new long[0];
+	private int[] votes = new int[0];
+	private boolean[] used = new boolean[0];
+	private int[] occupied = new int[0];
+	private int occupiedNo = 0;
+
+	/**
+	 * Constructs a <code>SeedVoteFilter</code> with the reference information
+	 * 
+	 * @param optrefmap
+	 *            the reference information
+	 */
+	public SeedVoteFilter(LinkedHashMap<String, DataNode> optrefmap) {
+		this(optrefmap, buildRefIndex(optrefmap));
+	}
+
+	private SeedVoteFilter(LinkedHashMap<String, DataNode> optrefmap, HashMap<String, Integer> refIndex) {
+		this.optrefmap = optrefmap;
+		this.refIndex = refIndex;
+	}
+
+	private static HashMap<String, Integer> buildRefIndex(LinkedHashMap<String, DataNode> optrefmap) {
+		HashMap<String, Integer> refIndex = new HashMap<String, Integer>();
+		for (String name : optrefmap.keySet())
+			refIndex.put(name, refIndex.size());
+		return refIndex;
+	}
+
+	/**
+	 * Sets the parameters of the filter
+	 * 
+	 * @param minVote
+	 *            minimum number of seeds agreeing on an offset bin
+	 * @param binSize
+	 *            size of an offset bin
+	 */
+	public void setParameters(int minVote, int binSize) {
+		this.minVote = minVote;
+		this.binSize = binSize;
+	}
+
+	/**
+	 * Filters the seeds of <code>data</code>. The order of seeds is kept
+	 * 
+	 * @param data
+	 *            the query where the seeds are found
+	 * @param seedlist
+	 *            the seeds
+	 * @return seeds in bins reaching the vote threshold
+	 */
+	public List<Seed> filter(DataNode data, List<Seed> seedlist) {
+		int n = seedlist.size();
+		if (minVote <= 1 || n == 0)
+			return seedlist;
+		prepare(n);
+		long[] seedKeys = new long[n];
+		DataNode ref = null;
+		for (int i = 0; i < n; i++) {
+			Seed seed = seedlist.get(i);
+			if (ref == null || !ref.name.equals(seed.source))
+				ref = optrefmap.get(seed.source);
+			double scale = (seed.rangeUBound == -1 || seed.rangeLBound == -1) ? 1 : (seed.rangeUBound + seed.rangeLBound) / 2;
+			long offset = ref.length(0, seed.pos) - (long) (data.length(0, seed.kmerpointer.pos) / scale);
+			seedKeys[i] = key(refIndex.get(seed.source), Math.floorDiv(offset, binSize));
+			votes[slot(seedKeys[i])]++;
+		}
+		List<Seed> filteredseedlist = new ArrayList<Seed>();
+		for (int i = 0; i < n; i++)
+			if (votes[slot(seedKeys[i])] + votes[slot(seedKeys[i] - 1)] + votes[slot(seedKeys[i] + 1)] >= minVote)
+				filteredseedlist.add(seedlist.get(i));
+		return filteredseedlist;
+	}
+
+	/**
+	 * The bin is stored in the lower 40 bits. Adjacent bins of the same reference differ by one
+	 */
+	private static long key(int ref, long bin) {
+		return ((long) ref << 40) + (bin + (1L << 39));
+	}
+
+	/**
+	 * Clears and resizes the hash table to hold at least three times of <code>n</code> keys at load factor 0.5. Only the occupied slots are cleared
+	 */
+	private void prepare(int n) {
+		int capacity = Integer.highestOneBit(Math.max(n * 6, 16) - 1) << 1;
+		if (keys.length < capacity) {
+			keys = new long[capacity];
+			votes = new int[capacity];
+			used = new boolean[capacity];
+			occupied = new int[capacity];
+		}
+		else
+			for (int i = 0; i < occupiedNo; i++) {
+				votes[occupied[i]] = 0;
+				used[occupied[i]] = false;
+			}
+		occupiedNo = 0;
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>, which is occupied on return
+	 */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int s = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (used[s] && keys[s] != key)
+			s = (s + 1) & mask;
+		if (!used[s]) {
+			used[s] = true;
+			keys[s] = key;
+			occupied[occupiedNo++] = s;
+		}
+		return s;
+	}
+
+	@Override
+	public SeedVoteFilter copy() {
+		SeedVoteFilter filter = new SeedVoteFilter(optrefmap, refIndex);
+		filter.setParameters(minVote, binSize);
+		return filter;
+	}
+}
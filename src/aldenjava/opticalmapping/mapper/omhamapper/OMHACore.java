@@ -33,11 +33,14 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import aldenjava.opticalmapping.data.data.DataNode;
 import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
 import aldenjava.opticalmapping.mapper.ExtensionResult;
 import aldenjava.opticalmapping.mapper.MatchHelper;
+import aldenjava.opticalmapping.mapper.multithread.ForkJoinInvoker;
 
 public class OMHACore {
 
@@ -85,6 +88,18 @@ public class OMHACore {
 	}
 
 	public List<OptMapResultNode> getResult(DataNode fragment) {
+		return getResult(fragment, null);
+	}
+
+	/**
+	 * Aligns the forward and reverse <code>fragment</code>. If <code>pool</code> is provided, the strands and references are aligned in parallel on <code>pool</code>. The results are identical in both cases
+	 * 
+	 * @param fragment
+	 * @param pool
+	 *            the pool for splitting the work; <code>null</code> if the work is not split
+	 * @return Partial alignment results
+	 */
+	public List<OptMapResultNode> getResult(final DataNode fragment, final ForkJoinPool pool) {
 		if (fragment.getTotalSegment() < 3)
 			return null;
 		if (localstart > 0)
@@ -94,14 +109,35 @@ public class OMHACore {
 			if (fragment.getTotalSegment() - 2 + localstart <= 0)
 				return null;
 		List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
+		List<ExtensionResult> forwardlist;
+		List<ExtensionResult> reverselist;
+		if (pool == null) {
+			forwardlist = mapFragment(fragment, null);
+			reverselist = mapFragment(fragment.getReverse(), null);
+		}
+		else {
+			List<Callable<List<ExtensionResult>>> tasks = new ArrayList<Callable<List<ExtensionResult>>>();
+			tasks.add(new Callable<List<ExtensionResult>>() {
+				@Override
+				public List<ExtensionResult> call() {
+					return mapFragment(fragment, pool);
+				}
+			});
+			tasks.add(new Callable<List<ExtensionResult>>() {
+				@Override
+				public List<ExtensionResult> call() {
+					return mapFragment(fragment.getReverse(), pool);
+				}
+			});
+			List<List<ExtensionResult>> strandlist = ForkJoinInvoker.invokeAll(pool, tasks);
+			forwardlist = strandlist.get(0);
+			reverselist = strandlist.get(1);
+		}
 		// forward
-		List<ExtensionResult> forwardlist = mapFragment(fragment);
 		for (ExtensionResult extensionresult : forwardlist)
 			fragmentmaplist.add(extensionresult.toAlignment(fragment, optrefmap, 1));
 
 		// reverse
-		DataNode reversedfragment = fragment.getReverse();
-		List<ExtensionResult> reverselist = mapFragment(reversedfragment);
 		for (ExtensionResult extensionresult : reverselist)
 			fragmentmaplist.add(extensionresult.toAlignment(fragment, optrefmap, -1));
 
@@ -395,7 +431,31 @@ public class OMHACore {
 			return null;
 	}
 
-	private List<ExtensionResult> mapFragment(DataNode fragment) {
+	/**
+	 * Aligns <code>fragment</code> to all references, one task per reference on <code>pool</code> if provided
+	 */
+	private List<ExtensionResult> mapFragment(final DataNode fragment, ForkJoinPool pool) {
+		List<ExtensionResult> resultlist = new ArrayList<ExtensionResult>();
+		if (pool == null) {
+			for (DataNode ref : optrefmap.values())
+				resultlist.addAll(mapFragmentOnRef(fragment, ref));
+		}
+		else {
+			List<Callable<List<ExtensionResult>>> tasks = new ArrayList<Callable<List<ExtensionResult>>>();
+			for (final DataNode ref : optrefmap.values())
+				tasks.add(new Callable<List<ExtensionResult>>() {
+					@Override
+					public List<ExtensionResult> call() {
+						return mapFragmentOnRef(fragment, ref);
+					}
+				});
+			for (List<ExtensionResult> reflist : ForkJoinInvoker.invokeAll(pool, tasks))
+				resultlist.addAll(reflist);
+		}
+		return resultlist;
+	}
+
+	private List<ExtensionResult> mapFragmentOnRef(DataNode fragment, DataNode ref) {
 		List<ExtensionResult> resultlist = new ArrayList<ExtensionResult>();
 		int initialstartfragpos = 1;
 		int finalstartfragpos = localstart;
@@ -405,42 +465,40 @@ public class OMHACore {
 			finalstartfragpos = fragment.getTotalSegment() - 2;
 		if (finalstartfragpos > fragment.getTotalSegment() - 2)
 			finalstartfragpos = fragment.getTotalSegment() - 2;
-		for (DataNode ref : optrefmap.values()) {
-			List<HashSet<Integer>> omitlist = new ArrayList<HashSet<Integer>>();
-			for (int i = 0; i < ref.refp.length + 1; i++)
-				omitlist.add(new HashSet<Integer>(finalstartfragpos));
-			for (int i = 1; i < ref.refp.length + 1 - 1; i++)
-				for (int j = initialstartfragpos; j <= finalstartfragpos; j++)
-					if (!omitlist.get(i).contains(j)) {
-						ExtensionResult result = align(fragment, ref, i, j);
-						if (result != null) {
-							if (result.score >= scorefilter)
-								resultlist.add(result);
-							// omit list starts!
-							char[] cigararray = result.precigar.toCharArray();
-							int omitrefpos = i;
-							int omitfragpos = j;
-							int score = matchscore;
-							for (char c : cigararray) {
-								if (c == 'M') {
-									score += matchscore;
-									if (score >= 0) {
-										omitlist.get(omitrefpos).add(omitfragpos);
-										omitrefpos++;
-										omitfragpos++;
-									}
-
-								} else if (c == 'I') {
-									omitfragpos++;
-									score -= falseppenalty;
-								} else if (c == 'D') {
+		List<HashSet<Integer>> omitlist = new ArrayList<HashSet<Integer>>();
+		for (int i = 0; i < ref.refp.length + 1; i++)
+			omitlist.add(new HashSet<Integer>(finalstartfragpos));
+		for (int i = 1; i < ref.refp.length + 1 - 1; i++)
+			for (int j = initialstartfragpos; j <= finalstartfragpos; j++)
+				if (!omitlist.get(i).contains(j)) {
+					ExtensionResult result = align(fragment, ref, i, j);
+					if (result != null) {
+						if (result.score >= scorefilter)
+							resultlist.add(result);
+						// omit list starts!
+						char[] cigararray = result.precigar.toCharArray();
+						int omitrefpos = i;
+						int omitfragpos = j;
+						int score = matchscore;
+						for (char c : cigararray) {
+							if (c == 'M') {
+								score += matchscore;
+								if (score >= 0) {
+									omitlist.get(omitrefpos).add(omitfragpos);
 									omitrefpos++;
-									score -= falsenpenalty;
+									omitfragpos++;
 								}
+
+							} else if (c == 'I') {
+								omitfragpos++;
+								score -= falseppenalty;
+							} else if (c == 'D') {
+								omitrefpos++;
+								score -= falsenpenalty;
 							}
 						}
 					}
-		}
+				}
 		return resultlist;
 
 	}
@@ -77,7 +77,7 @@ public class OMHAMapper extends Mapper {
 			throw new IllegalStateException("Parameters are not initialized for OMHA Mapper.");
 		if (data == null)
 			throw new NullPointerException();
-		return omhacore.getResult(data);
+		return omhacore.getResult(data, getQueryPool(data));
 	}
 
 	@Override
@@ -0,0 +1,343 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A table converting fragment sizes into size bins for the keys of the fast access database
+ * 
+ * @author Alden
+ *
+ */
+class FastConversionTable {
+	private List<Integer> sizelist; // final size must be Integer.max
+	private List<Integer> rclist;
+
+	public FastConversionTable(List<Integer> sizelist, List<Integer> rclist) {
+		this.sizelist = sizelist;
+		this.rclist = rclist;
+		if (rclist.size() - sizelist.size() != 0)
+			System.err.println("Table corrupted. List Size Inappropriate. Proceed anyway.");
+	}
+
+	public List<Integer> getSizeList() {
+		return Collections.unmodifiableList(sizelist);
+	}
+
+	public List<Integer> getCodeList() {
+		return Collections.unmodifiableList(rclist);
+	}
+
+	private int getBin(long possize) {
+		int pt = 0;
+		while (possize > sizelist.get(pt))
+			pt++;
+		return rclist.get(pt);
+	}
+
+	public SeedTableKey getKey(Kmer kmer) {
+		int[] kmerKey = new int[kmer.k()];
+		for (int i = 0; i < kmer.k(); i++)
+			kmerKey[i] = getBin(kmer.get(i));
+		return new SeedTableKey(kmerKey);
+	}
+
+	public SeedTableKey getKey(KmerStore store, int index) {
+		int[] kmerKey = new int[store.k()];
+		for (int i = 0; i < store.k(); i++)
+			kmerKey[i] = getBin(store.get(index, i));
+		return new SeedTableKey(kmerKey);
+	}
+
+	private int calcKeyCombinations(int[] smallKey, int[] largeKey) {
+		long product = 1;
+		for (int i = 0; i < smallKey.length; i++) {
+			assert largeKey[i] >= smallKey[i];
+			product *= (largeKey[i] - smallKey[i] + 1);
+			if (product > Integer.MAX_VALUE)
+				return Integer.MAX_VALUE;
+		}
+		return (int) product;
+	}
+	private void assignCombinedKeys(int[] smallKey, int[] largeKey, int[] current, int pos, List<SeedTableKey> combinedKeys) {
+		for (int i = smallKey[pos]; i <= largeKey[pos]; i++) {
+			current[pos] = i;
+			if (pos == smallKey.length - 1) {
+				int[] newKey = new int[current.length]; 
+				System.arraycopy(current, 0, newKey, 0, current.length);
+				combinedKeys.add(new SeedTableKey(newKey));
+			}
+			else
+				assignCombinedKeys(smallKey, largeKey, current, pos + 1, combinedKeys);
+		}
+	}
+	/**
+	 * Check if the targetKey is within the range of smallKey and largeKey
+	 * @param targetKey
+	 * @param smallKey
+	 * @param largeKey
+	 * @return <code>true</code> if the targetKey is within the range
+	 */
+	private boolean withinRange(int[] targetKey, int[] smallKey, int[] largeKey) {
+		assert targetKey.length == smallKey.length;
+		assert targetKey.length == largeKey.length;
+		for (int i = 0; i < targetKey.length; i++) {
+			if (targetKey[i] < smallKey[i])
+				return false;
+			if (targetKey[i] > largeKey[i])
+				return false;
+		}
+		return true;
+	}
+	
+	public List<SeedTableKey> getKeys(Kmer smallKmer, Kmer largeKmer, int maxCombinations) throws TooManyKeyCombinationsException {
+		assert smallKmer.k() > 0;
+		assert smallKmer.k() == largeKmer.k();
+		int[] smallKey = getKey(smallKmer).key;
+		int[] largeKey = getKey(largeKmer).key;
+		assert validateSmallAndLargeKeys(smallKey, largeKey);
+		int combinations = calcKeyCombinations(smallKey, largeKey);
+		if (combinations > maxCombinations)
+			throw new TooManyKeyCombinationsException();
+		List<SeedTableKey> combinedKeys = new ArrayList<>(combinations);
+		assignCombinedKeys(smallKey, largeKey, new int[smallKmer.k()], 0, combinedKeys);
+		assert validateCombinedKeys(combinedKeys, smallKey, largeKey) : "Incorrect key combinations.";
+		return combinedKeys;
+	}
+	/**
+	 * Returns the keys in <code>referenceSet</code> within the range of <code>smallKmer</code> and <code>largeKmer</code>, in lexicographic order. All key combinations in range are looked up in <code>referenceSet</code> if there are at most <code>maxCombinations</code> of them. Otherwise,
+	 * only the bins in range present in <code>sortedKeys</code> are enumerated
+	 * 
+	 * @param smallKmer
+	 * @param largeKmer
+	 * @param maxCombinations
+	 * @param referenceSet
+	 * @param sortedKeys
+	 *            keys of <code>referenceSet</code> sorted by {@link #sortKeys(Collection)}
+	 * @return the matching keys
+	 */
+	public List<SeedTableKey> getMatchingKeys(Kmer smallKmer, Kmer largeKmer, int maxCombinations, Set<SeedTableKey> referenceSet, SeedTableKey[] sortedKeys) {
+		List<SeedTableKey> matchingKeys = new ArrayList<>();
+		try {
+			List<SeedTableKey> combinedKeys = getKeys(smallKmer, largeKmer, maxCombinations);
+			for (SeedTableKey key : combinedKeys)
+				if (referenceSet.contains(key))
+					matchingKeys.add(key);
+		} catch (TooManyKeyCombinationsException e) {
+			// Escape routine when key combinations exceed the max combinations
+			// Walk down the sorted keys bin by bin, visiting only the bins in range that are present
+			int[] smallKey = getKey(smallKmer).key;
+			int[] largeKey = getKey(largeKmer).key;
+			collectKeysInRange(sortedKeys, 0, sortedKeys.length, 0, smallKey, largeKey, matchingKeys);
+		}
+		assert referenceSet.containsAll(matchingKeys);
+		return matchingKeys;
+	}
+
+	/**
+	 * Adds the keys in <code>sortedKeys</code> from <code>from</code> to <code>to</code> within the range of <code>smallKey</code> and <code>largeKey</code>. These keys share the same bins before <code>pos</code>
+	 */
+	private static void collectKeysInRange(SeedTableKey[] sortedKeys, int from, int to, int pos, int[] smallKey, int[] largeKey, List<SeedTableKey> matchingKeys) {
+		if (pos == smallKey.length) {
+			for (int i = from; i < to; i++)
+				matchingKeys.add(sortedKeys[i]);
+			return;
+		}
+		int start = lowerBound(sortedKeys, from, to, pos, smallKey[pos]);
+		while (start < to && sortedKeys[start].key[pos] <= largeKey[pos]) {
+			int stop = lowerBound(sortedKeys, start, to, pos, sortedKeys[start].key[pos] + 1);
+			collectKeysInRange(sortedKeys, start, stop, pos + 1, smallKey, largeKey, matchingKeys);
+			start = stop;
+		}
+	}
+
+	/**
+	 * Returns the first key in <code>sortedKeys</code> from <code>from</code> to <code>to</code> whose bin at <code>pos</code> is not smaller than <code>bin</code>
+	 */
+	private static int lowerBound(SeedTableKey[] sortedKeys, int from, int to, int pos, int bin) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (sortedKeys[mid].key[pos] < bin)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * Sorts <code>keys</code> in lexicographic order of bins
+	 * 
+	 * @param keys
+	 * @return the sorted keys
+	 */
+	public static SeedTableKey[] sortKeys(Collection<SeedTableKey> keys) {
+		SeedTableKey[] sortedKeys = keys.toArray(new SeedTableKey[keys.size()]);
+		Arrays.sort(sortedKeys, new Comparator<SeedTableKey>() {
+			@Override
+			public int compare(SeedTableKey k1, SeedTableKey k2) {
+				for (int i = 0; i < k1.key.length; i++)
+					if (k1.key[i] != k2.key[i])
+						return Integer.compare(k1.key[i], k2.key[i]);
+				return 0;
+			}
+		});
+		return sortedKeys;
+	}
+
+	private boolean validateSmallAndLargeKeys(int[] smallKey, int[] largeKey) {
+		if (smallKey.length != largeKey.length)
+			return false;
+		for (int i = 0; i < smallKey.length; i++)
+			if (largeKey[i] < smallKey[i])
+				return false;
+		return true;
+	}
+	private boolean validateCombinedKeys(List<SeedTableKey> combinedKeys, int[] smallKey, int[] largeKey) {
+		// Total no. of keys equal to the no. of combinations
+		if (calcKeyCombinations(smallKey, largeKey) != combinedKeys.size())
+			return false;
+		// Each key must be unique
+		HashSet<SeedTableKey> set = new HashSet<>();
+		for (SeedTableKey key : combinedKeys)
+			if (!set.add(key))
+				return false;
+		// Each key is within the range of smallKey and largeKey
+		for (SeedTableKey key : combinedKeys)
+			if (!withinRange(key.key, smallKey, largeKey))
+					return false;
+		return true;
+	}
+	
+	public void testKmer(Kmer kmer, double ear, int measure) {
+		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
+		Kmer largekmer = kmer.newKmer(1 + ear, measure);
+		int[] smallkey = getKey(smallkmer).key;
+		int[] largekey = getKey(largekmer).key; 
+		
+		int combinations[] = new int[kmer.k()]; 
+		for (int i = 0; i < smallkey.length; i++) {
+			combinations[i] = largekey[i] - smallkey[i] + 1;
+		}
+		int product = 1;
+		for (int i = 0; i < smallkey.length; i++) {
+			product *= combinations[i];
+		}
+		if (product > 100000)
+			System.out.println(product + "\t" + Arrays.toString(combinations) + "\t" + kmer.toString());
+	}
+
+	public static FastConversionTable standardTable() {
+		int gap = 5000;
+		List<Integer> clist = new ArrayList<>();
+		List<Integer> sizelist = new ArrayList<>();
+		int recent = 0;
+		int next = 1;
+		for (int i = 1; i < 255; i++) {
+			recent += gap;
+			sizelist.add(recent);
+			clist.add(i);
+			next++;
+		}
+		sizelist.add(Integer.MAX_VALUE);
+		clist.add(next);
+		return new FastConversionTable(sizelist, clist);
+	}
+	
+	/**
+	 * Creates a table with bin boundaries at the quantiles of segment sizes in <code>store</code>. A bin is widened if it is narrower than twice the error tolerance at its lower boundary, such that each segment of a query kmer spans at most a few bins
+	 * 
+	 * @param store
+	 * @param ear
+	 * @param measure
+	 * @param binNo
+	 *            targeted number of bins
+	 * @return the data-driven table
+	 */
+	public static FastConversionTable quantileTable(KmerStore store, double ear, int measure, int binNo) {
+		int n = store.size();
+		// The first segments of all kmers cover nearly all segments of the reference
+		long[] sizes = new long[n];
+		for (int index = 0; index < n; index++)
+			sizes[index] = store.get(index, 0);
+		Arrays.sort(sizes);
+		List<Integer> clist = new ArrayList<>();
+		List<Integer> sizelist = new ArrayList<>();
+		long recent = 0;
+		int next = 1;
+		int pt = 0;
+		int binLength = Math.max(sizes.length / binNo, 1);
+		while (pt + binLength < sizes.length) {
+			long boundary = Math.max(sizes[pt + binLength - 1], recent + (long) ((recent * ear + measure) * 2));
+			if (boundary >= Integer.MAX_VALUE)
+				break;
+			recent = boundary;
+			sizelist.add((int) recent);
+			clist.add(next);
+			next++;
+			// Move to the first size falling into the next bin
+			while (pt < sizes.length && sizes[pt] <= recent)
+				pt++;
+		}
+		sizelist.add(Integer.MAX_VALUE);
+		clist.add(next);
+		return new FastConversionTable(sizelist, clist);
+	}
+
+	public static FastConversionTable advancedTable(double ear, int measure, int minSize, int maxSize) {
+		List<Integer> clist = new ArrayList<>();
+		List<Integer> sizelist = new ArrayList<>();
+		int recent = 0;
+		int next = 1;
+		int gap = minSize;
+		while (true) {
+			if ((recent * ear + measure) * 2 > gap) {
+				gap = (int) ((recent * ear + measure) * 2);
+			}
+			if ((long) gap + (long) recent > maxSize)
+				break;
+			recent += gap;
+			sizelist.add(recent);
+			clist.add(next);
+			next++;
+		}
+		sizelist.add(Integer.MAX_VALUE);
+		clist.add(next);
+		return new FastConversionTable(sizelist, clist);
+	}
+}
@@ -29,14 +29,13 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
 import aldenjava.opticalmapping.data.data.DataNode;
 /**
- * Kmer, or K-tuple, is a class to represent k consecutive segments
+ * Kmer, or K-tuple, is a class to represent k consecutive segments. An error kmer has up to two signals skipped, i.e. some of its segments are merged from consecutive segments of the source
  * @author Alden
  *
  */
@@ -44,31 +43,91 @@ public class Kmer {
 
 	public final String source;
 	public final int pos;
-	private final List<Long> sizelist;
+	/**
+	 * Segment sizes backing this kmer. The array can be shared by many kmers (e.g. all kmers from the same reference) and must never be modified
+	 */
+	private final long[] sizes;
+	private final int offset;
+	private final int k;
+	/**
+	 * Skipped signals packed in two 16-bit fields. Each non-zero field is the index of the (merged) segment containing a skipped signal plus one
+	 */
+	private final int skip;
 
 	public Kmer(String source, int pos, List<Long> sizelist) {
 		this.source = source;
 		this.pos = pos;
-		this.sizelist = sizelist;
+		this.sizes = new long[sizelist.size()];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = sizelist.get(i);
+		this.offset = 0;
+		this.k = sizes.length;
+		this.skip = 0;
+	}
+
+	/**
+	 * Constructs a kmer as a view of <code>k</code> consecutive segment sizes starting from <code>offset</code>
+	 * @param source
+	 * @param pos
+	 * @param sizes
+	 * @param offset
+	 * @param k
+	 */
+	public Kmer(String source, int pos, long[] sizes, int offset, int k) {
+		this(source, pos, sizes, offset, k, 0);
+	}
+
+	/**
+	 * Constructs an error kmer as a view of <code>k</code> (merged) segment sizes starting from <code>offset</code>. The kmer starts at segment <code>pos</code> of the source and spans <code>k</code> + {@link #getErrorNo()} segments of the source
+	 * 
+	 * @param source
+	 * @param pos
+	 * @param sizes
+	 *            merged segment sizes
+	 * @param offset
+	 * @param k
+	 * @param skip
+	 *            skipped signals created by {@link #skipCode(int, int)}
+	 */
+	public Kmer(String source, int pos, long[] sizes, int offset, int k, int skip) {
+		if (offset < 0 || offset + k > sizes.length)
+			throw new IndexOutOfBoundsException("Kmer is out of bound");
+		this.source = source;
+		this.pos = pos;
+		this.sizes = sizes;
+		this.offset = offset;
+		this.k = k;
+		this.skip = skip;
 	}
 
 	public Kmer(Kmer kmer) {
+		// Kmer is immutable. The backing array can be safely shared
 		this.source = kmer.source;
 		this.pos = kmer.pos;
-		this.sizelist = new ArrayList<Long>(kmer.sizelist);
+		this.sizes = kmer.sizes;
+		this.offset = kmer.offset;
+		this.k = kmer.k;
+		this.skip = kmer.skip;
 	}
 
+	long[] backingArray() {
+		return sizes;
+	}
+
+	int offset() {
+		return offset;
+	}
 
 	public long get(int pos) {
-		return sizelist.get(pos);
+		return sizes[offset + pos];
 	}
 
 	public int compare(Kmer k, int pos) {
-		return Long.valueOf(this.get(pos)).compareTo(Long.valueOf(k.get(pos)));
+		return Long.compare(this.get(pos), k.get(pos));
 	}
 
 	public int k() {
-		return sizelist.size();
+		return k;
 	}
 
 	/**
@@ -77,21 +136,76 @@ public class Kmer {
 	 */
 	public long length() {
 		long total = 0;
-		for (Long i : sizelist)
-			total += i + 1;
+		for (int i = 0; i < k; i++)
+			total += get(i) + 1;
 		total += 1;
 		return total;
 	}
 
+	/**
+	 * Returns the number of skipped signals, i.e. signals of the source not included in this kmer
+	 * 
+	 * @return the number of skipped signals
+	 */
 	public int getErrorNo() {
-		return 0;
+		return skipCount(skip);
+	}
+
+	/**
+	 * Returns the number of skipped signals within segment <code>i</code>
+	 * 
+	 * @param i
+	 * @return the number of skipped signals
+	 */
+	public int getSkippedSignals(int i) {
+		return skippedSignals(skip, i);
+	}
+
+	int skipCode() {
+		return skip;
+	}
+
+	/**
+	 * Packs at most two skipped signals. Each signal is represented by the index of the merged segment containing it, or -1 if absent. Two signals can be skipped in the same segment. The order of the arguments does not matter
+	 * 
+	 * @param first
+	 * @param second
+	 * @return the packed skipped signals
+	 */
+	public static int skipCode(int first, int second) {
+		if (first >= 0xFFFF || second >= 0xFFFF)
+			throw new IllegalArgumentException("Skipped signal is out of bound");
+		// Canonical order: the first field is filled first and is not larger than the second
+		if (first < 0 || (second >= 0 && second < first)) {
+			int tmp = first;
+			first = second;
+			second = tmp;
+		}
+		return ((first + 1) << 16) | (second + 1);
+	}
+
+	static int skipCount(int skip) {
+		return ((skip >>> 16) != 0 ? 1 : 0) + ((skip & 0xFFFF) != 0 ? 1 : 0);
+	}
+
+	static int skippedSignals(int skip, int i) {
+		return ((skip >>> 16) == i + 1 ? 1 : 0) + ((skip & 0xFFFF) == i + 1 ? 1 : 0);
+	}
+
+	/**
+	 * Returns the number of skipped signals before segment <code>i</code>
+	 */
+	static int skippedSignalsBefore(int skip, int i) {
+		int first = skip >>> 16;
+		int second = skip & 0xFFFF;
+		return (first != 0 && first <= i ? 1 : 0) + (second != 0 && second <= i ? 1 : 0);
 	}
 
 	public Kmer newKmer(double sizeratio, int extrasize) {
-		List<Long> newsizelist = new ArrayList<Long>();
-		for (int i = 0; i < this.sizelist.size(); i++)
-			newsizelist.add((long) (this.sizelist.get(i) * sizeratio) + extrasize);
-		return new Kmer(this.source, this.pos, newsizelist);
+		long[] newsizes = new long[k];
+		for (int i = 0; i < k; i++)
+			newsizes[i] = (long) (get(i) * sizeratio) + extrasize;
+		return new Kmer(this.source, this.pos, newsizes, 0, k, skip);
 	}
 
 	public boolean limitRange(Kmer kmer, int measure, double ear) {
@@ -109,24 +223,22 @@ public class Kmer {
 	}
 
 	public Kmer getReverse() {
-		List<Long> newsizelist = new ArrayList<>(sizelist);
-		Collections.reverse(newsizelist);
-		return new Kmer(source, pos, newsizelist);
-		
+		int first = skip >>> 16;
+		int second = skip & 0xFFFF;
+		return new Kmer(source, pos, getReverseSizes(), 0, k, skipCode(first == 0 ? -1 : k - first, second == 0 ? -1 : k - second));
 	}
 	public DataNode toDataNode() {
 		return toDataNode(this.source + "_" + this.pos);
 	}
 	public DataNode toDataNode(String name) {
-		long[] refl = new long[sizelist.size() + 2];
-		for (int i = 0; i < sizelist.size(); i++)
-			refl[i + 1] = sizelist.get(i);
+		long[] refl = new long[k + 2];
+		System.arraycopy(sizes, offset, refl, 1, k);
 		return new DataNode(name, refl);
 	}
 	@Override
 	public String toString() {
 		String s = "";
-		for (int i = 0; i < sizelist.size(); i++)
+		for (int i = 0; i < k; i++)
 			s += Long.toString(this.get(i)) + " ";
 		return s;
 	}
@@ -140,12 +252,14 @@ public class Kmer {
 			return false;
 		if (this.pos != kmer.pos)
 			return false;
+		if (this.skip != kmer.skip)
+			return false;
 		return true;
 		
 	}
 	@Override
 	public int hashCode() {
-		return this.source.hashCode() * 37 + this.pos;
+		return (this.source.hashCode() * 37 + this.pos) * 37 + this.skip;
 	}
 	
 	public static Comparator<Kmer> comparator(int pos) {
@@ -153,7 +267,7 @@ public class Kmer {
 		return new Comparator<Kmer>() {
 			@Override
 			public int compare(Kmer k1, Kmer k2) {
-				return Long.valueOf(k1.get(x)).compareTo(Long.valueOf(k2.get(x)));
+				return Long.compare(k1.get(x), k2.get(x));
 			}
 		};
 
@@ -165,7 +279,7 @@ public class Kmer {
 			@Override
 			public int compare(Kmer k1, Kmer k2) {
 				int now;
-				now = Long.valueOf(k1.get(x)).compareTo(Long.valueOf(k2.get(x)));
+				now = Long.compare(k1.get(x), k2.get(x));
 				if (now != 0)
 					return now;
 				else {
@@ -197,10 +311,7 @@ public class Kmer {
 	}
 
 	public long[] getForwardSizes() {
-		long[] sizes = new long[k()];
-		for (int i = 0; i < k(); i++)
-			sizes[i] = get(i);
-		return sizes;
+		return Arrays.copyOfRange(sizes, offset, offset + k);
 	}
 	public long[] getReverseSizes() {
 		long[] sizes = new long[k()];
@@ -0,0 +1,237 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An implicit k-d tree on the kmers of a <code>KmerStore</code>, where each segment position is one dimension. The tree is a permutation of kmer indices: the median of the range <code>[lo, hi)</code> is the node, split at dimension <code>depth % k</code>, with the left and right halves as its subtrees. A box query returns all kmers with every segment size within the given bounds without any intermediate sets.
+ * 
+ * @author Alden
+ *
+ */
+public class KmerKdTree {
+
+	/**
+	 * Ranges not larger than this size are scanned linearly
+	 */
+	private static final int LEAFSIZE = 8;
+	/**
+	 * Subtrees larger than this size are built in separate tasks in parallel building
+	 */
+	private static final int PARALLELSIZE = 65536;
+
+	private final KmerStore store;
+	private final IntBuffer tree;
+
+	KmerKdTree(KmerStore store, IntBuffer tree) {
+		if (tree.limit() != store.size())
+			throw new IllegalArgumentException("Inconsistent size of k-d tree.");
+		this.store = store;
+		this.tree = tree;
+	}
+
+	IntBuffer getTree() {
+		return tree;
+	}
+
+	public static KmerKdTree build(KmerStore store) {
+		return build(store, false);
+	}
+
+	/**
+	 * Builds the k-d tree. If <code>parallel</code> is <code>true</code>, large subtrees are built as fork-join tasks, in the pool of the calling task
+	 * 
+	 * @param store
+	 * @param parallel
+	 * @return the k-d tree
+	 */
+	public static KmerKdTree build(KmerStore store, boolean parallel) {
+		int[] tree = new int[store.size()];
+		for (int i = 0; i < tree.length; i++)
+			tree[i] = i;
+		if (parallel)
+			new BuildTask(store, tree, 0, tree.length, 0).invoke();
+		else
+			build(store, tree, 0, tree.length, 0);
+		return new KmerKdTree(store, IntBuffer.wrap(tree));
+	}
+
+	private static class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final KmerStore store;
+		private final int[] tree;
+		private final int lo;
+		private final int hi;
+		private final int depth;
+
+		BuildTask(KmerStore store, int[] tree, int lo, int hi, int depth) {
+			this.store = store;
+			this.tree = tree;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= PARALLELSIZE) {
+				build(store, tree, lo, hi, depth);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			select(store, tree, lo, hi - 1, mid, depth % store.k());
+			invokeAll(new BuildTask(store, tree, lo, mid, depth + 1), new BuildTask(store, tree, mid + 1, hi, depth + 1));
+		}
+	}
+
+	private static void build(KmerStore store, int[] tree, int lo, int hi, int depth) {
+		if (hi - lo <= LEAFSIZE)
+			return;
+		int dim = depth % store.k();
+		int mid = (lo + hi) >>> 1;
+		select(store, tree, lo, hi - 1, mid, dim);
+		build(store, tree, lo, mid, depth + 1);
+		build(store, tree, mid + 1, hi, depth + 1);
+	}
+
+	/**
+	 * Quickselect: partially sorts <code>tree[left..right]</code> such that <code>tree[target]</code> is in its sorted position at dimension <code>dim</code>, with no larger elements before and no smaller elements after it
+	 */
+	private static void select(KmerStore store, int[] tree, int left, int right, int target, int dim) {
+		while (right > left) {
+			// Median of three as pivot
+			int mid = (left + right) >>> 1;
+			if (store.get(tree[mid], dim) < store.get(tree[left], dim))
+				swap(tree, left, mid);
+			if (store.get(tree[right], dim) < store.get(tree[left], dim))
+				swap(tree, left, right);
+			if (store.get(tree[right], dim) < store.get(tree[mid], dim))
+				swap(tree, mid, right);
+			long pivot = store.get(tree[mid], dim);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (store.get(tree[i], dim) < pivot)
+					i++;
+				while (store.get(tree[j], dim) > pivot)
+					j--;
+				if (i <= j) {
+					swap(tree, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (target <= j)
+				right = j;
+			else if (target >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private static void swap(int[] tree, int i, int j) {
+		int tmp = tree[i];
+		tree[i] = tree[j];
+		tree[j] = tmp;
+	}
+
+	private boolean withinBox(int index, long[] lower, long[] upper) {
+		for (int i = 0; i < lower.length; i++) {
+			long size = store.get(index, i);
+			if (size < lower[i] || size > upper[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the indices of all kmers with segment sizes within <code>lower</code> and <code>upper</code> (both inclusive)
+	 * 
+	 * @param lower
+	 * @param upper
+	 * @return kmer indices in ascending order
+	 */
+	public int[] query(long[] lower, long[] upper) {
+		int k = store.k();
+		int[] result = new int[16];
+		int size = 0;
+		// Explicit stack of [lo, hi, depth]
+		int[] stack = new int[96];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = tree.limit();
+		stack[top++] = 0;
+		while (top > 0) {
+			int depth = stack[--top];
+			int hi = stack[--top];
+			int lo = stack[--top];
+			if (hi - lo <= LEAFSIZE) {
+				for (int i = lo; i < hi; i++) {
+					int index = tree.get(i);
+					if (withinBox(index, lower, upper)) {
+						if (size == result.length)
+							result = Arrays.copyOf(result, size * 2);
+						result[size++] = index;
+					}
+				}
+				continue;
+			}
+			int mid = (lo + hi) >>> 1;
+			int dim = depth % k;
+			int index = tree.get(mid);
+			long key = store.get(index, dim);
+			if (withinBox(index, lower, upper)) {
+				if (size == result.length)
+					result = Arrays.copyOf(result, size * 2);
+				result[size++] = index;
+			}
+			if (top + 6 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			if (lower[dim] <= key) {
+				stack[top++] = lo;
+				stack[top++] = mid;
+				stack[top++] = depth + 1;
+			}
+			if (upper[dim] >= key) {
+				stack[top++] = mid + 1;
+				stack[top++] = hi;
+				stack[top++] = depth + 1;
+			}
+		}
+		int[] sortedResult = Arrays.copyOf(result, size);
+		Arrays.sort(sortedResult);
+		return sortedResult;
+	}
+}
@@ -0,0 +1,379 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A packed store of kmers. Segment sizes are kept in one primitive block per source (e.g. one block per reference), and each kmer is represented by its block, position and offset only. Error kmers additionally keep their skipped signals, and their merged segment sizes are computed from the block on request. <code>Kmer</code> objects are created on request as lightweight views of the blocks. The store is backed by buffers, so that a store read from a seed index file can be memory-mapped and shared across threads and processes.
+ * 
+ * @author Alden
+ *
+ */
+public class KmerStore {
+
+	private final int k;
+	private final List<String> blockSources = new ArrayList<>();
+	private final List<LongBuffer> blocks = new ArrayList<>();
+	private long[] lastBlockArray = null;
+	private IntBuffer kmerBlock;
+	private IntBuffer kmerPos;
+	private IntBuffer kmerOffset;
+	/**
+	 * Skipped signals of each kmer (see {@link Kmer#skipCode(int, int)}). <code>null</code> if the store has no error kmers
+	 */
+	private IntBuffer kmerSkip = null;
+	private int size = 0;
+	private final boolean readOnly;
+
+	public KmerStore(int k) {
+		this(k, 16);
+	}
+
+	public KmerStore(int k, int initialCapacity) {
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be positive.");
+		this.k = k;
+		if (initialCapacity < 1)
+			initialCapacity = 1;
+		kmerBlock = IntBuffer.allocate(initialCapacity);
+		kmerPos = IntBuffer.allocate(initialCapacity);
+		kmerOffset = IntBuffer.allocate(initialCapacity);
+		readOnly = false;
+	}
+
+	/**
+	 * Constructs a read-only store on existing buffers, e.g. buffers mapped from a seed index file
+	 * 
+	 * @param k
+	 * @param blockSources
+	 * @param blocks
+	 * @param kmerBlock
+	 * @param kmerPos
+	 * @param kmerOffset
+	 * @param kmerSkip
+	 *            skipped signals of each kmer, or <code>null</code> if there is no error kmer
+	 */
+	KmerStore(int k, List<String> blockSources, List<LongBuffer> blocks, IntBuffer kmerBlock, IntBuffer kmerPos, IntBuffer kmerOffset, IntBuffer kmerSkip) {
+		if (blockSources.size() != blocks.size())
+			throw new IllegalArgumentException("Inconsistent number of blocks.");
+		if (kmerBlock.limit() != kmerPos.limit() || kmerBlock.limit() != kmerOffset.limit() || (kmerSkip != null && kmerBlock.limit() != kmerSkip.limit()))
+			throw new IllegalArgumentException("Inconsistent number of kmers.");
+		this.k = k;
+		this.blockSources.addAll(blockSources);
+		this.blocks.addAll(blocks);
+		this.kmerBlock = kmerBlock;
+		this.kmerPos = kmerPos;
+		this.kmerOffset = kmerOffset;
+		this.kmerSkip = kmerSkip;
+		this.size = kmerBlock.limit();
+		this.readOnly = true;
+	}
+
+	private void checkWritable() {
+		if (readOnly)
+			throw new UnsupportedOperationException("The kmer store is read-only.");
+	}
+
+	/**
+	 * Adds a block of segment sizes. The array is not copied and must not be modified afterwards.
+	 * 
+	 * @param source
+	 * @param sizes
+	 * @return the block index
+	 */
+	public int addBlock(String source, long[] sizes) {
+		checkWritable();
+		blockSources.add(source);
+		blocks.add(LongBuffer.wrap(sizes));
+		lastBlockArray = sizes;
+		return blocks.size() - 1;
+	}
+
+	/**
+	 * Adds a kmer located at <code>offset</code> of the block
+	 * 
+	 * @param block
+	 * @param pos
+	 * @param offset
+	 */
+	public void add(int block, int pos, int offset) {
+		add(block, pos, offset, 0);
+	}
+
+	/**
+	 * Adds an error kmer located at <code>offset</code> of the block. The kmer spans <code>k</code> plus the number of skipped signals segments of the block
+	 * 
+	 * @param block
+	 * @param pos
+	 * @param offset
+	 * @param skip
+	 *            skipped signals created by {@link Kmer#skipCode(int, int)}
+	 */
+	public void add(int block, int pos, int offset, int skip) {
+		checkWritable();
+		if (offset < 0 || offset + k + Kmer.skipCount(skip) > blocks.get(block).limit())
+			throw new IndexOutOfBoundsException("Kmer is out of bound");
+		if (skip != 0 && kmerSkip == null)
+			kmerSkip = IntBuffer.allocate(kmerBlock.capacity());
+		ensureCapacity(size + 1);
+		kmerBlock.put(size, block);
+		kmerPos.put(size, pos);
+		kmerOffset.put(size, offset);
+		if (kmerSkip != null)
+			kmerSkip.put(size, skip);
+		size++;
+	}
+
+	/**
+	 * Adds an existing kmer. Kmers sharing the same backing array (e.g. kmers from the same <code>DataNode</code>) share the same block
+	 * 
+	 * @param kmer
+	 */
+	public void add(Kmer kmer) {
+		if (kmer.k() != k)
+			throw new IllegalArgumentException("Inconsistent k: " + kmer.k() + " (Expected: " + k + ")");
+		if (kmer.getErrorNo() > 0)
+			throw new IllegalArgumentException("Error kmers must be added by their positions in the block.");
+		int block = blocks.size() - 1;
+		if (block < 0 || lastBlockArray != kmer.backingArray() || !blockSources.get(block).equals(kmer.source))
+			block = addBlock(kmer.source, kmer.backingArray());
+		add(block, kmer.pos, kmer.offset());
+	}
+
+	public void addAll(List<Kmer> kmerList) {
+		ensureCapacity(size + kmerList.size());
+		for (Kmer kmer : kmerList)
+			add(kmer);
+	}
+
+	private void ensureCapacity(int capacity) {
+		checkWritable();
+		if (capacity > kmerBlock.capacity()) {
+			int newCapacity = Math.max(capacity, kmerBlock.capacity() + (kmerBlock.capacity() >> 1));
+			kmerBlock = IntBuffer.wrap(Arrays.copyOf(kmerBlock.array(), newCapacity));
+			kmerPos = IntBuffer.wrap(Arrays.copyOf(kmerPos.array(), newCapacity));
+			kmerOffset = IntBuffer.wrap(Arrays.copyOf(kmerOffset.array(), newCapacity));
+			if (kmerSkip != null)
+				kmerSkip = IntBuffer.wrap(Arrays.copyOf(kmerSkip.array(), newCapacity));
+		}
+	}
+
+	/**
+	 * Returns a new store containing the selected kmers. Blocks are shared with this store
+	 * 
+	 * @param selected
+	 * @return a new <code>KmerStore</code>
+	 */
+	public KmerStore subset(boolean[] selected) {
+		int count = 0;
+		for (int i = 0; i < size; i++)
+			if (selected[i])
+				count++;
+		KmerStore subset = new KmerStore(k, count);
+		subset.blockSources.addAll(blockSources);
+		subset.blocks.addAll(blocks);
+		for (int i = 0; i < size; i++)
+			if (selected[i])
+				subset.add(kmerBlock.get(i), kmerPos.get(i), kmerOffset.get(i), getSkip(i));
+		return subset;
+	}
+
+	public int k() {
+		return k;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Checks whether any error kmer has been added. Stores without error kmers do not keep skipped signals
+	 * 
+	 * @return <code>true</code> if skipped signals are kept
+	 */
+	public boolean hasErrorKmers() {
+		return kmerSkip != null;
+	}
+
+	public int getBlockCount() {
+		return blocks.size();
+	}
+
+	public String getBlockSource(int block) {
+		return blockSources.get(block);
+	}
+
+	/**
+	 * Returns a read-only view of the block
+	 * 
+	 * @param block
+	 * @return the segment sizes of the block
+	 */
+	public LongBuffer getBlockSizes(int block) {
+		return blocks.get(block).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the size of segment <code>i</code> in kmer <code>index</code>
+	 * 
+	 * @param index
+	 * @param i
+	 * @return segment size
+	 */
+	public long get(int index, int i) {
+		if (kmerSkip == null)
+			return blocks.get(kmerBlock.get(index)).get(kmerOffset.get(index) + i);
+		return get(blocks.get(kmerBlock.get(index)), kmerOffset.get(index), kmerSkip.get(index), i);
+	}
+
+	/**
+	 * Returns the size of (merged) segment <code>i</code>. Merging two segments includes the skipped signal in between, as in <code>DataNode.length</code>
+	 */
+	private static long get(LongBuffer sizes, int offset, int skip, int i) {
+		if (skip == 0)
+			return sizes.get(offset + i);
+		int start = offset + i + Kmer.skippedSignalsBefore(skip, i);
+		int merged = Kmer.skippedSignals(skip, i);
+		long size = sizes.get(start);
+		for (int j = 1; j <= merged; j++)
+			size += sizes.get(start + j) + 1;
+		return size;
+	}
+
+	public String getSource(int index) {
+		return blockSources.get(kmerBlock.get(index));
+	}
+
+	public int getKmerBlock(int index) {
+		return kmerBlock.get(index);
+	}
+
+	public int getPos(int index) {
+		return kmerPos.get(index);
+	}
+
+	public int getOffset(int index) {
+		return kmerOffset.get(index);
+	}
+
+	public int getSkip(int index) {
+		return kmerSkip == null ? 0 : kmerSkip.get(index);
+	}
+
+	/**
+	 * Returns a view of kmer <code>index</code>. No segment sizes are copied unless the block is not backed by a heap array (e.g. a memory-mapped block)
+	 * 
+	 * @param index
+	 * @return a <code>Kmer</code> view
+	 */
+	public Kmer getKmer(int index) {
+		int block = kmerBlock.get(index);
+		LongBuffer sizes = blocks.get(block);
+		int offset = kmerOffset.get(index);
+		int skip = getSkip(index);
+		if (skip != 0) {
+			long[] merged = new long[k];
+			for (int i = 0; i < k; i++)
+				merged[i] = get(sizes, offset, skip, i);
+			return new Kmer(blockSources.get(block), kmerPos.get(index), merged, 0, k, skip);
+		}
+		if (sizes.hasArray())
+			return new Kmer(blockSources.get(block), kmerPos.get(index), sizes.array(), sizes.arrayOffset() + offset, k);
+		long[] copy = new long[k];
+		for (int i = 0; i < k; i++)
+			copy[i] = sizes.get(offset + i);
+		return new Kmer(blockSources.get(block), kmerPos.get(index), copy, 0, k);
+	}
+
+	public List<Kmer> getKmerList() {
+		List<Kmer> kmerList = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			kmerList.add(getKmer(i));
+		return kmerList;
+	}
+
+	/**
+	 * Checks whether every segment of kmer <code>index</code> is within the segment sizes of <code>smallKmer</code> and <code>largeKmer</code>
+	 * 
+	 * @param index
+	 * @param smallKmer
+	 * @param largeKmer
+	 * @return <code>true</code> if all segments are within the range
+	 */
+	public boolean withinRange(int index, Kmer smallKmer, Kmer largeKmer) {
+		LongBuffer sizes = blocks.get(kmerBlock.get(index));
+		int offset = kmerOffset.get(index);
+		int skip = getSkip(index);
+		for (int i = 0; i < k; i++) {
+			long size = get(sizes, offset, skip, i);
+			if (size < smallKmer.get(i) || size > largeKmer.get(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Primitive version of <code>Kmer.limitRange</code> on kmer <code>index</code>
+	 * 
+	 * @param index
+	 * @param kmer
+	 * @param measure
+	 * @param ear
+	 * @return <code>true</code> if a common scaling factor exists
+	 * @see Kmer#limitRange(Kmer, int, double)
+	 */
+	public boolean limitRange(int index, Kmer kmer, int measure, double ear) {
+		LongBuffer sizes = blocks.get(kmerBlock.get(index));
+		int offset = kmerOffset.get(index);
+		int skip = getSkip(index);
+		double ubound = 1 + ear;
+		double lbound = 1 - ear;
+		for (int i = 0; i < k; i++) {
+			double size = get(sizes, offset, skip, i);
+			double newubound = (kmer.get(i) + measure) / size;
+			double newlbound = (kmer.get(i) - measure) / size;
+			if (newubound < ubound)
+				ubound = newubound;
+			if (newlbound > lbound)
+				lbound = newlbound;
+		}
+		return (ubound >= lbound);
+	}
+}
@@ -29,6 +29,7 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletionService;
@@ -42,78 +43,125 @@ import joptsimple.OptionSet;
 import aldenjava.opticalmapping.mapper.AlignmentOptions;
 import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
 
+/**
+ * Multi-threaded kmer lookup on a seed database. Kmers are grouped into batches, and each batch is looked up in one task. All threads share the same read-only <code>SeedDatabase</code>. Finished batches are delivered through a completion queue in the order of completion.
+ * <p>
+ * The producer and consumer must be the same thread, i.e. {@link #startNext(Kmer)}, {@link #getNextResult()} and {@link #getStatus()} must not be called concurrently.
+ * 
+ * @author Alden
+ *
+ */
 public class MultiThreadSeedDatabase {
 	private int nrOfProcessors;
-	private SeedDatabaseWrapper[] sdws;
-	private CompletionService<List<Kmer>> ecs;
+	private int batchSize = 1024;
+	private int maxPendingTasks;
+	private int measure;
+	private double ear;
 	private ExecutorService es;
-	private List<Future<List<Kmer>>> futureList;
-	private SeedDatabase targetSeedDatabase;
-	
+	private CompletionService<List<SeedingResultNode>> ecs;
+	private final SeedDatabase targetSeedDatabase;
+	private List<Kmer> batch = new ArrayList<Kmer>();
+	private int pendingTasks = 0;
+	private final ArrayDeque<Future<List<SeedingResultNode>>> readyList = new ArrayDeque<Future<List<SeedingResultNode>>>();
+
+	/**
+	 * Constructs a <code>MultiThreadSeedDatabase</code> on a built <code>seedDatabase</code>. The database is shared by all threads and must not be modified (e.g. restricting regions) during lookup
+	 * 
+	 * @param seedDatabase
+	 */
 	public MultiThreadSeedDatabase(SeedDatabase seedDatabase) {
 		targetSeedDatabase = seedDatabase;
 	}
 	
 	public void setParameters(OptionSet options) {
-		this.setParameters((int) options.valueOf("meas"), (double) options.valueOf("ear"), (int) options.valueOf("thread"));
+		this.setParameters((int) options.valueOf("meas"), (double) options.valueOf("ear"), (int) options.valueOf("thread"), (int) options.valueOf("seedbatch"));
 	}
+
 	public void setParameters(int meas, double ear, int thread) {
+		setParameters(meas, ear, thread, 1024);
+	}
+
+	public void setParameters(int meas, double ear, int thread, int batchSize) {
 		if (thread < 1)
 			throw new IllegalArgumentException("Number of thread must be positive.");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be positive.");
 		this.nrOfProcessors = thread;
+		this.batchSize = batchSize;
+		this.measure = meas;
+		this.ear = ear;
+		// Keeps all threads busy while the consumer processes results
+		this.maxPendingTasks = nrOfProcessors * 2;
 		es = Executors.newFixedThreadPool(nrOfProcessors);
-		ecs = new ExecutorCompletionService<List<Kmer>>(es);
-		sdws = new SeedDatabaseWrapper[nrOfProcessors];
-		futureList = new ArrayList<Future<List<Kmer>>>();
-		for (int i = 0; i < nrOfProcessors; i++)
-			futureList.add(null);
+		ecs = new ExecutorCompletionService<List<SeedingResultNode>>(es);
+	}
 
-		for (int i = 0; i < nrOfProcessors; i++) {
-			sdws[i] = new SeedDatabaseWrapper(targetSeedDatabase.copy());
-			sdws[i].setParameters(meas, ear);
-		}
+	private void submitBatch() {
+		SeedDatabaseWrapper sdw = new SeedDatabaseWrapper(targetSeedDatabase);
+		sdw.setParameters(measure, ear);
+		sdw.setKmers(batch);
+		ecs.submit(sdw);
+		pendingTasks++;
+		batch = new ArrayList<Kmer>(batchSize);
 	}
 
+	/**
+	 * Adds a kmer to the current batch. A full batch is submitted for lookup.
+	 * 
+	 * @param kmer
+	 * @return <code>false</code> if the kmer is not accepted because too many batches are pending. Results should be taken by {@link #getNextResult()} before retrying
+	 */
 	public boolean startNext(Kmer kmer) {
-		for (int i = 0; i < nrOfProcessors; i++)
-			if (futureList.get(i) == null) {
-				sdws[i].setKmer(kmer);
-				futureList.set(i, ecs.submit(sdws[i]));
-				return true;
-			}
-		return false;
+		if (batch.size() >= batchSize) {
+			if (pendingTasks >= maxPendingTasks)
+				return false;
+			submitBatch();
+		}
+		batch.add(kmer);
+		return true;
 	}
 
-	public SeedingResultNode getNextResult() throws IllegalStateException, InterruptedException, ExecutionException {
-		if (getStatus() == -1) // all tasks finish, nothing to wait
-			throw new IllegalStateException("All results are taken");
+	/**
+	 * Submits the current batch even if it is not full
+	 */
+	public void flush() {
+		if (!batch.isEmpty())
+			submitBatch();
+	}
 
-//		Future<List<Kmer>> future = ecs.poll(5, TimeUnit.SECONDS);
-		Future<List<Kmer>> future = ecs.take();
-//		if (future == null)
-//		for (int x = 0; x < nrOfProcessors; x++)
-//			if (futureList.get(x) != null) {
-//				System.out.println("Culprit: " + sdws[x].getKmer().source);
-//			}
-		int i = this.futureList.indexOf(future);
-		SeedingResultNode seednode = new SeedingResultNode(sdws[i].getKmer(), futureList.get(i).get());
-		futureList.set(i, null);
-		return seednode;
+	/**
+	 * Waits and returns the results of the next finished batch. The remaining kmers are submitted if no batch is pending
+	 * 
+	 * @return seeding results of each kmer in the batch, in the order of submission within the batch
+	 * @throws IllegalStateException
+	 *             if all results are taken
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public List<SeedingResultNode> getNextResult() throws IllegalStateException, InterruptedException, ExecutionException {
+		if (pendingTasks == 0)
+			flush();
+		if (pendingTasks == 0) // all tasks finish, nothing to wait
+			throw new IllegalStateException("All results are taken");
+		Future<List<SeedingResultNode>> future = readyList.isEmpty() ? ecs.take() : readyList.poll();
+		pendingTasks--;
+		return future.get();
 	}
 
+	/**
+	 * Returns the status of lookup
+	 * 
+	 * @return -1 if all results are taken; 1 if a finished batch is available; 0 otherwise
+	 */
 	public int getStatus() {
-		boolean nothingRun = true;
-		for (int i = 0; i < nrOfProcessors; i++)
-			if (futureList.get(i) != null) {
-				nothingRun = false;
-				if (futureList.get(i).isDone())
-					return 1;
-			}
-		if (nothingRun)
+		if (pendingTasks == 0 && batch.isEmpty())
 			return -1;
-		else
-			return 0;
+		Future<List<SeedingResultNode>> future = ecs.poll();
+		if (future != null)
+			readyList.add(future);
+		return readyList.isEmpty() ? 0 : 1;
 	}
+
 	public void close() {
 		es.shutdown();
 	}
@@ -122,5 +170,6 @@ public class MultiThreadSeedDatabase {
 		parser.addHeader("Multithread Seeding Options", level);
 		AlignmentOptions.assignErrorToleranceOptions(parser);
 		parser.accepts("thread", "Number of threads").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("seedbatch", "Number of kmers looked up in each task").withRequiredArg().ofType(Integer.class).defaultsTo(1024);
 	}
 }
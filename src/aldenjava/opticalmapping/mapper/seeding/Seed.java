@@ -53,52 +53,30 @@ public class Seed extends Kmer {
 		this.kmerpointer = kmerpointer;
 
 	}
+	/**
+	 * Returns the CIGAR of the seed. Signals skipped in the reference kmer are missing signals on the query (D), and signals skipped in the query kmer are extra signals on the query (I)
+	 * 
+	 * @param flankingMatch
+	 *            include the flanking matched signals
+	 * @return the CIGAR of the seed
+	 */
 	public Cigar getCigar(boolean flankingMatch) {
 		StringBuilder precigar = new StringBuilder();
-		for (int i = 0; i < k() + 1; i++)
-			precigar.append('M');
-		if (flankingMatch)
-			return new Cigar(precigar.toString());
-		else
-			return new Cigar(precigar.substring(1, precigar.length() - 1));
-
-	}
-	/*
-	public Cigar getCigar(boolean flankingMatch) {
-		if (kmerpointer.getErrorNo() > 0 && super.getErrorNo() > 0) {
-			System.err.println("Do not support errors in both ref-kmer and frag-kmer.");
-			return null;
-		}
-		List<Integer> errorposlist;
-		char c;
-		if (kmerpointer.getErrorNo() > 0) {
-			errorposlist = kmerpointer.errorposlist;
-			c = 'I';
-		} else if (super.getErrorNo() > 0) {
-			errorposlist = super.errorposlist;
-			c = 'D';
-		} else {
-			errorposlist = new ArrayList<Integer>();
-			c = 'M';
-		}
-
-		StringBuilder precigar = new StringBuilder();
-		int pointer = 0;
-		for (int i = 0; i < realsizelist.size(); i++) {
+		precigar.append('M');
+		for (int i = 0; i < k(); i++) {
+			for (int j = 0; j < getSkippedSignals(i); j++)
+				precigar.append('D');
+			for (int j = 0; j < kmerpointer.getSkippedSignals(i); j++)
+				precigar.append('I');
 			precigar.append('M');
-			while (pointer < errorposlist.size() && errorposlist.get(pointer) == i) {
-				precigar.append(c);
-				pointer++;
-			}
 		}
-		precigar.append('M');
 		if (flankingMatch)
 			return new Cigar(precigar.toString());
 		else
 			return new Cigar(precigar.substring(1, precigar.length() - 1));
 
 	}
-	*/
+
 	public boolean limitRange(int measure, double ear) {
 		double ubound = 1 + ear;
 		double lbound = 1 - ear;
@@ -29,13 +29,16 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.commons.lang.ArrayUtils;
 
@@ -54,17 +57,68 @@ import aldenjava.opticalmapping.miscellaneous.SelectableMode;
 public class SeedDatabase implements SelectableMode {
 
 	private int seedingmode;
-	private List<List<Kmer>> databaseSeedList;
+	private KmerStore store;
+	/**
+	 * Kmer indices in <code>store</code> sorted by segment size of each position. Used in seeding mode 1. When it is not built, kmers are searched in the store order
+	 */
+	private IntBuffer[] sortedIndex;
+	/**
+	 * k-d tree on all segment positions of kmers in <code>store</code>. Used in seeding mode 3
+	 */
+	private KmerKdTree kdTree;
 //	private FastConversionTable table = FastConversionTable.standardTable();
 	private FastConversionTable table = FastConversionTable.advancedTable(0.1, 500, 5000, Integer.MAX_VALUE);
 //	private FastConversionTable table = FastConversionTable.advancedTable(0.1, 500, 6000, Integer.MAX_VALUE);
-	private LinkedHashMap<SeedTableKey, List<Kmer>> fastDatabaseSeedMap;
+	/**
+	 * Bucket of each key. Kmers in bucket <code>b</code> are stored in <code>bucketKmers</code> from <code>bucketStart[b]</code> to <code>bucketStart[b + 1]</code>. Used in seeding mode 2
+	 */
+	private LinkedHashMap<SeedTableKey, Integer> fastDatabaseSeedMap;
+	private IntBuffer bucketStart;
+	private IntBuffer bucketKmers;
+	/**
+	 * Keys of <code>fastDatabaseSeedMap</code> in lexicographic order, for enumerating the keys in range when there are too many key combinations
+	 */
+	private SeedTableKey[] sortedKeys;
+	/**
+	 * Maximum number of key combinations looked up in <code>fastDatabaseSeedMap</code> on seeding
+	 */
+	private int maxKeyCombinations;
+	/**
+	 * Allowed kmer position ranges of each block in <code>store</code>, resolved from a <code>SeedRegionFilter</code>. <code>null</code> if seeding is not restricted
+	 */
+	private int[][] regionRanges;
 
 	private int k;
 	private int maxnosignalregion;
+	private int buildThread = 1;
+	/**
+	 * Number of quantile bins of the data-driven binning table. The fixed table is used if it is 0
+	 */
+	private int quantileBin = 0;
+	/**
+	 * Error tolerance used on building the quantile binning table and the reference kmer multiplicity
+	 */
+	private double toleranceEar = 0.1;
+	private int toleranceMeasure = 500;
+	/**
+	 * Number of similar kmers of each kmer in <code>store</code> (including itself). <code>null</code> if it is not computed
+	 */
+	private IntBuffer multiplicity;
+	/**
+	 * Kmers with multiplicity larger than this value are masked. No masking is done if it is 0
+	 */
+	private int maxMultiplicity = 0;
+	/**
+	 * Window size of minimizer sparse seeding. All kmers are used if it is 1
+	 */
+	private int minimizerWindow = 1;
+	/**
+	 * Sizes of the references the database is built from. Only recorded in a seed index; <code>null</code> otherwise
+	 */
+	private LinkedHashMap<String, Long> referenceSizes;
 
-	public SeedDatabase(List<List<Kmer>> databaseSeedList) {
-		assignSeeds(databaseSeedList);
+	public SeedDatabase(KmerStore store) {
+		assignSeeds(store);
 	}
 
 	public SeedDatabase(List<Kmer> kmerList, int kmerlen) {
@@ -78,8 +132,8 @@ public class SeedDatabase implements SelectableMode {
 
 	@Override
 	public void setMode(int mode) {
-		if (!ArrayUtils.contains(new int[]{1, 2, -1}, mode))
-			throw new IllegalArgumentException("Seeding mode must be 1, 2, or -1");
+		if (!ArrayUtils.contains(new int[]{1, 2, 3, -1}, mode))
+			throw new IllegalArgumentException("Seeding mode must be 1, 2, 3, or -1");
 		this.seedingmode = mode;
 	}
 
@@ -90,6 +144,14 @@ public class SeedDatabase implements SelectableMode {
 
 	public void setParameters(OptionSet options) {
 		setParameters((int) options.valueOf("k"), (int) options.valueOf("maxnosignal"));
+		if (options.valueOf("meas") != null && options.valueOf("ear") != null)
+			setErrorTolerance((double) options.valueOf("ear"), (int) options.valueOf("meas"));
+		if (options.valueOf("quantilebin") != null)
+			setBinning((int) options.valueOf("quantilebin"));
+		if (options.valueOf("minimizerwindow") != null)
+			setMinimizerWindow((int) options.valueOf("minimizerwindow"));
+		if (options.valueOf("maxrefkmerfreq") != null)
+			setRepeatMask((int) options.valueOf("maxrefkmerfreq"));
 	}
 	public void setParameters(int k) {
 		this.k = k;
@@ -100,16 +162,273 @@ public class SeedDatabase implements SelectableMode {
 		this.maxnosignalregion = maxnosignalregion;
 	}
 
-	public void assignSeeds(List<List<Kmer>> databaseSeedList) {
-		this.databaseSeedList = databaseSeedList;
+	/**
+	 * Sets the number of threads used in building the database
+	 * 
+	 * @param thread
+	 */
+	public void setBuildThread(int thread) {
+		if (thread < 1)
+			throw new IllegalArgumentException("Number of threads must be at least 1");
+		this.buildThread = thread;
+	}
+
+	/**
+	 * Sets the error tolerance used in building the database, i.e. the quantile binning table and the reference kmer multiplicity
+	 * 
+	 * @param ear
+	 * @param measure
+	 */
+	public void setErrorTolerance(double ear, int measure) {
+		this.toleranceEar = ear;
+		this.toleranceMeasure = measure;
+	}
+
+	/**
+	 * Sets the binning table used in seeding mode 2. If <code>quantileBin</code> is larger than 0, the bin boundaries are derived from the segment size distribution of the kmers on building the database, where each bin is not narrower than the error tolerance
+	 * 
+	 * @param quantileBin
+	 *            number of quantile bins; 0 to use the fixed binning table
+	 * @see #setErrorTolerance(double, int)
+	 */
+	public void setBinning(int quantileBin) {
+		if (quantileBin < 0)
+			throw new IllegalArgumentException("Number of quantile bins must not be negative");
+		this.quantileBin = quantileBin;
+	}
+
+	/**
+	 * Masks repetitive reference kmers, which have more than <code>maxMultiplicity</code> similar kmers in the database. The multiplicity is computed on building the database. No masking is done if <code>maxMultiplicity</code> is 0
+	 * 
+	 * @param maxMultiplicity
+	 * @see #buildMultiplicity()
+	 */
+	public void setRepeatMask(int maxMultiplicity) {
+		if (maxMultiplicity < 0)
+			throw new IllegalArgumentException("Maximum reference kmer frequency must not be negative");
+		this.maxMultiplicity = maxMultiplicity;
+	}
+
+	/**
+	 * Enables minimizer sparse seeding. Only the minimizer of every <code>window</code> consecutive kmers is kept on building the database. The same selection should be applied on query kmers using {@link #selectMinimizers(List)}
+	 * 
+	 * @param window
+	 *            window size; 1 to use all kmers
+	 */
+	public void setMinimizerWindow(int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("Minimizer window must be at least 1");
+		this.minimizerWindow = window;
+	}
+
+	public int getMinimizerWindow() {
+		return minimizerWindow;
+	}
+
+	/**
+	 * Returns the minimizer order of a kmer, which is a deterministic hash of the segment sizes quantized by the binning table. Similar kmers usually fall into the same bins and therefore have the same order
+	 * 
+	 * @param key
+	 *            quantized segment sizes
+	 * @return the hash
+	 */
+	private static long minimizerHash(int[] key) {
+		long h = 0x9E3779B97F4A7C15L;
+		for (int bin : key) {
+			h ^= bin;
+			// Finalizer of SplitMix64
+			h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+			h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+			h ^= h >>> 31;
+		}
+		return h;
+	}
+
+	/**
+	 * Marks the minimizer of every <code>window</code> consecutive kmers from <code>start</code> (inclusive) to <code>stop</code> (exclusive). The leftmost kmer is chosen on ties. If there are fewer kmers than <code>window</code>, the minimizer of all kmers is marked
+	 */
+	private static void markMinimizers(long[] hash, int start, int stop, int window, boolean[] selected) {
+		if (stop - start <= window) {
+			int min = start;
+			for (int i = start + 1; i < stop; i++)
+				if (hash[i] < hash[min])
+					min = i;
+			if (min < stop)
+				selected[min] = true;
+			return;
+		}
+		// Monotonic queue of candidates
+		int[] queue = new int[window];
+		int head = 0;
+		int size = 0;
+		for (int i = start; i < stop; i++) {
+			while (size > 0 && hash[queue[(head + size - 1) % window]] > hash[i])
+				size--;
+			if (size > 0 && queue[head] <= i - window) {
+				head = (head + 1) % window;
+				size--;
+			}
+			queue[(head + size) % window] = i;
+			size++;
+			if (i >= start + window - 1)
+				selected[queue[head]] = true;
+		}
+	}
+
+	/**
+	 * Selects the window minimizers of query kmers. Consecutive kmers with the same source are considered as one sequence
+	 * 
+	 * @param kmerList
+	 * @return selected kmers in the original order
+	 */
+	public List<Kmer> selectMinimizers(List<Kmer> kmerList) {
+		if (minimizerWindow <= 1)
+			return kmerList;
+		int n = kmerList.size();
+		long[] hash = new long[n];
+		for (int i = 0; i < n; i++)
+			hash[i] = minimizerHash(table.getKey(kmerList.get(i)).key);
+		boolean[] selected = new boolean[n];
+		int start = 0;
+		for (int i = 1; i <= n; i++)
+			if (i == n || !kmerList.get(i).source.equals(kmerList.get(start).source)) {
+				markMinimizers(hash, start, i, minimizerWindow, selected);
+				start = i;
+			}
+		List<Kmer> minimizerList = new ArrayList<Kmer>();
+		for (int i = 0; i < n; i++)
+			if (selected[i])
+				minimizerList.add(kmerList.get(i));
+		return minimizerList;
+	}
+
+	/**
+	 * Selects the minimizers among error-free kmers of each block. Error kmers do not have a counterpart in the query kmers and are all kept
+	 */
+	private KmerStore selectMinimizers(KmerStore store) {
+		int n = store.size();
+		// Error-free kmers are packed before selection
+		int[] exact = new int[n];
+		int m = 0;
+		boolean[] selected = new boolean[n];
+		for (int i = 0; i < n; i++)
+			if (store.getSkip(i) == 0)
+				exact[m++] = i;
+			else
+				selected[i] = true;
+		long[] hash = new long[m];
+		for (int i = 0; i < m; i++)
+			hash[i] = minimizerHash(table.getKey(store, exact[i]).key);
+		boolean[] exactSelected = new boolean[m];
+		int start = 0;
+		for (int i = 1; i <= m; i++)
+			if (i == m || store.getKmerBlock(exact[i]) != store.getKmerBlock(exact[start])) {
+				markMinimizers(hash, start, i, minimizerWindow, exactSelected);
+				start = i;
+			}
+		for (int i = 0; i < m; i++)
+			if (exactSelected[i])
+				selected[exact[i]] = true;
+		return store.subset(selected);
+	}
+
+	/**
+	 * Returns the maximum number of skipped signals of the reference kmers
+	 * 
+	 * @return the maximum number of skipped signals, or 0 if there is no error kmer
+	 */
+	public int getKmerError() {
+		int kmerError = 0;
+		if (store.hasErrorKmers())
+			for (int i = 0; i < store.size(); i++)
+				kmerError = Math.max(kmerError, Kmer.skipCount(store.getSkip(i)));
+		return kmerError;
+	}
+
+	public boolean hasMultiplicity() {
+		return multiplicity != null;
+	}
+
+	/**
+	 * Computes the multiplicity of each kmer in the built database, i.e. the number of kmers (including itself) similar to it within the error tolerance
+	 */
+	public void buildMultiplicity() {
+		int n = store.size();
+		int[] multiplicity = new int[n];
+		// Masking must not affect the counting
+		this.multiplicity = null;
+		int chunks = buildThread == 1 ? 1 : Math.min(buildThread * 4, Math.max(n / 1000, 1));
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int c = 0; c < chunks; c++) {
+			final int start = (int) ((long) n * c / chunks);
+			final int stop = (int) ((long) n * (c + 1) / chunks);
+			tasks.add(ForkJoinTask.adapt(() -> {
+				SeedDatabase seedDatabase = copy();
+				for (int index = start; index < stop; index++)
+					multiplicity[index] = seedDatabase.getKmerList(store.getKmer(index), toleranceEar, toleranceMeasure).size();
+			}));
+		}
+		if (chunks == 1)
+			tasks.get(0).invoke();
+		else
+			invokeInPool(tasks);
+		this.multiplicity = IntBuffer.wrap(multiplicity);
+	}
+
+	public void assignSeeds(KmerStore store) {
+		this.store = store;
+		this.k = store.k();
+		this.sortedIndex = null;
+		this.kdTree = null;
+		this.regionRanges = null;
+		this.multiplicity = null;
+		this.fastDatabaseSeedMap = null;
+		this.sortedKeys = null;
+		this.bucketStart = null;
+		this.bucketKmers = null;
 	}
 	public void assignSeeds(List<Kmer> kmerList, int kmerlen) {
-		this.databaseSeedList = convertKmerList(kmerList, kmerlen);
-		this.k = kmerlen;
+		KmerStore store = new KmerStore(kmerlen, kmerList.size());
+		store.addAll(kmerList);
+		assignSeeds(store);
 	}
 	
 	
+	/**
+	 * Restricts seeding to kmers within the regions of <code>filter</code>. The built database is not modified, and the restriction is only applied during candidate enumeration. Restriction is removed if <code>filter</code> is <code>null</code>
+	 * 
+	 * @param filter
+	 */
+	public void setRegionFilter(SeedRegionFilter filter) {
+		if (filter == null)
+			this.regionRanges = null;
+		else {
+			int[][] regionRanges = new int[store.getBlockCount()][];
+			for (int block = 0; block < regionRanges.length; block++)
+				regionRanges[block] = filter.getRanges(store.getBlockSource(block));
+			this.regionRanges = regionRanges;
+		}
+	}
+
+	/**
+	 * Checks if kmer <code>index</code> is within the restricted regions and is not masked as repeat
+	 * 
+	 * @param index
+	 * @return <code>true</code> if the kmer can be a seed candidate
+	 */
+	private boolean isCandidate(int index) {
+		if (maxMultiplicity > 0 && multiplicity != null && multiplicity.get(index) > maxMultiplicity)
+			return false;
+		return regionRanges == null || SeedRegionFilter.contains(regionRanges[store.getKmerBlock(index)], store.getPos(index));
+	}
+
 	public void buildDatabase() {
+		if (seedingmode != -1) {
+			if (seedingmode == 2 && quantileBin > 0)
+				table = FastConversionTable.quantileTable(store, toleranceEar, toleranceMeasure, quantileBin);
+			if (minimizerWindow > 1)
+				assignSeeds(selectMinimizers(store));
+		}
 		switch (seedingmode) {
 			case -1:
 				if (k > 10)
@@ -117,75 +436,216 @@ public class SeedDatabase implements SelectableMode {
 				else
 					seedingmode = 2;
 				buildDatabase();
-				break;
+				return;
 			case 1:
 				buildSortListDatabase();
 				break;
 			case 2:
 				buildBinningDatabase();
 				break;
+			case 3:
+				buildKdTreeDatabase();
+				break;
 			default:
 				System.err.println("Warning! Unknown mode " + Integer.toString(seedingmode));
 				buildSortListDatabase();
 				break;
 		}
+		if (maxMultiplicity > 0)
+			buildMultiplicity();
 	}
 
 	private void buildSortListDatabase() {
-		for (int i = 0; i < k; i++)
-			Collections.sort(databaseSeedList.get(i), Kmer.comparator(i));
-		// Nothing else to do
+		IntBuffer[] sortedIndex = new IntBuffer[k];
+		if (buildThread == 1)
+			for (int i = 0; i < k; i++)
+				sortedIndex[i] = IntBuffer.wrap(sortIndex(i, false));
+		else {
+			// Sort all positions concurrently. Arrays.parallelSort called within the pool also forks its subtasks into the pool
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (int i = 0; i < k; i++) {
+				final int pos = i;
+				tasks.add(ForkJoinTask.adapt(() -> {
+					sortedIndex[pos] = IntBuffer.wrap(sortIndex(pos, true));
+				}));
+			}
+			invokeInPool(tasks);
+		}
+		this.sortedIndex = sortedIndex;
+	}
+
+	private void buildKdTreeDatabase() {
+		if (buildThread == 1)
+			this.kdTree = KmerKdTree.build(store);
+		else {
+			ForkJoinPool pool = new ForkJoinPool(buildThread);
+			try {
+				this.kdTree = pool.invoke(ForkJoinTask.adapt(() -> KmerKdTree.build(store, true)));
+			} finally {
+				pool.shutdown();
+			}
+		}
 	}
 
-	private void buildBinningDatabase() {
-		processFastAccessDatabase(k);
+	/**
+	 * Runs all <code>tasks</code> in a new pool of <code>buildThread</code> threads
+	 * 
+	 * @param tasks
+	 */
+	private void invokeInPool(List<ForkJoinTask<?>> tasks) {
+		ForkJoinPool pool = new ForkJoinPool(buildThread);
+		try {
+			pool.invoke(ForkJoinTask.adapt(() -> {
+				ForkJoinTask.invokeAll(tasks);
+			}));
+		} finally {
+			pool.shutdown();
+		}
 	}
 
-	private void processFastAccessDatabase(int k) {
-		// generate words instead of
-		fastDatabaseSeedMap = new LinkedHashMap<SeedTableKey, List<Kmer>>();
-		List<Kmer> kmerlist = databaseSeedList.get(0);
-		for (Kmer kmer : kmerlist) {
-			SeedTableKey key = table.getKey(kmer);
-			if (!fastDatabaseSeedMap.containsKey(key))
-				fastDatabaseSeedMap.put(key, new ArrayList<Kmer>());
-			fastDatabaseSeedMap.get(key).add(kmer);
+	/**
+	 * Sorts the kmer indices according to the segment size at position <code>pos</code>. Size and index are packed into one primitive long for sorting
+	 * 
+	 * @param pos
+	 * @param parallel
+	 *            uses <code>Arrays.parallelSort</code> if <code>true</code>
+	 * @return sorted kmer indices
+	 */
+	private int[] sortIndex(int pos, boolean parallel) {
+		int n = store.size();
+		long[] packed = new long[n];
+		for (int i = 0; i < n; i++) {
+			long size = store.get(i, pos);
+			if (size < 0 || size > Integer.MAX_VALUE)
+				return sortIndexByComparator(pos);
+			packed[i] = (size << 32) | i;
 		}
+		if (parallel)
+			Arrays.parallelSort(packed);
+		else
+			Arrays.sort(packed);
+		int[] index = new int[n];
+		for (int i = 0; i < n; i++)
+			index[i] = (int) packed[i];
+		return index;
+	}
+
+	private int[] sortIndexByComparator(final int pos) {
+		Integer[] boxedIndex = new Integer[store.size()];
+		for (int i = 0; i < boxedIndex.length; i++)
+			boxedIndex[i] = i;
+		Arrays.sort(boxedIndex, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Long.compare(store.get(i1, pos), store.get(i2, pos));
+			}
+		});
+		return ArrayUtils.toPrimitive(boxedIndex);
+	}
 
+	/**
+	 * Assigns kmers from <code>start</code> (inclusive) to <code>stop</code> (exclusive) to local buckets
+	 * 
+	 * @param kmerBucket
+	 *            the local bucket of each kmer
+	 * @param start
+	 * @param stop
+	 * @return the partial map of keys to local buckets
+	 */
+	private LinkedHashMap<SeedTableKey, Integer> assignBucket(int[] kmerBucket, int start, int stop) {
+		LinkedHashMap<SeedTableKey, Integer> partialMap = new LinkedHashMap<SeedTableKey, Integer>();
+		for (int i = start; i < stop; i++) {
+			SeedTableKey key = table.getKey(store, i);
+			Integer bucket = partialMap.get(key);
+			if (bucket == null) {
+				bucket = partialMap.size();
+				partialMap.put(key, bucket);
+			}
+			kmerBucket[i] = bucket;
+		}
+		return partialMap;
 	}
 
-	private List<List<Kmer>> convertKmerList(List<Kmer> kmerList, int kmerlen) {
-		if (kmerList == null)
-			return null;
-		List<List<Kmer>> kmerlistlist = new ArrayList<List<Kmer>>(); // each sort by kmer pos 1, pos 2, pos 3...
+	private void buildBinningDatabase() {
+		processFastAccessDatabase(k);
+	}
 
-		for (int i = 0; i < kmerlen; i++) {
-			List<Kmer> dummyrefkmerlist = new ArrayList<Kmer>(kmerList);
-			kmerlistlist.add(dummyrefkmerlist);
+	private void processFastAccessDatabase(int k) {
+		// Assign each kmer to a bucket, and then group kmers by bucket using counting sort
+		int n = store.size();
+		int[] kmerBucket = new int[n];
+		// Each chunk of kmers is assigned to local buckets in a partial map
+		int chunks = buildThread == 1 ? 1 : Math.min(buildThread * 4, Math.max(n / 10000, 1));
+		List<LinkedHashMap<SeedTableKey, Integer>> partialMaps = new ArrayList<>();
+		for (int c = 0; c < chunks; c++)
+			partialMaps.add(null);
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int c = 0; c < chunks; c++) {
+			final int chunk = c;
+			final int start = (int) ((long) n * c / chunks);
+			final int stop = (int) ((long) n * (c + 1) / chunks);
+			tasks.add(ForkJoinTask.adapt(() -> {
+				partialMaps.set(chunk, assignBucket(kmerBucket, start, stop));
+			}));
 		}
-		return kmerlistlist;
+		if (chunks == 1)
+			tasks.get(0).invoke();
+		else
+			invokeInPool(tasks);
+
+		// Merge the partial maps in kmer order, such that the global bucket IDs are the same as assigning the kmers serially
+		LinkedHashMap<SeedTableKey, Integer> fastDatabaseSeedMap = new LinkedHashMap<SeedTableKey, Integer>();
+		for (int c = 0; c < chunks; c++) {
+			int[] globalBucket = new int[partialMaps.get(c).size()];
+			for (Entry<SeedTableKey, Integer> entry : partialMaps.get(c).entrySet()) {
+				Integer bucket = fastDatabaseSeedMap.get(entry.getKey());
+				if (bucket == null) {
+					bucket = fastDatabaseSeedMap.size();
+					fastDatabaseSeedMap.put(entry.getKey(), bucket);
+				}
+				globalBucket[entry.getValue()] = bucket;
+			}
+			int start = (int) ((long) n * c / chunks);
+			int stop = (int) ((long) n * (c + 1) / chunks);
+			for (int i = start; i < stop; i++)
+				kmerBucket[i] = globalBucket[kmerBucket[i]];
+		}
+		int[] bucketStart = new int[fastDatabaseSeedMap.size() + 1];
+		for (int i = 0; i < n; i++)
+			bucketStart[kmerBucket[i] + 1]++;
+		for (int b = 0; b < fastDatabaseSeedMap.size(); b++)
+			bucketStart[b + 1] += bucketStart[b];
+		int[] fill = Arrays.copyOf(bucketStart, fastDatabaseSeedMap.size());
+		int[] bucketKmers = new int[n];
+		for (int i = 0; i < n; i++)
+			bucketKmers[fill[kmerBucket[i]]++] = i;
+		this.bucketStart = IntBuffer.wrap(bucketStart);
+		this.bucketKmers = IntBuffer.wrap(bucketKmers);
+		this.fastDatabaseSeedMap = fastDatabaseSeedMap;
+		indexKeys();
+	}
+
+	/**
+	 * Sorts the bucket keys, and sets the cap of key combinations to the square root of the number of buckets. Beyond the cap, enumerating the bins in range present in the sorted keys is faster than looking up every key combination
+	 */
+	private void indexKeys() {
+		sortedKeys = FastConversionTable.sortKeys(fastDatabaseSeedMap.keySet());
+		maxKeyCombinations = Math.max(1, (int) Math.sqrt(fastDatabaseSeedMap.size()));
 	}
 
 	public List<Kmer> getKmerListFromBinning(Kmer kmer, double ear, int measure) {
 		Kmer smallKmer = kmer.newKmer(1 - ear, measure * -1);
 		Kmer largeKmer = kmer.newKmer(1 + ear, measure);
-		List<SeedTableKey> keyList = table.getMatchingKeys(smallKmer, largeKmer, fastDatabaseSeedMap.size(), fastDatabaseSeedMap.keySet());
+		List<SeedTableKey> keyList = table.getMatchingKeys(smallKmer, largeKmer, maxKeyCombinations, fastDatabaseSeedMap.keySet(), sortedKeys);
 		
 		List<Kmer> kmerList = new ArrayList<Kmer>();
 		for (SeedTableKey key : keyList) {
-			List<Kmer> potentialKmerList = fastDatabaseSeedMap.get(key);
-			assert (potentialKmerList != null);
-			for (Kmer refkmer : potentialKmerList) {
-				boolean wrong = false;
-				for (int i = 0; i < refkmer.k(); i++)
-					if (refkmer.get(i) < smallKmer.get(i) || refkmer.get(i) > largeKmer.get(i)) {
-						wrong = true;
-						break;
-					}
-				if (!wrong) {
-					if (refkmer.limitRange(kmer, measure, ear))
-						kmerList.add(refkmer);
-				}
+			Integer bucket = fastDatabaseSeedMap.get(key);
+			assert (bucket != null);
+			for (int i = bucketStart.get(bucket); i < bucketStart.get(bucket + 1); i++) {
+				int index = bucketKmers.get(i);
+				if (isCandidate(index) && store.withinRange(index, smallKmer, largeKmer) && store.limitRange(index, kmer, measure, ear))
+					kmerList.add(store.getKmer(index));
 			}
 		}
 		
@@ -195,72 +655,155 @@ public class SeedDatabase implements SelectableMode {
 	public void testKmer(Kmer kmer, double ear, int measure) {
 		table.testKmer(kmer, ear, measure);
 	}
+
+	/**
+	 * Returns the number of kmers in each bucket of the binning database (seeding mode 2)
+	 * 
+	 * @return bucket occupancy
+	 */
+	public int[] getBucketOccupancy() {
+		if (bucketStart == null)
+			throw new IllegalStateException("Binning database is not built.");
+		int[] occupancy = new int[bucketStart.limit() - 1];
+		for (int b = 0; b < occupancy.length; b++)
+			occupancy[b] = bucketStart.get(b + 1) - bucketStart.get(b);
+		return occupancy;
+	}
+
+	/**
+	 * Returns a summary of the bucket occupancy of the binning database (seeding mode 2), including the number of bins per segment, number of buckets, the occupancy distribution, and the fraction of kmers in the largest 1% of buckets
+	 * 
+	 * @return summary of bucket occupancy
+	 */
+	public String getBucketStatistics() {
+		int[] occupancy = getBucketOccupancy();
+		Arrays.sort(occupancy);
+		int buckets = occupancy.length;
+		long total = 0;
+		for (int o : occupancy)
+			total += o;
+		long topKmers = 0;
+		for (int b = buckets - (buckets + 99) / 100; b < buckets; b++)
+			topKmers += occupancy[b];
+		StringBuilder s = new StringBuilder();
+		s.append("Bins per segment: " + table.getSizeList().size() + "\n");
+		s.append("Buckets: " + buckets + "\n");
+		if (buckets > 0) {
+			s.append(String.format("Kmers per bucket: min %d, median %d, mean %.2f, max %d", occupancy[0], occupancy[buckets / 2], total / (double) buckets, occupancy[buckets - 1]) + "\n");
+			s.append(String.format("Kmers in the largest 1%% buckets: %.2f%%", topKmers * 100.0 / total));
+		}
+		return s.toString();
+	}
+
+	private int getSortedIndex(int pos, int i) {
+		return sortedIndex == null ? i : sortedIndex[pos].get(i);
+	}
+
+	private int binarySearch(int pos, long size) {
+		int low = 0;
+		int high = store.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midSize = store.get(getSortedIndex(pos, mid), pos);
+			if (midSize < size)
+				low = mid + 1;
+			else if (midSize > size)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns the sorted kmer indices which are also present in <code>range</code>
+	 * 
+	 * @param sortedCandidates
+	 * @param range
+	 * @return intersected kmer indices in ascending order
+	 */
+	private int[] intersect(int[] sortedCandidates, int[] range) {
+		Arrays.sort(range);
+		int[] intersection = new int[Math.min(sortedCandidates.length, range.length)];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < sortedCandidates.length && j < range.length) {
+			if (sortedCandidates[i] < range[j])
+				i++;
+			else if (sortedCandidates[i] > range[j])
+				j++;
+			else {
+				intersection[size++] = sortedCandidates[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(intersection, size);
+	}
+
 	public List<Kmer> getKmerListFromSortList(Kmer kmer, double ear, int measure) {
-		List<Kmer> matchedkmerlist = null;
+		int[] matchedIndex = null;
 		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
 		Kmer largekmer = kmer.newKmer(1 + ear, measure);
-		// long smalllen = smallkmer.length();
-		// long largelen = largekmer.length();
-		// HashSet<Kmer> kmerHash = new HashSet<Kmer>();
 		for (int i = 0; i < kmer.k(); i++) {
-			List<Kmer> refkmerlist = databaseSeedList.get(i);
-			int startpos = Collections.binarySearch(refkmerlist, smallkmer, Kmer.comparator(i));
+			int startpos = binarySearch(i, smallkmer.get(i));
 			if (startpos < 0)
 				startpos = (startpos + 1) * -1;
 			else {
 				while (startpos >= 0) {
-					if (smallkmer.compare(refkmerlist.get(startpos), i) > 0)
+					if (smallkmer.get(i) > store.get(getSortedIndex(i, startpos), i))
 						break;
 					startpos--;
 				}
 				startpos++;
 			}
-			int stoppos = Collections.binarySearch(refkmerlist, largekmer, Kmer.comparator(i));
+			int stoppos = binarySearch(i, largekmer.get(i));
 			if (stoppos < 0)
 				stoppos = (stoppos + 1) * -1;
 			else {
-				while (stoppos < refkmerlist.size()) {
-					if (largekmer.compare(refkmerlist.get(stoppos), i) < 0)
+				while (stoppos < store.size()) {
+					if (largekmer.get(i) < store.get(getSortedIndex(i, stoppos), i))
 						break;
 					stoppos++;
 				}
 			}
-			stoppos--;
+			int[] range = new int[Math.max(stoppos - startpos, 0)];
+			for (int j = 0; j < range.length; j++)
+				range[j] = getSortedIndex(i, startpos + j);
+			if (matchedIndex == null) {
+				Arrays.sort(range);
+				matchedIndex = range;
+			} else
+				matchedIndex = intersect(matchedIndex, range);
+			if (matchedIndex.length == 0)
+				break;
+		}
+		List<Kmer> kmerList = new ArrayList<Kmer>();
+		if (matchedIndex != null)
+			for (int index : matchedIndex)
+				if (isCandidate(index) && store.limitRange(index, kmer, measure, ear))
+					kmerList.add(store.getKmer(index));
+		return kmerList;
 
-			List<Kmer> sublist = refkmerlist.subList(startpos, stoppos + 1);
-			if (matchedkmerlist == null) {
-				matchedkmerlist = new ArrayList<Kmer>(sublist);
-				// matchedkmerlist = new ArrayList<Kmer>();
-				// for (Kmer km : sublist)
-				// {
-				// if (km.len <= largelen && km.len >= smalllen)
-				// matchedkmerlist.add(km);
-				// }
-			} else {
-				List<Kmer> newlist = new ArrayList<Kmer>();
-				if (matchedkmerlist.size() > sublist.size()) {
-					Set<Kmer> subset = new HashSet<Kmer>(sublist);
-					for (Kmer candidatekmer : matchedkmerlist)
-						if (subset.contains(candidatekmer))
-							newlist.add(candidatekmer);
-				} else {
-					Set<Kmer> subset = new HashSet<Kmer>(matchedkmerlist);
-					for (Kmer candidatekmer : sublist) {
-						if (subset.contains(candidatekmer))
-							newlist.add(candidatekmer);
-					}
-				}
-				matchedkmerlist = newlist;
-			}
+	}
 
+	public List<Kmer> getKmerListFromKdTree(Kmer kmer, double ear, int measure) {
+		if (kdTree == null)
+			throw new IllegalStateException("K-d tree database is not built.");
+		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
+		Kmer largekmer = kmer.newKmer(1 + ear, measure);
+		long[] lower = new long[kmer.k()];
+		long[] upper = new long[kmer.k()];
+		for (int i = 0; i < kmer.k(); i++) {
+			lower[i] = smallkmer.get(i);
+			upper[i] = largekmer.get(i);
 		}
 		List<Kmer> kmerList = new ArrayList<Kmer>();
-		for (Kmer matchedkmer : matchedkmerlist) {
-			if (matchedkmer.limitRange(kmer, measure, ear))
-				kmerList.add(matchedkmer);
-		}
+		for (int index : kdTree.query(lower, upper))
+			if (isCandidate(index) && store.limitRange(index, kmer, measure, ear))
+				kmerList.add(store.getKmer(index));
 		return kmerList;
-
 	}
 
 	public List<Kmer> getKmerList(Kmer kmer, double ear, int measure) {
@@ -275,6 +818,8 @@ public class SeedDatabase implements SelectableMode {
 				return getKmerListFromSortList(kmer, ear, measure);
 			case 2:
 				return getKmerListFromBinning(kmer, ear, measure);
+			case 3:
+				return getKmerListFromKdTree(kmer, ear, measure);
 			default:
 				System.err.println("Warning! Unknown mode " + Integer.toString(seedingmode));
 				System.exit(0);
@@ -298,13 +843,139 @@ public class SeedDatabase implements SelectableMode {
 	}
 
 	public List<Seed> getJoinedSeed(List<Kmer> kmerList, double ear, int measure) {
-		List<Seed> seedList = new ArrayList<>();
-		for (Kmer kmer : kmerList)
-		  seedList.addAll(getSeed(kmer, ear, measure)); // This can join the seeds at this updated version
-		return seedList;
+		return getJoinedSeed(kmerList, ear, measure, new ArrayList<Seed>());
+	}
+
+	/**
+	 * Gets the seeds of all query kmers in one batch. <code>seedBuffer</code> is cleared and filled with the seeds, such that the same buffer can be reused for every query. Seeds are ordered in the same way as calling {@link #getSeed(Kmer, double, int)} on each kmer in order.
+	 * <p>
+	 * On a built sorted list database (seeding mode 1), query kmers are sorted by the size of the first segment, and the sorted index of the first segment is walked once in a merge-style pass. Candidates are then checked on all segments. Other seeding modes look up each kmer separately.
+	 * 
+	 * @param kmerList
+	 *            query kmers
+	 * @param ear
+	 * @param measure
+	 * @param seedBuffer
+	 *            a reusable list to store the seeds
+	 * @return <code>seedBuffer</code>
+	 */
+	public List<Seed> getJoinedSeed(List<Kmer> kmerList, double ear, int measure, List<Seed> seedBuffer) {
+		seedBuffer.clear();
+		if (seedingmode == 1 && sortedIndex != null && !kmerList.isEmpty())
+			getBatchSeedFromSortList(kmerList, ear, measure, seedBuffer);
+		else
+			for (Kmer kmer : kmerList)
+				seedBuffer.addAll(getSeed(kmer, ear, measure)); // This can join the seeds at this updated version
+		return seedBuffer;
 //		return seedJoin2(seedList, k);
 	}
 
+	/**
+	 * Sorts the kmers by the size of the first segment. Kmers of the same size are kept in the original order
+	 * 
+	 * @param kmerList
+	 * @return indices of kmers in <code>kmerList</code> in sorted order
+	 */
+	private static int[] sortByFirstSize(List<Kmer> kmerList) {
+		// Each size is packed with its index into a primitive key, unless the size does not fit into 32 bits
+		long[] order = new long[kmerList.size()];
+		boolean packable = true;
+		for (int q = 0; q < order.length; q++) {
+			long size = kmerList.get(q).get(0);
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				packable = false;
+				break;
+			}
+			order[q] = (size << 32) | q;
+		}
+		int[] queryOrder = new int[order.length];
+		if (packable) {
+			Arrays.sort(order);
+			for (int q = 0; q < order.length; q++)
+				queryOrder[q] = (int) order[q];
+		} else {
+			Integer[] boxedOrder = new Integer[order.length];
+			for (int q = 0; q < boxedOrder.length; q++)
+				boxedOrder[q] = q;
+			Arrays.sort(boxedOrder, (q1, q2) -> Long.compare(kmerList.get(q1).get(0), kmerList.get(q2).get(0)));
+			for (int q = 0; q < boxedOrder.length; q++)
+				queryOrder[q] = boxedOrder[q];
+		}
+		return queryOrder;
+	}
+
+	private void getBatchSeedFromSortList(List<Kmer> kmerList, double ear, int measure, List<Seed> seedBuffer) {
+		// Sort the query kmers by the size of the first segment. Both the lower and upper bounds are then in ascending order
+		int[] queryOrder = sortByFirstSize(kmerList);
+
+		int[][] matchedIndex = new int[kmerList.size()][];
+		int[] candidates = new int[16];
+		int startpos = 0;
+		int stoppos = 0;
+		for (int q : queryOrder) {
+			Kmer kmer = kmerList.get(q);
+			Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
+			Kmer largekmer = kmer.newKmer(1 + ear, measure);
+			startpos = gallop(startpos, smallkmer.get(0), true);
+			stoppos = gallop(Math.max(startpos, stoppos), largekmer.get(0), false);
+			int size = 0;
+			for (int p = startpos; p < stoppos; p++) {
+				int index = sortedIndex[0].get(p);
+				if (isCandidate(index) && store.withinRange(index, smallkmer, largekmer) && store.limitRange(index, kmer, measure, ear)) {
+					if (size == candidates.length)
+						candidates = Arrays.copyOf(candidates, size * 2);
+					candidates[size++] = index;
+				}
+			}
+			matchedIndex[q] = Arrays.copyOf(candidates, size);
+			Arrays.sort(matchedIndex[q]);
+		}
+
+		for (int q = 0; q < matchedIndex.length; q++) {
+			Kmer kmer = kmerList.get(q);
+			for (int index : matchedIndex[q]) {
+				Seed s = new Seed(store.getKmer(index), new Kmer(kmer));
+				if (s.limitRange(measure, ear))
+					seedBuffer.add(s);
+			}
+		}
+	}
+
+	/**
+	 * Returns the first position not smaller than <code>from</code> in the sorted index of the first segment, where the segment size is larger than (or equal to, if <code>inclusive</code>) <code>size</code>. Exponential search is used starting from <code>from</code>, such that the cost depends on the distance moved instead of the database size.
+	 * 
+	 * @param from
+	 * @param size
+	 * @param inclusive
+	 * @return the position, or the database size if no such position exists
+	 */
+	private int gallop(int from, long size, boolean inclusive) {
+		int n = store.size();
+		int low = from;
+		int high = from;
+		int step = 1;
+		while (high < n && !passBound(high, size, inclusive)) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		if (high > n)
+			high = n;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (passBound(mid, size, inclusive))
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	private boolean passBound(int p, long size, boolean inclusive) {
+		long pSize = store.get(sortedIndex[0].get(p), 0);
+		return inclusive ? pSize >= size : pSize > size;
+	}
+
 	/**
 	 * A method to concatenate close seeds into one seed. Saves time for extension but decreases accuracy
 	 * @param pooledSeedList
@@ -430,250 +1101,190 @@ public class SeedDatabase implements SelectableMode {
 		return filteredKmerList;
 	}
 
-	public SeedDatabase copy() {
-		SeedDatabase seedDatabase = new SeedDatabase(databaseSeedList);
-		seedDatabase.setMode(seedingmode);
-		seedDatabase.setParameters(k, maxnosignalregion);
-		seedDatabase.fastDatabaseSeedMap = this.fastDatabaseSeedMap;
-		seedDatabase.table = this.table;
-		return seedDatabase;
+	/**
+	 * Removes query kmers in low-complexity regions. A kmer is removed if it is similar to <code>maxSeedNumber</code> or more kmers (including itself) of the same source within <code>maxSignalConsidered</code> signals. The same criteria as {@link #filter(List, double, int, int, int)} are used, but no seed database is built: the kmers are sorted by the first segment size, and only kmers within the first segment tolerance are checked.
+	 * 
+	 * @param kmerList
+	 *            query kmers
+	 * @param ear
+	 * @param measure
+	 * @param maxSeedNumber
+	 * @param maxSignalConsidered
+	 *            -1 to consider kmers of any distance
+	 * @return filtered kmers in the original order
+	 */
+	public static List<Kmer> filterLowComplexity(List<Kmer> kmerList, double ear, int measure, int maxSeedNumber, int maxSignalConsidered) {
+		if (maxSignalConsidered == -1)
+			maxSignalConsidered = Integer.MAX_VALUE;
+		int m = kmerList.size();
+		int[] order = sortByFirstSize(kmerList);
+		long[] firstSizes = new long[m];
+		for (int q = 0; q < m; q++)
+			firstSizes[q] = kmerList.get(order[q]).get(0);
+
+		boolean[] retained = new boolean[m];
+		int startpos = 0;
+		int stoppos = 0;
+		// Bounds of the first segment are ascending as kmers are visited in sorted order
+		for (int q = 0; q < m; q++) {
+			Kmer kmer = kmerList.get(order[q]);
+			long smallSize = (long) (kmer.get(0) * (1 - ear)) - measure;
+			long largeSize = (long) (kmer.get(0) * (1 + ear)) + measure;
+			while (startpos < m && firstSizes[startpos] < smallSize)
+				startpos++;
+			if (stoppos < startpos)
+				stoppos = startpos;
+			while (stoppos < m && firstSizes[stoppos] <= largeSize)
+				stoppos++;
+			int r = 0;
+			for (int p = startpos; p < stoppos && r < maxSeedNumber; p++) {
+				Kmer target = kmerList.get(order[p]);
+				if (!kmer.source.equalsIgnoreCase(target.source))
+					continue;
+				if (kmer.pos > target.pos) {
+					if (kmer.pos - target.pos - target.k() > maxSignalConsidered)
+						continue;
+				} else if (target.pos - kmer.pos - kmer.k() > maxSignalConsidered)
+					continue;
+				if (similar(kmer, target, ear, measure))
+					r++;
+			}
+			r++;
+			if (r <= maxSeedNumber)
+				retained[order[q]] = true;
+		}
+		List<Kmer> filteredKmerList = new ArrayList<Kmer>();
+		for (int q = 0; q < m; q++)
+			if (retained[q])
+				filteredKmerList.add(kmerList.get(q));
+		return filteredKmerList;
 	}
 
-	public static void assignOptions(ExtendOptionParser parser, int level) {
-		parser.addHeader("Seeding Options", level);
-		parser.accepts("seedingmode", "Seeding mode: 1: Optimized for long k-mer (usually for k larger than 10); 2: Optimized for short k-mer (usually for k smaller than or equal to 10); -1: Auto-selection. ").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
-		parser.accepts("k", "Kmer length.").withRequiredArg().ofType(Integer.class).defaultsTo(3);
-		parser.accepts("maxnosignal", "Maximum no signal region between signals for seeding.").withRequiredArg().ofType(Integer.class).defaultsTo(10000000);
-
+	/**
+	 * Checks if <code>target</code> is a seed of <code>kmer</code> with the same criteria as seeding
+	 */
+	private static boolean similar(Kmer kmer, Kmer target, double ear, int measure) {
+		for (int i = 0; i < kmer.k(); i++) {
+			long size = target.get(i);
+			if (size < (long) (kmer.get(i) * (1 - ear)) - measure || size > (long) (kmer.get(i) * (1 + ear)) + measure)
+				return false;
+		}
+		return target.limitRange(kmer, measure, ear);
 	}
-}
-class SeedTableKey {
-	public final int[] key;
 
-	public SeedTableKey(int[] key) {
-		this.key = key;
-	}
-	
-	@Override
-	public int hashCode() {
-		return Arrays.hashCode(key);
+	/**
+	 * @return the number of reference kmers kept in the database
+	 */
+	public int getKmerCount() {
+		return store.size();
 	}
-	@Override
-	public boolean equals(Object obj) {
-		if (obj == null)
-			return false;
-		if (!(obj instanceof SeedTableKey))
-			return false;
-		return Arrays.equals(this.key, ((SeedTableKey) obj).key);
+
+	// Accessors used by SeedIndexFile for storing and restoring the built structures
+	KmerStore getKmerStore() {
+		return store;
 	}
-}
 
-class FastConversionTable {
-	private List<Integer> sizelist; // final size must be Integer.max
-	private List<Integer> rclist;
+	int getK() {
+		return k;
+	}
 
-	public FastConversionTable(List<Integer> sizelist, List<Integer> rclist) {
-		this.sizelist = sizelist;
-		this.rclist = rclist;
-		if (rclist.size() - sizelist.size() != 0)
-			System.err.println("Table corrupted. List Size Inappropriate. Proceed anyway.");
+	int getMaxNoSignalRegion() {
+		return maxnosignalregion;
 	}
 
-	public SeedTableKey getKey(Kmer kmer) {
-		int[] kmerKey = new int[kmer.k()];
-		for (int i = 0; i < kmer.k(); i++) {
-			long possize = kmer.get(i);
-			int pt = 0;
-			while (possize > sizelist.get(pt))
-				pt++;
-			kmerKey[i] = rclist.get(pt);
-		}
-		return new SeedTableKey(kmerKey);
+	FastConversionTable getTable() {
+		return table;
 	}
 
-	private int calcKeyCombinations(int[] smallKey, int[] largeKey) {
-		long product = 1;
-		for (int i = 0; i < smallKey.length; i++) {
-			assert largeKey[i] >= smallKey[i];
-			product *= (largeKey[i] - smallKey[i] + 1);
-			if (product > Integer.MAX_VALUE)
-				return Integer.MAX_VALUE;
-		}
-		return (int) product;
-	}
-	private void assignCombinedKeys(int[] smallKey, int[] largeKey, int[] current, int pos, List<SeedTableKey> combinedKeys) {
-		for (int i = smallKey[pos]; i <= largeKey[pos]; i++) {
-			current[pos] = i;
-			if (pos == smallKey.length - 1) {
-				int[] newKey = new int[current.length]; 
-				System.arraycopy(current, 0, newKey, 0, current.length);
-				combinedKeys.add(new SeedTableKey(newKey));
-			}
-			else
-				assignCombinedKeys(smallKey, largeKey, current, pos + 1, combinedKeys);
-		}
+	IntBuffer[] getSortedIndex() {
+		return sortedIndex;
 	}
-	/**
-	 * Check if the targetKey is within the range of smallKey and largeKey
-	 * @param targetKey
-	 * @param smallKey
-	 * @param largeKey
-	 * @return <code>true</code> if the targetKey is within the range
-	 */
-	private boolean withinRange(int[] targetKey, int[] smallKey, int[] largeKey) {
-		assert targetKey.length == smallKey.length;
-		assert targetKey.length == largeKey.length;
-		for (int i = 0; i < targetKey.length; i++) {
-			if (targetKey[i] < smallKey[i])
-				return false;
-			if (targetKey[i] > largeKey[i])
-				return false;
-		}
-		return true;
+
+	IntBuffer getMultiplicity() {
+		return multiplicity;
 	}
-	
-	public List<SeedTableKey> getKeys(Kmer smallKmer, Kmer largeKmer, int maxCombinations) throws TooManyKeyCombinationsException {
-		assert smallKmer.k() > 0;
-		assert smallKmer.k() == largeKmer.k();
-		int[] smallKey = getKey(smallKmer).key;
-		int[] largeKey = getKey(largeKmer).key;
-		assert validateSmallAndLargeKeys(smallKey, largeKey);
-		int combinations = calcKeyCombinations(smallKey, largeKey);
-		if (combinations > maxCombinations)
-			throw new TooManyKeyCombinationsException();
-		List<SeedTableKey> combinedKeys = new ArrayList<>(combinations);
-		assignCombinedKeys(smallKey, largeKey, new int[smallKmer.k()], 0, combinedKeys);
-		assert validateCombinedKeys(combinedKeys, smallKey, largeKey) : "Incorrect key combinations.";
-		return combinedKeys;
+
+	LinkedHashMap<String, Long> getReferenceSizes() {
+		return referenceSizes;
 	}
-	public List<SeedTableKey> getMatchingKeys(Kmer smallKmer, Kmer largeKmer, int maxCombinations, Set<SeedTableKey> referenceSet) {
-		List<SeedTableKey> matchingKeys = new ArrayList<>();
-		try {
-			List<SeedTableKey> combinedKeys = getKeys(smallKmer, largeKmer, maxCombinations);
-			for (SeedTableKey key : combinedKeys)
-				if (referenceSet.contains(key))
-					matchingKeys.add(key);
-		} catch (TooManyKeyCombinationsException e) {
-			// Escape routine when key combinations exceed the max combinations
-			// Use linear search for all matching keys 
-			int[] smallKey = getKey(smallKmer).key;
-			int[] largeKey = getKey(largeKmer).key;
-			for (SeedTableKey targetKey : referenceSet)
-				if (withinRange(targetKey.key, smallKey, largeKey))
-					matchingKeys.add(targetKey);
-		}
-		assert referenceSet.containsAll(matchingKeys);
-		return matchingKeys;
+
+	void assignReferenceSizes(LinkedHashMap<String, Long> referenceSizes) {
+		this.referenceSizes = referenceSizes;
 	}
-	
-	private boolean validateSmallAndLargeKeys(int[] smallKey, int[] largeKey) {
-		if (smallKey.length != largeKey.length)
-			return false;
-		for (int i = 0; i < smallKey.length; i++)
-			if (largeKey[i] < smallKey[i])
-				return false;
-		return true;
+
+	void assignMultiplicity(IntBuffer multiplicity) {
+		if (multiplicity.limit() != store.size())
+			throw new IllegalArgumentException("Inconsistent size of kmer multiplicity.");
+		this.multiplicity = multiplicity;
 	}
-	private boolean validateCombinedKeys(List<SeedTableKey> combinedKeys, int[] smallKey, int[] largeKey) {
-		// Total no. of keys equal to the no. of combinations
-		if (calcKeyCombinations(smallKey, largeKey) != combinedKeys.size())
-			return false;
-		// Each key must be unique
-		HashSet<SeedTableKey> set = new HashSet<>();
-		for (SeedTableKey key : combinedKeys)
-			if (!set.add(key))
-				return false;
-		// Each key is within the range of smallKey and largeKey
-		for (SeedTableKey key : combinedKeys)
-			if (!withinRange(key.key, smallKey, largeKey))
-					return false;
-		return true;
+
+	KmerKdTree getKdTree() {
+		return kdTree;
 	}
-	
-	public void testKmer(Kmer kmer, double ear, int measure) {
-		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
-		Kmer largekmer = kmer.newKmer(1 + ear, measure);
-		int[] smallkey = getKey(smallkmer).key;
-		int[] largekey = getKey(largekmer).key; 
-		
-		int combinations[] = new int[kmer.k()]; 
-		for (int i = 0; i < smallkey.length; i++) {
-			combinations[i] = largekey[i] - smallkey[i] + 1;
-		}
-		int product = 1;
-		for (int i = 0; i < smallkey.length; i++) {
-			product *= combinations[i];
-		}
-		if (product > 100000)
-			System.out.println(product + "\t" + Arrays.toString(combinations) + "\t" + kmer.toString());
+
+	LinkedHashMap<SeedTableKey, Integer> getFastDatabaseSeedMap() {
+		return fastDatabaseSeedMap;
 	}
 
-	public static FastConversionTable standardTable() {
-		int gap = 5000;
-		List<Integer> clist = new ArrayList<>();
-		List<Integer> sizelist = new ArrayList<>();
-		int recent = 0;
-		int next = 1;
-		for (int i = 1; i < 255; i++) {
-			recent += gap;
-			sizelist.add(recent);
-			clist.add(i);
-			next++;
-		}
-		sizelist.add(Integer.MAX_VALUE);
-		clist.add(next);
-		return new FastConversionTable(sizelist, clist);
+	IntBuffer getBucketStart() {
+		return bucketStart;
 	}
-	
-	public static FastConversionTable advancedTable(double ear, int measure, int minSize, int maxSize) {
-		List<Integer> clist = new ArrayList<>();
-		List<Integer> sizelist = new ArrayList<>();
-		int recent = 0;
-		int next = 1;
-		int gap = minSize;
-		while (true) {
-			if ((recent * ear + measure) * 2 > gap) {
-				gap = (int) ((recent * ear + measure) * 2);
-			}
-			if ((long) gap + (long) recent > maxSize)
-				break;
-			recent += gap;
-			sizelist.add(recent);
-			clist.add(next);
-			next++;
-		}
-		sizelist.add(Integer.MAX_VALUE);
-		clist.add(next);
-		return new FastConversionTable(sizelist, clist);
+
+	IntBuffer getBucketKmers() {
+		return bucketKmers;
 	}
-}
-class TooManyKeyCombinationsException extends Exception {
 
-	public TooManyKeyCombinationsException() {
-		super();
-		// TODO Auto-generated constructor stub
+	void assignSortListDatabase(IntBuffer[] sortedIndex) {
+		if (sortedIndex.length != k)
+			throw new IllegalArgumentException("Inconsistent k of the sorted index.");
+		this.sortedIndex = sortedIndex;
 	}
 
-	public TooManyKeyCombinationsException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
-		super(message, cause, enableSuppression, writableStackTrace);
-		// TODO Auto-generated constructor stub
+	void assignKdTreeDatabase(IntBuffer tree) {
+		this.kdTree = new KmerKdTree(store, tree);
 	}
 
-	public TooManyKeyCombinationsException(String message, Throwable cause) {
-		super(message, cause);
-		// TODO Auto-generated constructor stub
+	void assignBinningDatabase(FastConversionTable table, LinkedHashMap<SeedTableKey, Integer> fastDatabaseSeedMap, IntBuffer bucketStart, IntBuffer bucketKmers) {
+		this.table = table;
+		this.fastDatabaseSeedMap = fastDatabaseSeedMap;
+		this.bucketStart = bucketStart;
+		this.bucketKmers = bucketKmers;
+		indexKeys();
 	}
 
-	public TooManyKeyCombinationsException(String message) {
-		super(message);
-		// TODO Auto-generated constructor stub
+	public SeedDatabase copy() {
+		SeedDatabase seedDatabase = new SeedDatabase(store);
+		seedDatabase.setMode(seedingmode);
+		seedDatabase.setParameters(k, maxnosignalregion);
+		seedDatabase.buildThread = this.buildThread;
+		seedDatabase.setErrorTolerance(toleranceEar, toleranceMeasure);
+		seedDatabase.setBinning(quantileBin);
+		seedDatabase.setRepeatMask(maxMultiplicity);
+		seedDatabase.multiplicity = this.multiplicity;
+		seedDatabase.minimizerWindow = this.minimizerWindow;
+		seedDatabase.referenceSizes = this.referenceSizes;
+		seedDatabase.sortedIndex = this.sortedIndex;
+		seedDatabase.kdTree = this.kdTree;
+		seedDatabase.fastDatabaseSeedMap = this.fastDatabaseSeedMap;
+		seedDatabase.sortedKeys = this.sortedKeys;
+		seedDatabase.maxKeyCombinations = this.maxKeyCombinations;
+		seedDatabase.bucketStart = this.bucketStart;
+		seedDatabase.bucketKmers = this.bucketKmers;
+		seedDatabase.table = this.table;
+		return seedDatabase;
 	}
 
-	public TooManyKeyCombinationsException(Throwable cause) {
-		super(cause);
-		// TODO Auto-generated constructor stub
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Seeding Options", level);
+		parser.accepts("seedingmode", "Seeding mode: 1: Optimized for long k-mer (usually for k larger than 10); 2: Optimized for short k-mer (usually for k smaller than or equal to 10); 3: k-d tree range index for long k-mer; -1: Auto-selection. ").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
+		parser.accepts("k", "Kmer length.").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		parser.accepts("maxnosignal", "Maximum no signal region between signals for seeding.").withRequiredArg().ofType(Integer.class).defaultsTo(10000000);
+		parser.accepts("maxrefkmerfreq", "Maximum number of similar reference kmers of a seed. Repetitive reference kmers exceeding this number are masked. The multiplicity is precomputed on building the seed database. 0: No masking.").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+		parser.accepts("minimizerwindow", "Window size of minimizer sparse seeding. Only the minimizer of every window of consecutive kmers is used on both reference and query. 1: Use all kmers.").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("quantilebin", "Number of bins derived from quantiles of reference segment sizes in seeding mode 2. Bins are never narrower than the error tolerance (meas and ear). 0: Use the fixed binning table.").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+		parser.accepts("kmererror", "Maximum number of skipped signals in reference kmers (0 to 2). Error kmers of merged segments are indexed to seed queries with missing signals. 0: Error-free kmers only.").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+
 	}
-	
 }
 /*
 
@@ -29,14 +29,21 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
-public class SeedDatabaseWrapper implements Callable<List<Kmer>> {
+/**
+ * A lookup task of a batch of kmers on a shared seed database
+ * 
+ * @author Alden
+ *
+ */
+public class SeedDatabaseWrapper implements Callable<List<SeedingResultNode>> {
 	private SeedDatabase seedDatabase;
 	private double ear;
 	private int measure;
-	private Kmer kmer;
+	private List<Kmer> kmerList;
 	public SeedDatabaseWrapper(SeedDatabase seedDatabase) {
 		this.seedDatabase = seedDatabase;
 	}
@@ -44,15 +51,17 @@ public class SeedDatabaseWrapper implements Callable<List<Kmer>> {
 		this.measure = measure;
 		this.ear = ear;
 	}
-	public void setKmer(Kmer kmer) {
-		this.kmer = kmer;
+	public void setKmers(List<Kmer> kmerList) {
+		this.kmerList = kmerList;
 	}
-	public Kmer getKmer() {
-		return kmer;
+	public List<Kmer> getKmers() {
+		return kmerList;
 	}
 	@Override
-	public List<Kmer> call() {
-		return seedDatabase.getKmerList(kmer, ear, measure);
+	public List<SeedingResultNode> call() {
+		List<SeedingResultNode> resultList = new ArrayList<SeedingResultNode>(kmerList.size());
+		for (Kmer kmer : kmerList)
+			resultList.add(new SeedingResultNode(kmer, seedDatabase.getKmerList(kmer, ear, measure)));
+		return resultList;
 	}
 }
-
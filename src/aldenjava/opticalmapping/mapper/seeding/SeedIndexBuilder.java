@@ -0,0 +1,104 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+import joptsimple.OptionSet;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.ReferenceReader;
+import aldenjava.opticalmapping.mapper.AlignmentOptions;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.VerbosePrinter;
+
+/**
+ * Builds the seed database of a reference and writes it into a seed index file. The index can be reused by <code>OMBlastMapper</code> through <code>--seedindexin</code>, such that the reference kmers are not regenerated and sorted in every run.
+ * 
+ * @author Alden
+ *
+ */
+public class SeedIndexBuilder {
+
+	public static SeedDatabase build(LinkedHashMap<String, DataNode> optrefmap, int seedingmode, int k, int maxnosignalregion) {
+		return build(optrefmap, seedingmode, k, maxnosignalregion, 1);
+	}
+
+	public static SeedDatabase build(LinkedHashMap<String, DataNode> optrefmap, int seedingmode, int k, int maxnosignalregion, int thread) {
+		return build(optrefmap, seedingmode, k, maxnosignalregion, thread, 0, 0, 1, 0.1, 500);
+	}
+
+	public static SeedDatabase build(LinkedHashMap<String, DataNode> optrefmap, int seedingmode, int k, int maxnosignalregion, int thread, int quantileBin, int maxRefKmerFreq, int minimizerWindow, double ear, int measure) {
+		return build(optrefmap, seedingmode, k, maxnosignalregion, thread, quantileBin, maxRefKmerFreq, minimizerWindow, 0, ear, measure);
+	}
+
+	public static SeedDatabase build(LinkedHashMap<String, DataNode> optrefmap, int seedingmode, int k, int maxnosignalregion, int thread, int quantileBin, int maxRefKmerFreq, int minimizerWindow, int kmerError, double ear, int measure) {
+		SeedDatabase seedDatabase = new SeedDatabase(DataNode.getKmerStore(optrefmap, k, maxnosignalregion, kmerError));
+		seedDatabase.setMode(seedingmode);
+		seedDatabase.setParameters(k, maxnosignalregion);
+		seedDatabase.setBuildThread(thread);
+		seedDatabase.setErrorTolerance(ear, measure);
+		seedDatabase.setBinning(quantileBin);
+		seedDatabase.setRepeatMask(maxRefKmerFreq);
+		seedDatabase.setMinimizerWindow(minimizerWindow);
+		seedDatabase.buildDatabase();
+		return seedDatabase;
+	}
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Seed Index Options", level);
+		parser.accepts("seedindexout", "Output seed index file").withRequiredArg().ofType(String.class).required();
+		parser.accepts("thread", "Number of threads").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		SeedDatabase.assignOptions(parser, level + 1);
+		AlignmentOptions.assignErrorToleranceOptions(parser);
+	}
+
+	public static void main(String[] args) throws IOException {
+		ExtendOptionParser parser = new ExtendOptionParser(SeedIndexBuilder.class.getSimpleName(), "Builds the seed index of a reference for OMBlastMapper. The same k, maxnosignal and seedingmode should be used in OMBlastMapper with --seedindexin.");
+		SeedIndexBuilder.assignOptions(parser, 1);
+		ReferenceReader.assignOptions(parser, 1);
+		if (args.length == 0) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+		OptionSet options = parser.parse(args);
+		VerbosePrinter.println("Reading reference...");
+		LinkedHashMap<String, DataNode> optrefmap = ReferenceReader.readAllData(options);
+		VerbosePrinter.println("Building seed database...");
+		SeedDatabase seedDatabase = build(optrefmap, (int) options.valueOf("seedingmode"), (int) options.valueOf("k"), (int) options.valueOf("maxnosignal"), (int) options.valueOf("thread"),
+				(int) options.valueOf("quantilebin"), (int) options.valueOf("maxrefkmerfreq"), (int) options.valueOf("minimizerwindow"), (int) options.valueOf("kmererror"), (double) options.valueOf("ear"), (int) options.valueOf("meas"));
+		if (seedDatabase.getMode() == 2)
+			VerbosePrinter.println(seedDatabase.getBucketStatistics());
+		VerbosePrinter.println("Writing seed index...");
+		SeedIndexFile.write(seedDatabase, optrefmap, (String) options.valueOf("seedindexout"));
+		VerbosePrinter.println("Program ends.");
+	}
+}
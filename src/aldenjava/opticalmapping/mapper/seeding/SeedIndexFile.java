@@ -0,0 +1,335 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * Reads and writes the binary seed index file. The file stores the reference kmers and the built seed database (sorted index for seeding mode 1, binning table for seeding mode 2 or k-d tree for seeding mode 3). A seed index is memory-mapped read-only on reading, such that all mapper threads (and processes on the same machine) share one copy in the page cache.
+ * <p>
+ * Layout: a header (magic, version, parameters including the minimizer window, conversion table, reference names and sizes, block sources and lengths) followed by sections of big-endian primitives, i.e. block segment sizes, kmer blocks, kmer positions, kmer offsets, the optional skipped signals of error kmers, and then the sorted index (mode 1), the bucket keys, bucket starts and bucket kmers (mode 2), or the k-d tree (mode 3), and finally the optional reference kmer multiplicity.
+ * 
+ * @author Alden
+ *
+ */
+public class SeedIndexFile {
+
+	private static final int MAGIC = 0x4F4D5349; // OMSI
+	private static final int VERSION = 5;
+
+	/**
+	 * Writes a built <code>seedDatabase</code> into a seed index file
+	 * 
+	 * @param seedDatabase
+	 * @param optrefmap
+	 *            the references <code>seedDatabase</code> is built from
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void write(SeedDatabase seedDatabase, LinkedHashMap<String, DataNode> optrefmap, String filename) throws IOException {
+		int mode = seedDatabase.getMode();
+		if (mode == 1 && seedDatabase.getSortedIndex() == null || mode == 2 && seedDatabase.getFastDatabaseSeedMap() == null || mode == 3 && seedDatabase.getKdTree() == null || mode < 1 || mode > 3)
+			throw new IllegalStateException("Seed database must be built before writing.");
+		KmerStore store = seedDatabase.getKmerStore();
+		int k = seedDatabase.getK();
+		FastConversionTable table = seedDatabase.getTable();
+
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+			// Header
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(k);
+			dos.writeInt(seedDatabase.getMaxNoSignalRegion());
+			dos.writeInt(mode);
+			dos.writeInt(seedDatabase.getMinimizerWindow());
+			dos.writeInt(table.getSizeList().size());
+			for (int size : table.getSizeList())
+				dos.writeInt(size);
+			dos.writeInt(table.getCodeList().size());
+			for (int code : table.getCodeList())
+				dos.writeInt(code);
+			dos.writeInt(optrefmap.size());
+			for (DataNode ref : optrefmap.values()) {
+				dos.writeUTF(ref.name);
+				dos.writeLong(ref.size);
+			}
+			dos.writeInt(store.getBlockCount());
+			for (int block = 0; block < store.getBlockCount(); block++) {
+				dos.writeUTF(store.getBlockSource(block));
+				dos.writeInt(store.getBlockSizes(block).limit());
+			}
+			dos.writeInt(store.size());
+			if (mode == 2)
+				dos.writeInt(seedDatabase.getFastDatabaseSeedMap().size());
+			dos.writeBoolean(seedDatabase.getMultiplicity() != null);
+			dos.writeBoolean(store.hasErrorKmers());
+			while (dos.size() % 8 != 0)
+				dos.writeByte(0);
+
+			// Sections
+			for (int block = 0; block < store.getBlockCount(); block++) {
+				LongBuffer sizes = store.getBlockSizes(block);
+				for (int i = 0; i < sizes.limit(); i++)
+					dos.writeLong(sizes.get(i));
+			}
+			for (int i = 0; i < store.size(); i++)
+				dos.writeInt(store.getKmerBlock(i));
+			for (int i = 0; i < store.size(); i++)
+				dos.writeInt(store.getPos(i));
+			for (int i = 0; i < store.size(); i++)
+				dos.writeInt(store.getOffset(i));
+			if (store.hasErrorKmers())
+				for (int i = 0; i < store.size(); i++)
+					dos.writeInt(store.getSkip(i));
+			if (mode == 1) {
+				for (IntBuffer index : seedDatabase.getSortedIndex())
+					for (int i = 0; i < store.size(); i++)
+						dos.writeInt(index.get(i));
+			} else if (mode == 3) {
+				IntBuffer tree = seedDatabase.getKdTree().getTree();
+				for (int i = 0; i < store.size(); i++)
+					dos.writeInt(tree.get(i));
+			} else {
+				// Keys are written in bucket order
+				for (SeedTableKey key : seedDatabase.getFastDatabaseSeedMap().keySet())
+					for (int i = 0; i < k; i++)
+						dos.writeInt(key.key[i]);
+				IntBuffer bucketStart = seedDatabase.getBucketStart();
+				for (int i = 0; i < bucketStart.limit(); i++)
+					dos.writeInt(bucketStart.get(i));
+				IntBuffer bucketKmers = seedDatabase.getBucketKmers();
+				for (int i = 0; i < bucketKmers.limit(); i++)
+					dos.writeInt(bucketKmers.get(i));
+			}
+			if (seedDatabase.getMultiplicity() != null) {
+				IntBuffer multiplicity = seedDatabase.getMultiplicity();
+				for (int i = 0; i < store.size(); i++)
+					dos.writeInt(multiplicity.get(i));
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, long bytes) throws IOException {
+		if (bytes > Integer.MAX_VALUE)
+			throw new IOException("Section of seed index is too large to be mapped.");
+		if (position + bytes > channel.size())
+			throw new IOException("Seed index file is truncated.");
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+	}
+
+	/**
+	 * Reads a seed index file. All kmers and built structures are memory-mapped read-only. The returned <code>SeedDatabase</code> is ready for seeding without building
+	 * 
+	 * @param filename
+	 * @return the seed database
+	 * @throws IOException
+	 */
+	public static SeedDatabase read(String filename) throws IOException {
+		int k;
+		int maxnosignalregion;
+		int mode;
+		int minimizerWindow;
+		List<Integer> sizelist = new ArrayList<>();
+		List<Integer> rclist = new ArrayList<>();
+		LinkedHashMap<String, Long> referenceSizes = new LinkedHashMap<>();
+		List<String> blockSources = new ArrayList<>();
+		List<Integer> blockLengths = new ArrayList<>();
+		int n;
+		int nkeys = 0;
+		boolean hasMultiplicity;
+		boolean hasErrorKmers;
+		long position;
+		try (CountingInputStream cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+			DataInputStream dis = new DataInputStream(cis);
+			if (dis.readInt() != MAGIC)
+				throw new IOException(filename + " is not a seed index file.");
+			int version = dis.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported seed index version: " + version);
+			k = dis.readInt();
+			maxnosignalregion = dis.readInt();
+			mode = dis.readInt();
+			minimizerWindow = dis.readInt();
+			int tableSize = dis.readInt();
+			for (int i = 0; i < tableSize; i++)
+				sizelist.add(dis.readInt());
+			tableSize = dis.readInt();
+			for (int i = 0; i < tableSize; i++)
+				rclist.add(dis.readInt());
+			int nrefs = dis.readInt();
+			for (int i = 0; i < nrefs; i++) {
+				String name = dis.readUTF();
+				referenceSizes.put(name, dis.readLong());
+			}
+			int nblocks = dis.readInt();
+			for (int block = 0; block < nblocks; block++) {
+				blockSources.add(dis.readUTF());
+				blockLengths.add(dis.readInt());
+			}
+			n = dis.readInt();
+			if (mode == 2)
+				nkeys = dis.readInt();
+			hasMultiplicity = dis.readBoolean();
+			hasErrorKmers = dis.readBoolean();
+			position = cis.getByteCount();
+			position += (8 - position % 8) % 8;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(filename, "r"); FileChannel channel = raf.getChannel()) {
+			// The mappings remain valid after the channel is closed
+			long totalSegments = 0;
+			for (int length : blockLengths)
+				totalSegments += length;
+			LongBuffer allSizes = map(channel, position, totalSegments * 8).asLongBuffer();
+			position += totalSegments * 8;
+			List<LongBuffer> blocks = new ArrayList<>();
+			int start = 0;
+			for (int length : blockLengths) {
+				LongBuffer block = allSizes.duplicate();
+				block.position(start);
+				block.limit(start + length);
+				blocks.add(block.slice());
+				start += length;
+			}
+			IntBuffer kmerBlock = map(channel, position, n * 4L).asIntBuffer();
+			position += n * 4L;
+			IntBuffer kmerPos = map(channel, position, n * 4L).asIntBuffer();
+			position += n * 4L;
+			IntBuffer kmerOffset = map(channel, position, n * 4L).asIntBuffer();
+			position += n * 4L;
+			IntBuffer kmerSkip = null;
+			if (hasErrorKmers) {
+				kmerSkip = map(channel, position, n * 4L).asIntBuffer();
+				position += n * 4L;
+			}
+			KmerStore store = new KmerStore(k, blockSources, blocks, kmerBlock, kmerPos, kmerOffset, kmerSkip);
+
+			SeedDatabase seedDatabase = new SeedDatabase(store);
+			seedDatabase.setMode(mode);
+			seedDatabase.setMinimizerWindow(minimizerWindow);
+			seedDatabase.setParameters(k, maxnosignalregion);
+			seedDatabase.assignReferenceSizes(referenceSizes);
+			if (mode == 1) {
+				IntBuffer[] sortedIndex = new IntBuffer[k];
+				for (int i = 0; i < k; i++) {
+					sortedIndex[i] = map(channel, position, n * 4L).asIntBuffer();
+					position += n * 4L;
+				}
+				seedDatabase.assignSortListDatabase(sortedIndex);
+			} else if (mode == 2) {
+				IntBuffer keys = map(channel, position, (long) nkeys * k * 4).asIntBuffer();
+				position += (long) nkeys * k * 4;
+				LinkedHashMap<SeedTableKey, Integer> fastDatabaseSeedMap = new LinkedHashMap<>();
+				// Keys are stored consecutively and are read in bucket order
+				for (int bucket = 0; bucket < nkeys; bucket++) {
+					int[] key = new int[k];
+					keys.get(key);
+					fastDatabaseSeedMap.put(new SeedTableKey(key), bucket);
+				}
+				IntBuffer bucketStart = map(channel, position, (nkeys + 1) * 4L).asIntBuffer();
+				position += (nkeys + 1) * 4L;
+				IntBuffer bucketKmers = map(channel, position, n * 4L).asIntBuffer();
+				position += n * 4L;
+				seedDatabase.assignBinningDatabase(new FastConversionTable(sizelist, rclist), fastDatabaseSeedMap, bucketStart, bucketKmers);
+			} else if (mode == 3) {
+				seedDatabase.assignKdTreeDatabase(map(channel, position, n * 4L).asIntBuffer());
+				position += n * 4L;
+			} else
+				throw new IOException("Unsupported seeding mode in seed index: " + mode);
+			if (hasMultiplicity) {
+				seedDatabase.assignMultiplicity(map(channel, position, n * 4L).asIntBuffer());
+				position += n * 4L;
+			}
+			return seedDatabase;
+		}
+	}
+
+	/**
+	 * Checks that <code>seedDatabase</code> is built from the same references as <code>optrefmap</code>, and that the reference kmers are generated with the same parameters
+	 * 
+	 * @param seedDatabase
+	 * @param optrefmap
+	 * @param k
+	 * @param maxnosignalregion
+	 * @throws IOException
+	 *             if the seed index does not match
+	 */
+	public static void validate(SeedDatabase seedDatabase, LinkedHashMap<String, DataNode> optrefmap, int k, int maxnosignalregion) throws IOException {
+		if (seedDatabase.getK() != k)
+			throw new IOException("Seed index is built with k = " + seedDatabase.getK() + ", but k = " + k + " is used.");
+		if (seedDatabase.getMaxNoSignalRegion() != maxnosignalregion)
+			throw new IOException("Seed index is built with maxnosignal = " + seedDatabase.getMaxNoSignalRegion() + ", but maxnosignal = " + maxnosignalregion + " is used.");
+		// References without any kmer have no blocks, so the reference list is compared as well
+		LinkedHashMap<String, Long> referenceSizes = seedDatabase.getReferenceSizes();
+		for (Entry<String, Long> entry : referenceSizes.entrySet()) {
+			DataNode ref = optrefmap.get(entry.getKey());
+			if (ref == null)
+				throw new IOException("Reference " + entry.getKey() + " in seed index is not found.");
+			if (ref.size != entry.getValue())
+				throw new IOException("Reference " + entry.getKey() + " in seed index does not match the input reference.");
+		}
+		for (String name : optrefmap.keySet())
+			if (!referenceSizes.containsKey(name))
+				throw new IOException("Reference " + name + " is not found in seed index.");
+		KmerStore store = seedDatabase.getKmerStore();
+		for (int block = 0; block < store.getBlockCount(); block++) {
+			String source = store.getBlockSource(block);
+			DataNode ref = optrefmap.get(source);
+			if (ref == null)
+				throw new IOException("Reference " + source + " in seed index is not found.");
+			LongBuffer sizes = store.getBlockSizes(block);
+			if (sizes.limit() != ref.getTotalSegment())
+				throw new IOException("Reference " + source + " in seed index does not match the input reference.");
+			for (int i = 0; i < sizes.limit(); i++)
+				if (sizes.get(i) != ref.getRefl(i))
+					throw new IOException("Reference " + source + " in seed index does not match the input reference.");
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**************************************************************************
+**  OMTools
+**  A software package for processing and analyzing optical mapping data
+**  
+**  Version 1.4 -- March 10, 2018
+**  
+**  Copyright (C) 2018 by Alden Leung, Ting-Fung Chan, All rights reserved.
+**  Contact:  alden.leung@gmail.com, tf.chan@cuhk.edu.hk
+**  Organization:  School of Life Sciences, The Chinese University of Hong Kong,
+**                 Shatin, NT, Hong Kong SAR
+**  
+**  This file is part of OMTools.
+**  
+**  OMTools is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMTools is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMTools; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.GenomicPosNode;
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A position-range predicate on reference kmers. It restricts seeding to kmers located within the given regions, and is applied during candidate enumeration of <code>SeedDatabase</code>, such that the global seed database does not need to be rebuilt for each restricted query.
+ * 
+ * @author Alden
+ *
+ */
+public class SeedRegionFilter {
+
+	/**
+	 * Sorted, non-overlapping ranges of kmer positions stored as [first1, last1, first2, last2, ...] on each reference
+	 */
+	private final LinkedHashMap<String, int[]> rangeMap;
+
+	public SeedRegionFilter(LinkedHashMap<String, DataNode> optrefmap, List<GenomicPosNode> regionList, int kmerlen) {
+		LinkedHashMap<String, List<int[]>> kmerRangeMap = new LinkedHashMap<>();
+		for (GenomicPosNode region : regionList) {
+			DataNode ref = optrefmap.get(region.ref);
+			if (ref == null)
+				continue;
+			int[] kmerRange = ref.getKmerRange(region, kmerlen);
+			if (kmerRange[0] > kmerRange[1])
+				continue;
+			if (!kmerRangeMap.containsKey(region.ref))
+				kmerRangeMap.put(region.ref, new ArrayList<int[]>());
+			kmerRangeMap.get(region.ref).add(kmerRange);
+		}
+		rangeMap = new LinkedHashMap<>();
+		for (String ref : kmerRangeMap.keySet()) {
+			List<int[]> kmerRangeList = kmerRangeMap.get(ref);
+			kmerRangeList.sort((r1, r2) -> Integer.compare(r1[0], r2[0]));
+			// Merge overlapping ranges
+			int[] ranges = new int[kmerRangeList.size() * 2];
+			int size = 0;
+			for (int[] kmerRange : kmerRangeList) {
+				if (size > 0 && kmerRange[0] <= ranges[size - 1] + 1)
+					ranges[size - 1] = Math.max(ranges[size - 1], kmerRange[1]);
+				else {
+					ranges[size++] = kmerRange[0];
+					ranges[size++] = kmerRange[1];
+				}
+			}
+			rangeMap.put(ref, Arrays.copyOf(ranges, size));
+		}
+	}
+
+	/**
+	 * Returns the kmer position ranges on <code>ref</code>. An empty array is returned if no region is on <code>ref</code>
+	 * 
+	 * @param ref
+	 * @return kmer position ranges stored as [first1, last1, first2, last2, ...]
+	 */
+	public int[] getRanges(String ref) {
+		int[] ranges = rangeMap.get(ref);
+		return ranges == null ? new int[0] : ranges;
+	}
+
+	/**
+	 * Checks if <code>pos</code> is within any of the <code>ranges</code> returned from {@link #getRanges(String)}
+	 * 
+	 * @param ranges
+	 * @param pos
+	 * @return <code>true</code> if <code>pos</code> is within the ranges
+	 */
+	public static boolean contains(int[] ranges, int pos) {
+		int low = 0;
+		int high = ranges.length / 2 - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (ranges[mid * 2 + 1] < pos)
+				low = mid + 1;
+			else if (ranges[mid * 2] > pos)
+				high = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	public boolean contains(String ref, int pos) {
+		return contains(getRanges(ref), pos);
+	}
+}
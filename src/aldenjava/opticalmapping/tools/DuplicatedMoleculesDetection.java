@@ -43,6 +43,7 @@ import joptsimple.OptionSet;
 import aldenjava.opticalmapping.data.data.DataNode;
 import aldenjava.opticalmapping.data.data.OptMapDataReader;
 import aldenjava.opticalmapping.mapper.seeding.Kmer;
+import aldenjava.opticalmapping.mapper.seeding.KmerStore;
 import aldenjava.opticalmapping.mapper.seeding.MultiThreadSeedDatabase;
 import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
 import aldenjava.opticalmapping.mapper.seeding.SeedingResultNode;
@@ -82,7 +83,7 @@ public class DuplicatedMoleculesDetection {
 
 		boolean found = false;
 		for (Kmer hitKmer : hitKmers)
-			if (hitKmer != targetKmer) {
+			if (!hitKmer.equals(targetKmer)) {
 				found = true;
 				if (assignedGroup.containsKey(hitKmer.source))
 					involvedGroups.add(assignedGroup.get(hitKmer.source));
@@ -99,7 +100,7 @@ public class DuplicatedMoleculesDetection {
 				groupElements.get(targetGroup).add(targetKmer.source);
 			assignedGroup.put(targetKmer.source, targetGroup);
 			for (Kmer hitKmer : hitKmers)
-				if (hitKmer != targetKmer) {
+				if (!hitKmer.equals(targetKmer)) {
 					if (!assignedGroup.containsKey(hitKmer.source))
 						groupElements.get(targetGroup).add(hitKmer.source);
 					assignedGroup.put(hitKmer.source, targetGroup);
@@ -125,13 +126,14 @@ public class DuplicatedMoleculesDetection {
 			return new LinkedHashMap<>();
 		}
 		VerbosePrinter.println("Start checking duplications on optical maps with " + k + " segments...");
-		List<Kmer> kmerList = new ArrayList<>();
+		KmerStore store = new KmerStore(k, dataMap.size());
 		for (DataNode data : dataMap.values()) {
 			assert k == data.getTotalSegment();
-			kmerList.add(data.getKmer(k, 0));
+			store.addBlock(data.name, data.getRefl());
+			store.add(store.getBlockCount() - 1, 0, 0);
 		}
 
-		SeedDatabase seedDatabase = new SeedDatabase(kmerList, k);
+		SeedDatabase seedDatabase = new SeedDatabase(store);
 		seedDatabase.setMode(options);
 		seedDatabase.setParameters(k);
 		seedDatabase.buildDatabase();
@@ -141,20 +143,15 @@ public class DuplicatedMoleculesDetection {
 		LinkedHashMap<String, Integer> assignedGroup = new LinkedHashMap<>();
 		LinkedHashMap<Integer, List<String>> groupElements = new LinkedHashMap<>();
 		try {
-			for (Kmer kmer : kmerList) {
-				while (!mtsd.startNext(kmer)) {
-					SeedingResultNode seedingResultNode = mtsd.getNextResult();
-					Kmer targetKmer = seedingResultNode.kmer;
-					List<Kmer> hitKmers = seedingResultNode.kmerList;
-					process(assignedGroup, groupElements, targetKmer, hitKmers);
-				}
-			}
-			while (mtsd.getStatus() != -1) {
-				SeedingResultNode seedingResultNode = mtsd.getNextResult();
-				Kmer targetKmer = seedingResultNode.kmer;
-				List<Kmer> hitKmers = seedingResultNode.kmerList;
-				process(assignedGroup, groupElements, targetKmer, hitKmers);
+			for (int i = 0; i < store.size(); i++) {
+				Kmer kmer = store.getKmer(i);
+				while (!mtsd.startNext(kmer))
+					for (SeedingResultNode seedingResultNode : mtsd.getNextResult())
+						process(assignedGroup, groupElements, seedingResultNode.kmer, seedingResultNode.kmerList);
 			}
+			while (mtsd.getStatus() != -1)
+				for (SeedingResultNode seedingResultNode : mtsd.getNextResult())
+					process(assignedGroup, groupElements, seedingResultNode.kmer, seedingResultNode.kmerList);
 		} catch (InterruptedException | ExecutionException e) {
 			e.printStackTrace();
 		}
@@ -34,9 +34,12 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 
+import aldenjava.opticalmapping.data.OMReader;
+import aldenjava.opticalmapping.data.data.DataNode;
 import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
 import aldenjava.opticalmapping.data.mappingresult.OptMapResultReader;
 import aldenjava.opticalmapping.data.mappingresult.OptMapResultWriter;
+import aldenjava.opticalmapping.mapper.multithread.ShardAssigner;
 import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
 import joptsimple.OptionSet;
 
@@ -47,6 +50,42 @@ import joptsimple.OptionSet;
  */
 public class ResultMerger {
 
+	/**
+	 * Merges the results of query shards back into the query order. Each shard result file must list its molecules in the order of the shard input, as written with <code>--keeporder</code>. The results are re-attached to the molecules read from the query, so the output is the same as mapping the query in a single run.
+	 * 
+	 * @param omdr
+	 *            reader of the original query
+	 * @param assigner
+	 *            a new shard assigner with the same settings used to split the query
+	 * @param shardReaderList
+	 *            readers of the shard results, in shard order
+	 * @param omrw
+	 *            writer of the merged results
+	 * @throws IOException
+	 */
+	public static void mergeShards(OMReader<DataNode> omdr, ShardAssigner assigner, List<OptMapResultReader> shardReaderList, OptMapResultWriter omrw) throws IOException {
+		if (shardReaderList.size() != assigner.getShards())
+			throw new IllegalArgumentException("Number of shard results does not match number of shards.");
+		List<List<OptMapResultNode>> nextResultList = new ArrayList<>();
+		for (OptMapResultReader omrr : shardReaderList)
+			nextResultList.add(omrr.readNextList());
+		DataNode data;
+		while ((data = omdr.read()) != null) {
+			int shard = assigner.getShard(data);
+			List<OptMapResultNode> resultList = nextResultList.get(shard);
+			// Molecules without any result are not present in the shard result file
+			if (resultList == null || !resultList.get(0).parentFrag.name.equalsIgnoreCase(data.name))
+				continue;
+			for (OptMapResultNode result : resultList)
+				result.parentFrag = data;
+			omrw.write(resultList);
+			nextResultList.set(shard, shardReaderList.get(shard).readNextList());
+		}
+		for (int shard = 0; shard < nextResultList.size(); shard++)
+			if (nextResultList.get(shard) != null)
+				System.err.println("Warning! Results of shard " + (shard + 1) + " do not follow the query order. Remaining results of the shard are discarded.");
+	}
+
 	public static void main(String[] args) throws IOException {
 		ExtendOptionParser parser = new ExtendOptionParser(ResultMerger.class.getSimpleName(), "Merges alignment results from different alignment methods");
 		OptMapResultReader.assignOptions(parser, 1);